@@ -0,0 +1,432 @@
+package sexy.kostya.proto4j.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates codecs of the packets marked with {@code AutoPacket}: plain static methods which write, read and measure the fields,
+ * so that no reflection is involved at runtime. The annotations are referred to by name, so that this module doesn't depend on transport.
+ */
+@SupportedAnnotationTypes(AutoPacketProcessor.AUTO_PACKET)
+public class AutoPacketProcessor extends AbstractProcessor {
+
+    final static String CODEC_PACKAGE = "sexy.kostya.proto4j.transport.highlevel.packet.codec";
+    final static String AUTO_PACKET   = CODEC_PACKAGE + ".AutoPacket";
+
+    private final static String VARINT = CODEC_PACKAGE + ".Varint";
+    private final static String CODEC  = CODEC_PACKAGE + ".AutoPacketCodec";
+    private final static String CODECS = CODEC_PACKAGE + ".Codecs";
+    private final static String BUFFER = "sexy.kostya.proto4j.transport.buffer.Buffer";
+    private final static String PACKET = "sexy.kostya.proto4j.transport.highlevel.packet.EnumeratedProto4jPacket";
+
+    // nullable fields are marked in a single varlong
+    private final static int MAX_NULLABLE_FIELDS = 64;
+
+    private final List<String> codecs = new ArrayList<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment environment) {
+        if (environment.processingOver()) {
+            if (!this.codecs.isEmpty()) {
+                writeServices();
+            }
+            return false;
+        }
+        TypeElement annotation = this.processingEnv.getElementUtils().getTypeElement(AUTO_PACKET);
+        if (annotation == null) {
+            return false;
+        }
+        for (Element element : environment.getElementsAnnotatedWith(annotation)) {
+            try {
+                generate((TypeElement) element);
+            } catch (InvalidPacketException ex) {
+                error(ex.element, ex.getMessage());
+            } catch (IOException ex) {
+                error(element, "Could not write codec: " + ex.getMessage());
+            }
+        }
+        return true;
+    }
+
+    private void generate(TypeElement packet) throws IOException {
+        if (packet.getModifiers().contains(Modifier.ABSTRACT) || packet.getNestingKind().isNested() && !packet.getModifiers().contains(Modifier.STATIC)) {
+            throw new InvalidPacketException(packet, "Packet must be a concrete top level or static class");
+        }
+        TypeMirror base = this.processingEnv.getElementUtils().getTypeElement(PACKET).asType();
+        if (!this.processingEnv.getTypeUtils().isAssignable(packet.asType(), base)) {
+            throw new InvalidPacketException(packet, "Packet must extend EnumeratedProto4jPacket");
+        }
+        int id = (Integer) getValue(getAnnotation(packet, AUTO_PACKET), "id", null);
+
+        List<Field> fields   = new ArrayList<>();
+        int         nullable = 0;
+        for (Element element : packet.getEnclosedElements()) {
+            if (element.getKind() != ElementKind.FIELD) {
+                continue;
+            }
+            Set<Modifier> modifiers = element.getModifiers();
+            if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                continue;
+            }
+            if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL)) {
+                throw new InvalidPacketException(element, "Field of the packet must be neither private nor final");
+            }
+            Field field = new Field((VariableElement) element);
+            if (field.nullable) {
+                field.bit = nullable++;
+            }
+            fields.add(field);
+        }
+        if (nullable > MAX_NULLABLE_FIELDS) {
+            throw new InvalidPacketException(packet, "Packet can't have more than " + MAX_NULLABLE_FIELDS + " fields of reference types");
+        }
+
+        String packageName = this.processingEnv.getElementUtils().getPackageOf(packet).getQualifiedName().toString();
+        String packetName  = packet.getQualifiedName().toString();
+        String simpleName  = packet.getSimpleName() + "Codec";
+        String codecName   = packageName.isEmpty() ? simpleName : packageName + '.' + simpleName;
+
+        StringBuilder code = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            code.append("package ").append(packageName).append(";\n\n");
+        }
+        code.append("/**\n * Generated from {@link ").append(packetName).append("}, don't edit.\n */\n");
+        code.append("public final class ").append(simpleName).append(" implements ").append(CODEC).append('<').append(packetName).append("> {\n\n");
+        code.append("    public final static int ID = ").append(id).append(";\n");
+        for (Field field : fields) {
+            if (field.kind == Kind.ENUM) {
+                code.append("\n    private final static ").append(field.type).append("[] ").append(field.constant()).append(" = ").append(field.type).append(".values();\n");
+            }
+        }
+
+        code.append("\n    public static void write(").append(packetName).append(" packet, ").append(BUFFER).append(" buffer) {\n");
+        if (nullable != 0) {
+            code.append("        buffer.writeVarLong(present(packet));\n");
+        }
+        for (Field field : fields) {
+            String value = "packet." + field.name;
+            if (field.nullable) {
+                code.append("        if (").append(value).append(" != null) {\n    ");
+            }
+            code.append("        ").append(field.write(value)).append(";\n");
+            if (field.nullable) {
+                code.append("        }\n");
+            }
+        }
+        code.append("    }\n");
+
+        code.append("\n    public static void read(").append(packetName).append(" packet, ").append(BUFFER).append(" buffer) {\n");
+        if (nullable != 0) {
+            code.append("        long present = buffer.readVarLong();\n");
+        }
+        for (Field field : fields) {
+            code.append("        packet.").append(field.name).append(" = ");
+            if (field.nullable) {
+                code.append("(present & 1L << ").append(field.bit).append(") == 0 ? null : ");
+            }
+            code.append(field.read()).append(";\n");
+        }
+        code.append("    }\n");
+
+        code.append("\n    /**\n     * @return exact amount of bytes {@link #write} writes\n     */\n");
+        code.append("    public static int size(").append(packetName).append(" packet) {\n");
+        code.append("        int size = ").append(nullable == 0 ? "0" : CODECS + ".varLongSize(present(packet))").append(";\n");
+        for (Field field : fields) {
+            String value = "packet." + field.name;
+            if (field.nullable) {
+                code.append("        if (").append(value).append(" != null) {\n    ");
+            }
+            code.append("        size += ").append(field.size(value)).append(";\n");
+            if (field.nullable) {
+                code.append("        }\n");
+            }
+        }
+        code.append("        return size;\n    }\n");
+
+        if (nullable != 0) {
+            code.append("\n    private static long present(").append(packetName).append(" packet) {\n");
+            code.append("        long present = 0;\n");
+            for (Field field : fields) {
+                if (field.nullable) {
+                    code.append("        if (packet.").append(field.name).append(" != null) {\n");
+                    code.append("            present |= 1L << ").append(field.bit).append(";\n");
+                    code.append("        }\n");
+                }
+            }
+            code.append("        return present;\n    }\n");
+        }
+
+        code.append("\n    @Override\n    public int getID() {\n        return ID;\n    }\n");
+        code.append("\n    @Override\n    public ").append(packetName).append(" create() {\n        return new ").append(packetName).append("();\n    }\n");
+        code.append("\n}\n");
+
+        JavaFileObject file = this.processingEnv.getFiler().createSourceFile(codecName, packet);
+        try (Writer writer = file.openWriter()) {
+            writer.write(code.toString());
+        }
+        this.codecs.add(codecName);
+    }
+
+    private void writeServices() {
+        try {
+            FileObject file = this.processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", "META-INF/services/" + CODEC);
+            try (Writer writer = file.openWriter()) {
+                for (String codec : this.codecs) {
+                    writer.write(codec);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException ex) {
+            this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not list generated codecs: " + ex.getMessage());
+        }
+    }
+
+    private void error(Element element, String message) {
+        this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private static AnnotationMirror getAnnotation(Element element, String name) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(name)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private static Object getValue(AnnotationMirror annotation, String name, Object defaultValue) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotation.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                return entry.getValue().getValue();
+            }
+        }
+        return defaultValue;
+    }
+
+    private enum Kind {
+        BOOLEAN, BYTE, SHORT, CHAR, INT, LONG, FLOAT, DOUBLE, STRING, UUID, ENUM, BYTES, INTS, LONGS
+    }
+
+    private static class Field {
+
+        private final String  name;
+        private final String  type;
+        private final Kind    kind;
+        private final boolean nullable;
+        private final boolean varint;
+        private final boolean zigzag;
+        private       int     bit;
+
+        private Field(VariableElement element) {
+            this.name = element.getSimpleName().toString();
+            TypeMirror type = element.asType();
+            this.type = type.toString();
+            this.kind = getKind(element, type);
+            this.nullable = !type.getKind().isPrimitive();
+            AnnotationMirror varint = getAnnotation(element, VARINT);
+            this.varint = varint != null;
+            this.zigzag = varint != null && (Boolean) getValue(varint, "zigzag", false);
+            if (this.varint && this.kind != Kind.INT && this.kind != Kind.LONG && this.kind != Kind.INTS && this.kind != Kind.LONGS) {
+                throw new InvalidPacketException(element, "Only int, long and their arrays can be written as varints");
+            }
+        }
+
+        private static Kind getKind(VariableElement element, TypeMirror type) {
+            switch (type.getKind()) {
+                case BOOLEAN:
+                    return Kind.BOOLEAN;
+                case BYTE:
+                    return Kind.BYTE;
+                case SHORT:
+                    return Kind.SHORT;
+                case CHAR:
+                    return Kind.CHAR;
+                case INT:
+                    return Kind.INT;
+                case LONG:
+                    return Kind.LONG;
+                case FLOAT:
+                    return Kind.FLOAT;
+                case DOUBLE:
+                    return Kind.DOUBLE;
+                case ARRAY:
+                    switch (((ArrayType) type).getComponentType().getKind()) {
+                        case BYTE:
+                            return Kind.BYTES;
+                        case INT:
+                            return Kind.INTS;
+                        case LONG:
+                            return Kind.LONGS;
+                    }
+                    break;
+                case DECLARED:
+                    TypeElement declared = (TypeElement) ((DeclaredType) type).asElement();
+                    if (declared.getKind() == ElementKind.ENUM) {
+                        return Kind.ENUM;
+                    }
+                    if (declared.getQualifiedName().contentEquals("java.lang.String")) {
+                        return Kind.STRING;
+                    }
+                    if (declared.getQualifiedName().contentEquals("java.util.UUID")) {
+                        return Kind.UUID;
+                    }
+                    break;
+            }
+            if (type.getKind() == TypeKind.ERROR) {
+                throw new InvalidPacketException(element, "Type of the field is unknown");
+            }
+            throw new InvalidPacketException(element, "Type " + type + " is not supported, write the packet manually instead");
+        }
+
+        private String constant() {
+            return this.name.toUpperCase() + "_VALUES";
+        }
+
+        private String write(String value) {
+            switch (this.kind) {
+                case BOOLEAN:
+                    return "buffer.writeBoolean(" + value + ")";
+                case BYTE:
+                    return "buffer.writeByte(" + value + ")";
+                case SHORT:
+                    return "buffer.writeShort(" + value + ")";
+                case CHAR:
+                    return "buffer.writeShort((short) " + value + ")";
+                case INT:
+                    return this.varint ? "buffer.writeVarInt(" + zigzag(value) + ")" : "buffer.writeInt(" + value + ")";
+                case LONG:
+                    return this.varint ? "buffer.writeVarLong(" + zigzag(value) + ")" : "buffer.writeLong(" + value + ")";
+                case FLOAT:
+                    return "buffer.writeInt(Float.floatToIntBits(" + value + "))";
+                case DOUBLE:
+                    return "buffer.writeLong(Double.doubleToLongBits(" + value + "))";
+                case STRING:
+                    return CODECS + ".writeString(buffer, " + value + ")";
+                case UUID:
+                    return "buffer.writeUUID(" + value + ")";
+                case ENUM:
+                    return "buffer.writeVarInt(" + value + ".ordinal())";
+                case BYTES:
+                    return CODECS + ".writeBytes(buffer, " + value + ")";
+                case INTS:
+                    return this.varint ? CODECS + ".writeVarInts(buffer, " + value + ", " + this.zigzag + ")" : CODECS + ".writeInts(buffer, " + value + ")";
+                default:
+                    return this.varint ? CODECS + ".writeVarLongs(buffer, " + value + ", " + this.zigzag + ")" : CODECS + ".writeLongs(buffer, " + value + ")";
+            }
+        }
+
+        private String read() {
+            switch (this.kind) {
+                case BOOLEAN:
+                    return "buffer.readBoolean()";
+                case BYTE:
+                    return "buffer.readByte()";
+                case SHORT:
+                    return "buffer.readShort()";
+                case CHAR:
+                    return "(char) buffer.readShort()";
+                case INT:
+                    return this.varint ? unzigzag("buffer.readVarInt()") : "buffer.readInt()";
+                case LONG:
+                    return this.varint ? unzigzag("buffer.readVarLong()") : "buffer.readLong()";
+                case FLOAT:
+                    return "Float.intBitsToFloat(buffer.readInt())";
+                case DOUBLE:
+                    return "Double.longBitsToDouble(buffer.readLong())";
+                case STRING:
+                    return CODECS + ".readString(buffer)";
+                case UUID:
+                    return "buffer.readUUID()";
+                case ENUM:
+                    return constant() + "[buffer.readVarInt()]";
+                case BYTES:
+                    return CODECS + ".readBytes(buffer)";
+                case INTS:
+                    return this.varint ? CODECS + ".readVarInts(buffer, " + this.zigzag + ")" : CODECS + ".readInts(buffer)";
+                default:
+                    return this.varint ? CODECS + ".readVarLongs(buffer, " + this.zigzag + ")" : CODECS + ".readLongs(buffer)";
+            }
+        }
+
+        private String size(String value) {
+            switch (this.kind) {
+                case BOOLEAN:
+                case BYTE:
+                    return "1";
+                case SHORT:
+                case CHAR:
+                    return "2";
+                case INT:
+                    return this.varint ? CODECS + ".varIntSize(" + zigzag(value) + ")" : "4";
+                case LONG:
+                    return this.varint ? CODECS + ".varLongSize(" + zigzag(value) + ")" : "8";
+                case FLOAT:
+                    return "4";
+                case DOUBLE:
+                    return "8";
+                case STRING:
+                    return CODECS + ".stringSize(" + value + ")";
+                case UUID:
+                    return "16";
+                case ENUM:
+                    return CODECS + ".varIntSize(" + value + ".ordinal())";
+                case BYTES:
+                    return CODECS + ".bytesSize(" + value + ")";
+                case INTS:
+                    return this.varint ? CODECS + ".varIntsSize(" + value + ", " + this.zigzag + ")" : CODECS + ".intsSize(" + value + ")";
+                default:
+                    return this.varint ? CODECS + ".varLongsSize(" + value + ", " + this.zigzag + ")" : CODECS + ".longsSize(" + value + ")";
+            }
+        }
+
+        private String zigzag(String value) {
+            return this.zigzag ? CODECS + ".zigzag(" + value + ")" : value;
+        }
+
+        private String unzigzag(String value) {
+            return this.zigzag ? CODECS + ".unzigzag(" + value + ")" : value;
+        }
+
+    }
+
+    private static class InvalidPacketException extends RuntimeException {
+
+        private final Element element;
+
+        private InvalidPacketException(Element element, String message) {
+            super(message);
+            this.element = element;
+        }
+
+    }
+
+}
@@ -4,6 +4,7 @@ import sexy.kostya.proto4j.exception.RpcException;
 import sexy.kostya.proto4j.rpc.transport.packet.RpcInvocationPacket;
 import sexy.kostya.proto4j.rpc.transport.packet.RpcResponsePacket;
 import sexy.kostya.proto4j.transport.highlevel.HighChannel;
+import sexy.kostya.proto4j.transport.highlevel.packet.CallbackProto4jPacket;
 
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
@@ -22,7 +23,7 @@ public abstract class BaseServiceManager<C extends HighChannel> extends Internal
             if (channel == null || !channel.isActive()) {
                 throw new NullPointerException("Could not find implementation for service");
             }
-            channel.send(packet);
+            channel.send(packet, packet.getFlags());
         }
     }
 
@@ -35,12 +36,48 @@ public abstract class BaseServiceManager<C extends HighChannel> extends Internal
             if (channel == null || !channel.isActive()) {
                 return CompletableFuture.completedFuture(new RpcResponsePacket(new RpcException(RpcException.Code.NO_SERVICE_AVAILABLE, "Could not find implementation for service"), null));
             }
-            return channel.sendWithCallback(packet).thenApply(p -> (RpcResponsePacket) p);
+            return sendWithCallback(channel, packet);
         }
     }
 
+    /**
+     * @return stage of the response which cancels the remote invocation once it's cancelled
+     */
+    protected CompletionStage<RpcResponsePacket> sendWithCallback(HighChannel channel, RpcInvocationPacket packet) {
+        CompletableFuture<CallbackProto4jPacket> source   = channel.sendWithCallback(packet).toCompletableFuture();
+        CompletableFuture<RpcResponsePacket>     response = source.thenApply(p -> (RpcResponsePacket) p);
+        response.whenComplete((p, ex) -> {
+            if (response.isCancelled()) {
+                source.cancel(false);
+            }
+        });
+        return response;
+    }
+
     public abstract void invokeRemote(C invoker, RpcInvocationPacket packet);
 
+    /**
+     * @return whether the invoker has cancelled the invocation while it was queued
+     */
+    protected boolean isCancelled(HighChannel invoker, RpcInvocationPacket packet) {
+        return packet.getCallbackID() != 0 && invoker.isCancelled(packet.getCallbackID());
+    }
+
+    /**
+     * Forwards the invocation the invoker awaits the response to, so that its cancel is forwarded as well.
+     */
+    protected CompletionStage<CallbackProto4jPacket> forward(HighChannel invoker, int callbackID, HighChannel channel, RpcInvocationPacket packet) {
+        CompletableFuture<CallbackProto4jPacket> future = channel.sendWithCallback(packet).toCompletableFuture();
+        invoker.onCancel(callbackID, () -> future.cancel(false));
+        future.whenComplete((response, ex) -> {
+            if (ex != null) {
+                // the invoker is never responded then
+                invoker.removeOnCancel(callbackID);
+            }
+        });
+        return future;
+    }
+
     protected abstract C getChannel(RpcInvocationPacket packet);
 
 }
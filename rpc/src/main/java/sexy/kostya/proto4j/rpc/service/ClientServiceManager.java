@@ -1,6 +1,7 @@
 package sexy.kostya.proto4j.rpc.service;
 
 import com.google.common.base.Preconditions;
+import sexy.kostya.proto4j.commons.Proto4jException;
 import sexy.kostya.proto4j.exception.RpcException;
 import sexy.kostya.proto4j.rpc.transport.RpcClient;
 import sexy.kostya.proto4j.rpc.transport.packet.RpcInvocationPacket;
@@ -8,7 +9,9 @@ import sexy.kostya.proto4j.rpc.transport.packet.RpcResponsePacket;
 import sexy.kostya.proto4j.rpc.transport.packet.RpcServicePacket;
 import sexy.kostya.proto4j.transport.highlevel.HighChannel;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
 /**
@@ -30,12 +33,20 @@ public class ClientServiceManager extends BaseServiceManager<HighChannel> {
 
     @Override
     public void invokeRemote(HighChannel invoker, RpcInvocationPacket packet) {
+        if (isCancelled(invoker, packet)) {
+            return;
+        }
         if (isServiceRegisteredThere(packet.getServiceID())) {
-            invoke(packet).thenAccept(response -> {
+            int                                callbackID = packet.getCallbackID();
+            CompletionStage<RpcResponsePacket> result = invoke(packet);
+            if (callbackID != 0) {
+                invoker.onCancel(callbackID, () -> cancel(result));
+            }
+            result.thenAccept(response -> {
                 if (response == null) {
                     return;
                 }
-                Preconditions.checkState(packet.getCallbackID() != 0); // ensure it's awaiting response
+                Preconditions.checkState(callbackID != 0); // ensure it's awaiting response
                 packet.respond(invoker, response);
             });
         } else {
@@ -48,14 +59,35 @@ public class ClientServiceManager extends BaseServiceManager<HighChannel> {
 
     @Override
     protected HighChannel getChannel(RpcInvocationPacket packet) {
-        return getClient().getChannel();
+        return getClient().getChannel(packet);
     }
 
     @Override
     public <S, I extends S> CompletionStage<Integer> registerService(Class<S> serviceInterface, I implementation) {
-        CompletionStage<Integer> serviceIdentifierFuture = super.registerService(serviceInterface, implementation);
-        return serviceIdentifierFuture
-                .thenCompose(sid -> getClient().getChannel().sendWithCallback(new RpcServicePacket(sid)))
-                .thenApply(packet -> ((RpcServicePacket) packet).getServiceID());
+        return super.registerService(serviceInterface, implementation).thenCompose(this::announceService);
+    }
+
+    /**
+     * Announces all the services implemented by the client to the server it's connected to, e.g. once it's reconnected.
+     */
+    public CompletionStage<Void> announceServices() {
+        return CompletableFuture.allOf(getImplementedServices().stream()
+                .map(sid -> announceService(sid).toCompletableFuture())
+                .toArray(CompletableFuture[]::new));
+    }
+
+    private CompletionStage<Integer> announceService(int sid) {
+        return getClient().getChannel().sendWithCallback(new RpcServicePacket(sid, getClient().isMulticastEnabled()))
+                .thenApply(packet -> {
+                    RpcServicePacket response = (RpcServicePacket) packet;
+                    if (response.getGroup() != null) {
+                        try {
+                            getClient().joinMulticast(response);
+                        } catch (IOException ex) {
+                            throw new Proto4jException("Could not join multicast group " + response.getGroup(), ex);
+                        }
+                    }
+                    return response.getServiceID();
+                });
     }
 }
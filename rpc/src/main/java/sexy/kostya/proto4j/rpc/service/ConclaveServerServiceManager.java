@@ -116,7 +116,7 @@ public class ConclaveServerServiceManager extends BaseServiceManager<ConclaveCha
         } else if (channel == null || !channel.isActive()) {
             throw new NullPointerException("Could not find implementation for service");
         } else {
-            channel.send(packet);
+            channel.send(packet, packet.getFlags());
         }
     }
 
@@ -128,15 +128,18 @@ public class ConclaveServerServiceManager extends BaseServiceManager<ConclaveCha
         } else if (channel == null || !channel.isActive()) {
             return CompletableFuture.completedFuture(new RpcResponsePacket(new RpcException(RpcException.Code.NO_SERVICE_AVAILABLE, "Could not find implementation for service"), null));
         } else {
-            return channel.sendWithCallback(packet).thenApply(p -> (RpcResponsePacket) p);
+            return sendWithCallback(channel, packet);
         }
     }
 
     @Override
     public void invokeRemote(ConclaveChannel invoker, RpcInvocationPacket packet) {
+        if (isCancelled(invoker, packet)) {
+            return;
+        }
         if (!packet.isBroadcast()) {
             ConclaveChannel channel    = getChannel(packet);
-            short           callbackID = packet.getCallbackID();
+            int             callbackID = packet.getCallbackID();
             if (channel == null || !channel.isActive()) {
                 if (callbackID != 0) {
                     packet.respond(invoker, new RpcResponsePacket(new RpcException(RpcException.Code.NO_SERVICE_AVAILABLE, "Could not find implementation for service"), null));
@@ -144,9 +147,9 @@ public class ConclaveServerServiceManager extends BaseServiceManager<ConclaveCha
                 return;
             }
             if (callbackID == 0) {
-                channel.send(packet);
+                channel.send(packet, packet.getFlags());
             } else {
-                channel.sendWithCallback(packet).thenAccept(response -> {
+                forward(invoker, callbackID, channel, packet).thenAccept(response -> {
                     packet.setCallbackID(callbackID);
                     packet.respond(invoker, response);
                 });
@@ -156,7 +159,7 @@ public class ConclaveServerServiceManager extends BaseServiceManager<ConclaveCha
             if (list == null) {
                 return;
             }
-            short callbackID = packet.getCallbackID();
+            int callbackID = packet.getCallbackID();
             if (callbackID == 0) {
                 synchronized (list) {
                     RpcConclaveServer server = getServer();
@@ -165,7 +168,7 @@ public class ConclaveServerServiceManager extends BaseServiceManager<ConclaveCha
                         if (channel == null || !channel.isActive()) {
                             return;
                         }
-                        channel.send(packet);
+                        channel.send(packet, packet.getFlags());
                     });
                 }
             } else {
@@ -183,7 +186,7 @@ public class ConclaveServerServiceManager extends BaseServiceManager<ConclaveCha
                             }
                             return;
                         }
-                        channel.sendWithCallback(packet).thenAccept(p -> {
+                        forward(invoker, callbackID, channel, packet).thenAccept(p -> {
                             latch.countDown();
                             if (latch.getCount() == 0) {
                                 packet.setCallbackID(callbackID);
@@ -194,7 +197,7 @@ public class ConclaveServerServiceManager extends BaseServiceManager<ConclaveCha
                 }
             }
         } else {
-            short callbackID = packet.getCallbackID();
+            int callbackID = packet.getCallbackID();
             if (callbackID == 0) {
                 RpcConclaveServer server = getServer();
                 this.servers.forEach((channel, data) -> {
@@ -207,11 +210,11 @@ public class ConclaveServerServiceManager extends BaseServiceManager<ConclaveCha
                             return;
                         }
                         if (channel == this.self) {
-                            list.forEach(channelID -> server.getChannel(channelID).send(packet));
+                            list.forEach(channelID -> server.getChannel(channelID).send(packet, packet.getFlags()));
                             return;
                         }
                     }
-                    channel.send(packet);
+                    channel.send(packet, packet.getFlags());
                 });
             } else {
                 Map<ConclaveChannel, Integer> channels = new HashMap<>();
@@ -236,7 +239,7 @@ public class ConclaveServerServiceManager extends BaseServiceManager<ConclaveCha
                         }
                         RpcConclaveServer server = getServer();
                         synchronized (list) {
-                            list.forEach(channelID -> server.getChannel(channelID).sendWithCallback(packet).thenAccept(p -> {
+                            list.forEach(channelID -> forward(invoker, callbackID, server.getChannel(channelID), packet).thenAccept(p -> {
                                 latch.countDown();
                                 if (latch.getCount() == 0) {
                                     packet.setCallbackID(callbackID);
@@ -245,7 +248,7 @@ public class ConclaveServerServiceManager extends BaseServiceManager<ConclaveCha
                             }));
                         }
                     } else {
-                        channel.sendWithCallback(packet).thenAccept(p -> {
+                        forward(invoker, callbackID, channel, packet).thenAccept(p -> {
                             latch.countDown();
                             if (latch.getCount() == 0) {
                                 packet.setCallbackID(callbackID);
@@ -260,7 +263,7 @@ public class ConclaveServerServiceManager extends BaseServiceManager<ConclaveCha
 
     @Override
     protected ConclaveChannel getChannel(RpcInvocationPacket packet) {
-        int                     index    = Math.abs(packet.getIndex() == 0 ? ThreadLocalRandom.current().nextInt() : packet.getIndex());
+        int                     index    = Math.abs(packet.hasIndex() ? packet.getIndex() : ThreadLocalRandom.current().nextInt());
         TreeSet<ServiceChannel> channels = this.services.get(packet.getServiceID());
         if (channels == null) {
             return null;
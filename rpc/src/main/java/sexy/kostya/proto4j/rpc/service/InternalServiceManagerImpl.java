@@ -8,6 +8,7 @@ import sexy.kostya.proto4j.rpc.service.annotation.Broadcast;
 import sexy.kostya.proto4j.rpc.service.annotation.Index;
 import sexy.kostya.proto4j.rpc.service.annotation.MethodIdentifier;
 import sexy.kostya.proto4j.rpc.service.annotation.Proto4jService;
+import sexy.kostya.proto4j.rpc.service.annotation.Sequenced;
 import sexy.kostya.proto4j.rpc.transport.packet.RpcInvocationPacket;
 import sexy.kostya.proto4j.rpc.transport.packet.RpcResponsePacket;
 import sexy.kostya.proto4j.transport.buffer.Buffer;
@@ -23,6 +24,7 @@ import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 
@@ -106,6 +108,7 @@ public abstract class InternalServiceManagerImpl implements InternalServiceManag
                             CompletableFuture<byte[]> result = new CompletableFuture<>();
                             try {
                                 CompletionStage<?> future = (CompletionStage<?>) invocation.apply(args);
+                                cancelWith(result, future);
                                 future.whenComplete((o, ex) -> {
                                     if (ex == null) {
                                         try (Buffer buf = Buffer.newBuffer()) {
@@ -159,6 +162,13 @@ public abstract class InternalServiceManagerImpl implements InternalServiceManag
         return this.implementations.containsKey(serviceIdentifier);
     }
 
+    /**
+     * @return identifiers of the services implemented by this application
+     */
+    public Set<Integer> getImplementedServices() {
+        return new HashSet<>(this.implementations.keySet());
+    }
+
     @Override
     public CompletionStage<RpcResponsePacket> invoke(RpcInvocationPacket packet) {
         Map<Integer, Function<byte[], CompletionStage<byte[]>>> implementation = this.implementations.get(packet.getServiceID());
@@ -174,6 +184,7 @@ public abstract class InternalServiceManagerImpl implements InternalServiceManag
             return CompletableFuture.completedFuture(null);
         }
         CompletableFuture<RpcResponsePacket> result = new CompletableFuture<>();
+        cancelWith(result, future);
         future.whenComplete((bytes, ex) -> {
             if (ex == null) {
                 result.complete(new RpcResponsePacket(null, bytes));
@@ -245,6 +256,11 @@ public abstract class InternalServiceManagerImpl implements InternalServiceManag
                     }
                 }
 
+                boolean sequenced = method.isAnnotationPresent(Sequenced.class);
+                if (sequenced && returnType != void.class) {
+                    throw new Proto4jProxyingException("Method " + clazz.getSimpleName() + "#" + method.getName() + " is marked with @Sequenced: it must return void");
+                }
+
                 BiConsumer[] writers = new BiConsumer[parameterTypes.length];
                 for (int i = 0; i < parameterTypes.length; ++i) {
                     writers[i] = BufferSerializer.getInstance().getWriter(parameterTypes[i]);
@@ -252,7 +268,7 @@ public abstract class InternalServiceManagerImpl implements InternalServiceManag
                 if (returnType == void.class) {
                     return args -> {
                         byte[]              arguments = serializeArguments(args, writers);
-                        RpcInvocationPacket packet    = new RpcInvocationPacket(serviceIdentifier, methodIdentifier, calculateIndex(indexParams, args), broadcast, arguments);
+                        RpcInvocationPacket packet    = new RpcInvocationPacket(serviceIdentifier, methodIdentifier, calculateIndex(indexParams, args), broadcast, sequenced, arguments);
                         send(packet);
                         return null;
                     };
@@ -265,6 +281,7 @@ public abstract class InternalServiceManagerImpl implements InternalServiceManag
                         RpcInvocationPacket packet    = new RpcInvocationPacket(serviceIdentifier, methodIdentifier, calculateIndex(indexParams, args), broadcast, arguments);
 
                         CompletionStage<RpcResponsePacket> resultFuture = sendWithCallback(packet);
+                        cancelWith(future, resultFuture);
                         resultFuture.whenComplete((p, ex) -> {
                             if (ex == null) {
                                 if (p.getException() == null) {
@@ -290,6 +307,10 @@ public abstract class InternalServiceManagerImpl implements InternalServiceManag
                         RpcResponsePacket                  callback;
                         try {
                             callback = resultFuture.toCompletableFuture().get();
+                        } catch (InterruptedException ex) {
+                            cancel(resultFuture);
+                            Thread.currentThread().interrupt();
+                            throw new RpcException(RpcException.Code.INVOCATION_EXCEPTION, ex);
                         } catch (Throwable t) {
                             throw new RpcException(RpcException.Code.INVOCATION_EXCEPTION, t);
                         }
@@ -310,6 +331,26 @@ public abstract class InternalServiceManagerImpl implements InternalServiceManag
 
     public abstract CompletionStage<RpcResponsePacket> sendWithCallback(RpcInvocationPacket packet);
 
+    /**
+     * Cancels the stage if it's a future, interrupting the thread running it if possible.
+     */
+    protected static void cancel(CompletionStage<?> stage) {
+        if (stage instanceof Future) {
+            ((Future<?>) stage).cancel(true);
+        }
+    }
+
+    /**
+     * Makes the cancel of the future propagate to the stage it awaits.
+     */
+    private static void cancelWith(CompletableFuture<?> future, CompletionStage<?> stage) {
+        future.whenComplete((result, ex) -> {
+            if (future.isCancelled()) {
+                cancel(stage);
+            }
+        });
+    }
+
     @SuppressWarnings("unchecked")
     private byte[] serializeArguments(Object[] args, BiConsumer[] writers) {
         if (args == null || args.length == 0) {
@@ -343,7 +384,8 @@ public abstract class InternalServiceManagerImpl implements InternalServiceManag
             Object el = args[index];
             result = 31 * result + (el == null ? 0 : el.hashCode());
         }
-        return result;
+        // 0 stands for no index, so the invocation would lose its routing
+        return result == 0 ? 1 : result;
     }
 
     private boolean isVoidCompletionStage(Type type) {
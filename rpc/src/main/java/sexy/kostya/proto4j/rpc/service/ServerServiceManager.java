@@ -1,8 +1,12 @@
 package sexy.kostya.proto4j.rpc.service;
 
 import sexy.kostya.proto4j.exception.RpcException;
+import sexy.kostya.proto4j.rpc.transport.multicast.MulticastSender;
 import sexy.kostya.proto4j.rpc.transport.packet.RpcInvocationPacket;
+import sexy.kostya.proto4j.rpc.transport.packet.RpcMulticastNackPacket;
+import sexy.kostya.proto4j.rpc.transport.packet.RpcMulticastRepairPacket;
 import sexy.kostya.proto4j.rpc.transport.packet.RpcResponsePacket;
+import sexy.kostya.proto4j.rpc.transport.packet.RpcServicePacket;
 import sexy.kostya.proto4j.transport.highlevel.HighChannel;
 
 import java.util.*;
@@ -16,14 +20,32 @@ import java.util.concurrent.ThreadLocalRandom;
 @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
 public class ServerServiceManager<C extends HighChannel> extends BaseServiceManager<C> {
 
-    private final Map<Integer, List<C>> implementations = new ConcurrentHashMap<>();
-    private final Map<C, Set<Integer>>  revert          = new ConcurrentHashMap<>();
+    private final Map<Integer, List<C>> implementations  = new ConcurrentHashMap<>();
+    private final Map<C, Set<Integer>>  revert           = new ConcurrentHashMap<>();
+    private final Set<C>                multicastMembers = ConcurrentHashMap.newKeySet();
+
+    private volatile MulticastSender multicast;
 
     public void register(C channel, int serviceID) {
-        List<C> list = getOrCreateImplementations(serviceID);
+        register(channel, new RpcServicePacket(serviceID));
+    }
+
+    /**
+     * Registers the channel as an implementation of the service. If the client is able to receive broadcasts through multicast,
+     * the group it has to join is set to the packet.
+     */
+    public void register(C channel, RpcServicePacket packet) {
+        int     serviceID = packet.getServiceID();
+        List<C> list      = getOrCreateImplementations(serviceID);
         synchronized (list) {
             list.add(channel);
             this.implementations.put(serviceID, list); // because of possible synchronization problems
+            MulticastSender multicast = this.multicast;
+            if (multicast != null && packet.isMulticast()) {
+                // broadcasts are sent under the same lock, so the client receives every one starting from this sequence number
+                this.multicastMembers.add(channel);
+                packet.setGroup(multicast.getGroup(serviceID), multicast.getNextSequence(serviceID));
+            }
         }
         Set<Integer> set = this.revert.computeIfAbsent(channel, c -> new HashSet<>());
         synchronized (set) {
@@ -32,6 +54,7 @@ public class ServerServiceManager<C extends HighChannel> extends BaseServiceMana
     }
 
     public void unregister(C channel) {
+        this.multicastMembers.remove(channel);
         Set<Integer> set = this.revert.remove(channel);
         if (set == null) {
             return;
@@ -58,21 +81,30 @@ public class ServerServiceManager<C extends HighChannel> extends BaseServiceMana
 
     @Override
     public void invokeRemote(C invoker, RpcInvocationPacket packet) {
+        if (isCancelled(invoker, packet)) {
+            return;
+        }
         if (packet.isBroadcast()) {
             List<C> channels = this.implementations.get(packet.getServiceID());
             if (channels == null) {
                 return;
             }
-            short callbackID = packet.getCallbackID();
+            int callbackID = packet.getCallbackID();
             if (callbackID == 0) {
                 synchronized (channels) {
-                    channels.forEach(channel -> channel.send(packet));
+                    MulticastSender multicast   = this.multicast;
+                    boolean         multicasted = multicast != null && packet.getFlags() == 0 && multicast.send(packet.getServiceID(), packet);
+                    channels.forEach(channel -> {
+                        if (!multicasted || !this.multicastMembers.contains(channel)) {
+                            channel.send(packet, packet.getFlags());
+                        }
+                    });
                 }
             } else {
                 CountDownLatch latch;
                 synchronized (channels) {
                     latch = new CountDownLatch(channels.size());
-                    channels.forEach(channel -> channel.sendWithCallback(packet).thenAccept(p -> {
+                    channels.forEach(channel -> forward(invoker, callbackID, channel, packet).thenAccept(p -> {
                         latch.countDown();
                         if (latch.getCount() == 0) {
                             packet.setCallbackID(callbackID);
@@ -83,7 +115,7 @@ public class ServerServiceManager<C extends HighChannel> extends BaseServiceMana
             }
         } else {
             HighChannel channel    = getChannel(packet);
-            short       callbackID = packet.getCallbackID();
+            int         callbackID = packet.getCallbackID();
             if (channel == null || !channel.isActive()) {
                 if (callbackID != 0) {
                     packet.respond(invoker, new RpcResponsePacket(new RpcException(RpcException.Code.NO_SERVICE_AVAILABLE, "Could not find implementation for service"), null));
@@ -91,9 +123,9 @@ public class ServerServiceManager<C extends HighChannel> extends BaseServiceMana
                 return;
             }
             if (callbackID == 0) {
-                channel.send(packet);
+                channel.send(packet, packet.getFlags());
             } else {
-                channel.sendWithCallback(packet).thenAccept(response -> {
+                forward(invoker, callbackID, channel, packet).thenAccept(response -> {
                     packet.setCallbackID(callbackID);
                     packet.respond(invoker, response);
                 });
@@ -101,6 +133,30 @@ public class ServerServiceManager<C extends HighChannel> extends BaseServiceMana
         }
     }
 
+    /**
+     * Resends the broadcasts which the client has reported as not received through multicast.
+     */
+    public void repair(C channel, RpcMulticastNackPacket packet) {
+        MulticastSender multicast = this.multicast;
+        if (multicast == null) {
+            return;
+        }
+        for (int sequence : packet.getSequences()) {
+            channel.send(new RpcMulticastRepairPacket(packet.getServiceID(), sequence, multicast.getInvocation(packet.getServiceID(), sequence)));
+        }
+    }
+
+    /**
+     * @param multicast sender of the broadcasts which aren't awaited by the invoker, null to unicast them to every implementation
+     */
+    public void setMulticast(MulticastSender multicast) {
+        this.multicast = multicast;
+    }
+
+    public MulticastSender getMulticast() {
+        return this.multicast;
+    }
+
     @Override
     protected C getChannel(RpcInvocationPacket packet) {
         List<C> list = this.implementations.get(packet.getServiceID());
@@ -111,7 +167,7 @@ public class ServerServiceManager<C extends HighChannel> extends BaseServiceMana
             if (list.isEmpty()) {
                 return null;
             }
-            if (packet.getIndex() == 0) {
+            if (!packet.hasIndex()) {
                 return list.get(ThreadLocalRandom.current().nextInt(list.size()));
             } else {
                 return list.get(Math.abs(packet.getIndex()) % list.size());
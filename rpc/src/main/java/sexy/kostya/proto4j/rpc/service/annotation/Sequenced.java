@@ -0,0 +1,17 @@
+package sexy.kostya.proto4j.rpc.service.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method whose invocations are delivered with latest-wins semantics:
+ * invocations older than the newest one of the same method already received are dropped.
+ * All the invocations of the method sent through a channel share a single stream regardless of their arguments and callers.
+ * Such methods are unreliable and must return void.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Sequenced {
+}
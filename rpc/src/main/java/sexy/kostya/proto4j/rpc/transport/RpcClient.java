@@ -1,12 +1,25 @@
 package sexy.kostya.proto4j.rpc.transport;
 
+import com.google.common.base.Preconditions;
 import org.slf4j.LoggerFactory;
 import sexy.kostya.proto4j.rpc.service.ClientServiceManager;
 import sexy.kostya.proto4j.rpc.service.ServiceManager;
+import sexy.kostya.proto4j.rpc.transport.multicast.MulticastReceiver;
 import sexy.kostya.proto4j.rpc.transport.packet.RpcInvocationPacket;
+import sexy.kostya.proto4j.rpc.transport.packet.RpcMulticastNackPacket;
+import sexy.kostya.proto4j.rpc.transport.packet.RpcMulticastRepairPacket;
+import sexy.kostya.proto4j.rpc.transport.packet.RpcServicePacket;
 import sexy.kostya.proto4j.transport.highlevel.HighChannel;
+import sexy.kostya.proto4j.transport.highlevel.Proto4jHighClient;
 import sexy.kostya.proto4j.transport.highlevel.base.BaseProto4jHighClient;
 import sexy.kostya.proto4j.transport.highlevel.packet.PacketHandler;
+import sexy.kostya.proto4j.transport.packet.PacketCodec;
+
+import java.io.IOException;
+import java.net.NetworkInterface;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by k.shandurenko on 01.10.2020
@@ -14,6 +27,14 @@ import sexy.kostya.proto4j.transport.highlevel.packet.PacketHandler;
 public class RpcClient extends BaseProto4jHighClient {
 
     private final ClientServiceManager serviceManager = new ClientServiceManager(this);
+    private final AtomicInteger        nextChannel    = new AtomicInteger();
+
+    private volatile boolean           multicast;
+    private volatile NetworkInterface  multicastInterface;
+    private volatile MulticastReceiver multicastReceiver;
+
+    private volatile int                poolSize = 1;
+    private volatile PooledConnection[] pool     = new PooledConnection[0];
 
     public RpcClient(int workerThreads, int handlerThreads) {
         super(LoggerFactory.getLogger("RpcClient"), workerThreads, handlerThreads);
@@ -22,6 +43,12 @@ public class RpcClient extends BaseProto4jHighClient {
 
             {
                 register(RpcInvocationPacket.class, serviceManager::invokeRemote);
+                register(RpcMulticastRepairPacket.class, (channel, packet) -> {
+                    MulticastReceiver receiver = multicastReceiver;
+                    if (receiver != null) {
+                        receiver.repair(packet.getServiceID(), packet.getSequence(), packet.getInvocation());
+                    }
+                });
             }
 
         });
@@ -30,4 +57,141 @@ public class RpcClient extends BaseProto4jHighClient {
     public ServiceManager getServiceManager() {
         return this.serviceManager;
     }
+
+    /**
+     * Makes the client open several channels to the server, so that its invocations aren't limited by the ordered pipeline of a single one.
+     * Services are registered and implemented through the main channel, while invocations are spread across all of them:
+     * the ones with an index always go through the same channel, so they keep their order, others are spread round-robin.
+     *
+     * @param poolSize amount of channels including the main one, must be set before the client is started
+     */
+    public void setPoolSize(int poolSize) {
+        Preconditions.checkArgument(poolSize > 0, "Pool size must be positive");
+        Preconditions.checkState(!isStarted(), "Client is already started");
+        this.poolSize = poolSize;
+    }
+
+    public int getPoolSize() {
+        return this.poolSize;
+    }
+
+    /**
+     * @return channel of the pool the invocation is sent through
+     */
+    public HighChannel getChannel(RpcInvocationPacket packet) {
+        PooledConnection[] pool = this.pool;
+        // sequenced invocations are ordered within a single channel
+        if (pool.length == 0 || packet.isSequenced()) {
+            return getChannel();
+        }
+        int         index   = packet.hasIndex() ? packet.getIndex() : this.nextChannel.getAndIncrement();
+        int         slot    = Math.floorMod(index, pool.length + 1);
+        HighChannel channel = slot == 0 ? null : pool[slot - 1].getChannel();
+        return channel != null && channel.isActive() ? channel : getChannel();
+    }
+
+    /**
+     * Services implemented by the client are announced to the server once it's connected,
+     * so that they're restored when the client is started again, e.g. on the fallback to TCP.
+     * The client is shut down if any channel of the pool fails to connect.
+     */
+    @Override
+    public CompletionStage<Void> start(String address, int port) {
+        int                   poolSize = this.poolSize;
+        CompletionStage<Void> started  = super.start(address, port);
+        if (poolSize != 1) {
+            started = started.thenCompose(v -> startPool(address, port, poolSize));
+        }
+        return started.thenCompose(v -> this.serviceManager.announceServices());
+    }
+
+    private CompletionStage<Void> startPool(String address, int port, int poolSize) {
+        PooledConnection[]     pool    = new PooledConnection[poolSize - 1];
+        CompletableFuture<?>[] futures = new CompletableFuture[pool.length];
+        for (int i = 0; i < pool.length; ++i) {
+            pool[i] = new PooledConnection();
+            futures[i] = pool[i].start(address, port).toCompletableFuture();
+        }
+        return CompletableFuture.allOf(futures).whenComplete((res, ex) -> {
+            if (ex == null) {
+                this.pool = pool;
+            } else {
+                for (PooledConnection connection : pool) {
+                    connection.shutdown();
+                }
+                shutdown();
+            }
+        });
+    }
+
+    public void enableMulticast() {
+        enableMulticast(null);
+    }
+
+    /**
+     * Makes the client receive broadcasts of the services it registers from then on through multicast, if the server has enabled it.
+     *
+     * @param networkInterface interface broadcasts are received on, null for the default one
+     */
+    public void enableMulticast(NetworkInterface networkInterface) {
+        this.multicastInterface = networkInterface;
+        this.multicast = true;
+    }
+
+    public boolean isMulticastEnabled() {
+        return this.multicast;
+    }
+
+    /**
+     * Joins the group the server has set to the response to registration of the service.
+     */
+    public synchronized void joinMulticast(RpcServicePacket packet) throws IOException {
+        if (this.multicastReceiver == null) {
+            this.multicastReceiver = new MulticastReceiver(
+                    getLogger(),
+                    packet.getGroup().getPort(),
+                    this.multicastInterface,
+                    getHandlers(),
+                    invocation -> this.serviceManager.invokeRemote(getChannel(), invocation),
+                    (serviceID, sequences) -> getChannel().send(new RpcMulticastNackPacket(serviceID, sequences))
+            );
+        }
+        this.multicastReceiver.join(packet.getServiceID(), packet.getGroup(), packet.getSequence());
+    }
+
+    @Override
+    protected boolean shutdownInternally() {
+        PooledConnection[] pool = this.pool;
+        this.pool = new PooledConnection[0];
+        for (PooledConnection connection : pool) {
+            connection.shutdown();
+        }
+        synchronized (this) {
+            if (this.multicastReceiver != null) {
+                this.multicastReceiver.close();
+                this.multicastReceiver = null;
+            }
+        }
+        return super.shutdownInternally();
+    }
+
+    /**
+     * Additional channel of the pool, which shares the packets, the handlers, the threads and the callbacks timer of the client.
+     */
+    private class PooledConnection extends Proto4jHighClient<HighChannel> {
+
+        private PooledConnection() {
+            super(RpcClient.this.getLogger(), RpcClient.this.getWorkers(), RpcClient.this.getHandlers(), RpcClient.this.getCallbacksRegistry());
+            setPacketManager(RpcClient.this.getPacketManager());
+            setPacketHandler(RpcClient.this.getPacketHandler());
+            setCompressions(RpcClient.this.getCompressions());
+        }
+
+        @Override
+        public HighChannel createChannel(PacketCodec codec) {
+            return new HighChannel(getCallbacksRegistry(), codec);
+        }
+
+    }
+
 }
@@ -1,6 +1,8 @@
 package sexy.kostya.proto4j.rpc.transport;
 
 import sexy.kostya.proto4j.rpc.transport.packet.RpcInvocationPacket;
+import sexy.kostya.proto4j.rpc.transport.packet.RpcMulticastNackPacket;
+import sexy.kostya.proto4j.rpc.transport.packet.RpcMulticastRepairPacket;
 import sexy.kostya.proto4j.rpc.transport.packet.RpcResponsePacket;
 import sexy.kostya.proto4j.rpc.transport.packet.RpcServicePacket;
 import sexy.kostya.proto4j.transport.highlevel.packet.def.DefaultPacketManager;
@@ -14,7 +16,9 @@ public class RpcPacketManager extends DefaultPacketManager {
         register(
                 RpcInvocationPacket::new,
                 RpcResponsePacket::new,
-                RpcServicePacket::new
+                RpcServicePacket::new,
+                RpcMulticastNackPacket::new,
+                RpcMulticastRepairPacket::new
         );
     }
 }
@@ -3,12 +3,18 @@ package sexy.kostya.proto4j.rpc.transport;
 import org.slf4j.LoggerFactory;
 import sexy.kostya.proto4j.rpc.service.ServerServiceManager;
 import sexy.kostya.proto4j.rpc.service.ServiceManager;
+import sexy.kostya.proto4j.rpc.transport.multicast.MulticastSender;
 import sexy.kostya.proto4j.rpc.transport.packet.RpcInvocationPacket;
+import sexy.kostya.proto4j.rpc.transport.packet.RpcMulticastNackPacket;
 import sexy.kostya.proto4j.rpc.transport.packet.RpcServicePacket;
 import sexy.kostya.proto4j.transport.highlevel.HighChannel;
 import sexy.kostya.proto4j.transport.highlevel.base.BaseProto4jHighServer;
 import sexy.kostya.proto4j.transport.highlevel.packet.PacketHandler;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+
 /**
  * Created by k.shandurenko on 01.10.2020
  */
@@ -24,9 +30,10 @@ public class RpcServer extends BaseProto4jHighServer {
             {
                 register(RpcInvocationPacket.class, serviceManager::invokeRemote);
                 register(RpcServicePacket.class, (channel, packet) -> {
-                    serviceManager.register(channel, packet.getServiceID());
+                    serviceManager.register(channel, packet);
                     packet.respond(channel, packet);
                 });
+                register(RpcMulticastNackPacket.class, serviceManager::repair);
             }
 
         });
@@ -37,4 +44,34 @@ public class RpcServer extends BaseProto4jHighServer {
         return this.serviceManager;
     }
 
+    public void enableMulticast(InetAddress base, int port) throws IOException {
+        enableMulticast(base, port, null);
+    }
+
+    /**
+     * Multicasts broadcasts which aren't awaited by the invoker to the implementations which have enabled multicast as well,
+     * so that each of them is sent just once. Every service has its own group.
+     *
+     * @param base             address of the first group, e.g. {@code 239.255.42.0}: the last byte is taken from the service identifier
+     * @param port             port the clients receive broadcasts on
+     * @param networkInterface interface broadcasts are sent from, null for the default one
+     */
+    public void enableMulticast(InetAddress base, int port, NetworkInterface networkInterface) throws IOException {
+        MulticastSender previous = this.serviceManager.getMulticast();
+        this.serviceManager.setMulticast(new MulticastSender(getLogger(), base, port, networkInterface));
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    @Override
+    protected boolean shutdownInternally() {
+        MulticastSender multicast = this.serviceManager.getMulticast();
+        if (multicast != null) {
+            this.serviceManager.setMulticast(null);
+            multicast.close();
+        }
+        return super.shutdownInternally();
+    }
+
 }
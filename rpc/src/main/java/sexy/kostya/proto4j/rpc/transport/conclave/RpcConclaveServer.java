@@ -129,6 +129,8 @@ public class RpcConclaveServer extends Proto4jHighServer<ConclaveChannel> {
             super(LoggerFactory.getLogger("RpcConclaveServerClient"), workerThreads, handlerThreads, RpcConclaveServer.this.getCallbacksRegistry());
             setPacketManager(RpcConclaveServer.this.getPacketManager());
             setPacketHandler(RpcConclaveServer.this.getPacketHandler());
+            setCompressions(RpcConclaveServer.this.getCompressions());
+            setTransport(RpcConclaveServer.this.getTransport());
         }
 
         @Override
@@ -0,0 +1,85 @@
+package sexy.kostya.proto4j.rpc.transport.multicast;
+
+import sexy.kostya.proto4j.rpc.transport.packet.RpcInvocationPacket;
+import sexy.kostya.proto4j.transport.buffer.Buffer;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Datagram of a multicast group: the checksum, the service identifier, the sequence number and the invocation.
+ * Heartbeats carry no invocation and the sequence number of the next broadcast instead.
+ */
+class MulticastDatagram {
+
+    final static int HEADER = 12;
+
+    final int    serviceID;
+    final int    sequence;
+    final byte[] invocation;
+
+    private MulticastDatagram(int serviceID, int sequence, byte[] invocation) {
+        this.serviceID = serviceID;
+        this.sequence = sequence;
+        this.invocation = invocation;
+    }
+
+    static byte[] encode(int serviceID, int sequence, byte[] invocation) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER + (invocation == null ? 0 : invocation.length));
+        buffer.putInt(0).putInt(serviceID).putInt(sequence);
+        if (invocation != null) {
+            buffer.put(invocation);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 4, buffer.capacity() - 4);
+        buffer.putInt(0, (int) crc.getValue());
+        return buffer.array();
+    }
+
+    /**
+     * @return the datagram or null if it's corrupted
+     */
+    static MulticastDatagram decode(byte[] array, int length) {
+        if (length < HEADER) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(array, 0, length);
+        CRC32      crc    = new CRC32();
+        crc.update(array, 4, length - 4);
+        if (buffer.getInt() != (int) crc.getValue()) {
+            return null;
+        }
+        int    serviceID  = buffer.getInt();
+        int    sequence   = buffer.getInt();
+        byte[] invocation = null;
+        if (length > HEADER) {
+            invocation = new byte[length - HEADER];
+            buffer.get(invocation);
+        }
+        return new MulticastDatagram(serviceID, sequence, invocation);
+    }
+
+    static byte[] encode(RpcInvocationPacket packet) {
+        Buffer buffer = Buffer.newBuffer();
+        try {
+            packet.write(buffer);
+            byte[] array = new byte[buffer.readableBytes()];
+            buffer.readBytes(array);
+            return array;
+        } finally {
+            buffer.release();
+        }
+    }
+
+    static RpcInvocationPacket decode(byte[] invocation) {
+        Buffer buffer = Buffer.wrap(invocation);
+        try {
+            RpcInvocationPacket packet = new RpcInvocationPacket();
+            packet.read(buffer);
+            return packet;
+        } finally {
+            buffer.release();
+        }
+    }
+
+}
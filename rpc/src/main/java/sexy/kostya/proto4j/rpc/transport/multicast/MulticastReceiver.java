@@ -0,0 +1,206 @@
+package sexy.kostya.proto4j.rpc.transport.multicast;
+
+import org.slf4j.Logger;
+import sexy.kostya.proto4j.rpc.transport.packet.RpcInvocationPacket;
+import sexy.kostya.proto4j.transport.util.DatagramHelper;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Receives broadcasts of the services from their multicast groups and passes them on in the order they were sent.
+ * Gaps in the sequence numbers are reported to the server, which repairs them by unicast.
+ * Broadcasts are handled by the executor, so that a slow handler doesn't hold up the receipt of datagrams.
+ */
+public class MulticastReceiver {
+
+    private final static long NACK_INTERVAL = DatagramHelper.RELIABILITY_THRESHOLD * 2;
+    private final static int  NACK_LIMIT    = 256;
+
+    // stands for the broadcast which the server doesn't hold anymore
+    private final static byte[] SKIPPED = new byte[0];
+
+    private final Logger                        logger;
+    private final MulticastSocket               socket;
+    private final NetworkInterface              networkInterface;
+    private final Executor                      executor;
+    private final Consumer<RpcInvocationPacket> consumer;
+    private final BiConsumer<Integer, int[]>    nack;
+    private final Map<Integer, Group>           groups = new ConcurrentHashMap<>();
+    private final Set<InetAddress>              joined = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param networkInterface interface the broadcasts are received on, null for the default one
+     * @param executor         executor the broadcasts are handled on, the ones of a service one at a time
+     * @param consumer         receiver of the broadcasts
+     * @param nack             reports the sequence numbers of the lost broadcasts of the service to the server
+     */
+    public MulticastReceiver(Logger logger, int port, NetworkInterface networkInterface, Executor executor, Consumer<RpcInvocationPacket> consumer, BiConsumer<Integer, int[]> nack) throws IOException {
+        this.logger = logger;
+        this.socket = new MulticastSocket(port);
+        this.networkInterface = networkInterface;
+        this.executor = executor;
+        this.consumer = consumer;
+        this.nack = nack;
+        if (networkInterface != null) {
+            this.socket.setNetworkInterface(networkInterface);
+        }
+        this.socket.setSoTimeout((int) NACK_INTERVAL);
+        Thread thread = new Thread(() -> {
+            byte[]         array  = new byte[MulticastSender.DATAGRAM_SIZE];
+            DatagramPacket packet = new DatagramPacket(array, array.length);
+            while (!this.socket.isClosed()) {
+                try {
+                    packet.setLength(array.length);
+                    this.socket.receive(packet);
+                    MulticastDatagram datagram = MulticastDatagram.decode(array, packet.getLength());
+                    Group             group    = datagram == null ? null : this.groups.get(datagram.serviceID);
+                    if (group != null) {
+                        group.receive(datagram.sequence, datagram.invocation);
+                    }
+                } catch (SocketTimeoutException ignored) {
+                } catch (IOException ex) {
+                    if (!this.socket.isClosed()) {
+                        logger.error("Could not receive multicast datagram", ex);
+                    }
+                }
+                long current = System.currentTimeMillis();
+                this.groups.values().forEach(group -> group.nack(current));
+            }
+        }, "Proto4j Multicast Thread");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts receiving the broadcasts of the service.
+     *
+     * @param sequence sequence number of the first broadcast to be received
+     */
+    public void join(int serviceID, InetSocketAddress group, int sequence) throws IOException {
+        this.groups.put(serviceID, new Group(serviceID, sequence));
+        // services may share the group, their datagrams are told apart by the service identifier
+        if (this.joined.add(group.getAddress())) {
+            this.socket.joinGroup(group, this.networkInterface);
+        }
+    }
+
+    /**
+     * Receives the broadcast repaired by the server.
+     *
+     * @param invocation invocation of the broadcast or null if the server doesn't hold it anymore
+     */
+    public void repair(int serviceID, int sequence, byte[] invocation) {
+        Group group = this.groups.get(serviceID);
+        if (group == null) {
+            return;
+        }
+        if (invocation == null) {
+            this.logger.warn("Broadcast {} of service {} is lost", sequence, serviceID);
+            invocation = SKIPPED;
+        }
+        group.receive(sequence, invocation);
+    }
+
+    public void close() {
+        this.socket.close();
+    }
+
+    private class Group {
+
+        private final int                  serviceID;
+        private final Map<Integer, byte[]> received = new HashMap<>();
+        private final Queue<byte[]>        pending  = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean        handling = new AtomicBoolean();
+        private       int                  expected;
+        private       int                  next;
+        private       long                 nacked;
+
+        private Group(int serviceID, int sequence) {
+            this.serviceID = serviceID;
+            this.expected = sequence;
+            this.next = sequence;
+        }
+
+        /**
+         * @param invocation invocation of the broadcast or null if it's a heartbeat
+         *                   which sequence number is the one of the next broadcast
+         */
+        private synchronized void receive(int sequence, byte[] invocation) {
+            if (invocation == null) {
+                if (sequence - this.next > 0) {
+                    this.next = sequence;
+                }
+                return;
+            }
+            if (sequence - this.expected < 0) {
+                return;
+            }
+            this.received.put(sequence, invocation);
+            if (sequence - this.next >= 0) {
+                this.next = sequence + 1;
+            }
+            while ((invocation = this.received.remove(this.expected)) != null) {
+                this.expected++;
+                if (invocation != SKIPPED) {
+                    this.pending.add(invocation);
+                }
+            }
+            handle();
+        }
+
+        /**
+         * Hands the pending broadcasts over to the executor, keeping their order.
+         */
+        private void handle() {
+            if (this.pending.isEmpty() || !this.handling.compareAndSet(false, true)) {
+                return;
+            }
+            executor.execute(() -> {
+                byte[] invocation;
+                while ((invocation = this.pending.poll()) != null) {
+                    try {
+                        consumer.accept(MulticastDatagram.decode(invocation));
+                    } catch (Throwable t) {
+                        logger.error("Could not handle broadcast", t);
+                    }
+                }
+                this.handling.set(false);
+                // broadcasts might have been added after the queue was found empty
+                handle();
+            });
+        }
+
+        private synchronized void nack(long current) {
+            if (this.next - this.expected <= this.received.size() || current - this.nacked < NACK_INTERVAL) {
+                return;
+            }
+            int[] sequences = new int[Math.min(this.next - this.expected - this.received.size(), NACK_LIMIT)];
+            int   count     = 0;
+            for (int sequence = this.expected; sequence != this.next && count < sequences.length; ++sequence) {
+                if (!this.received.containsKey(sequence)) {
+                    sequences[count++] = sequence;
+                }
+            }
+            this.nacked = current;
+            nack.accept(this.serviceID, sequences);
+        }
+
+    }
+
+}
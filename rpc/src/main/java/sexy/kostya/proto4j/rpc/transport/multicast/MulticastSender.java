@@ -0,0 +1,170 @@
+package sexy.kostya.proto4j.rpc.transport.multicast;
+
+import org.slf4j.Logger;
+import sexy.kostya.proto4j.commons.Proto4jProperties;
+import sexy.kostya.proto4j.rpc.transport.packet.RpcInvocationPacket;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends broadcasts of the services to their multicast groups, each datagram just once for all the clients.
+ * Recent broadcasts of every service are kept, so that the ones the clients report as lost are repaired by unicast.
+ * While the service broadcasts, the latest sequence number is also multicasted periodically, so that the loss of the last broadcasts is noticed.
+ */
+public class MulticastSender {
+
+    public final static int DATAGRAM_SIZE = Proto4jProperties.getProperty("multicastDatagramSize", 1400);
+    public final static int HISTORY       = Proto4jProperties.getProperty("multicastHistory", 1024);
+
+    private final static long HEARTBEAT_INTERVAL = 100;
+    private final static long HEARTBEAT_DURATION = 1000;
+
+    private final Logger              logger;
+    private final MulticastSocket     socket;
+    private final byte[]              base;
+    private final int                 port;
+    private final Map<Integer, Group> groups = new ConcurrentHashMap<>();
+
+    /**
+     * @param base             address of the first group, the last byte of which is replaced by the one of the service identifier
+     * @param port             port the clients receive the broadcasts on
+     * @param networkInterface interface the broadcasts are sent from, null for the default one
+     */
+    public MulticastSender(Logger logger, InetAddress base, int port, NetworkInterface networkInterface) throws IOException {
+        if (!base.isMulticastAddress()) {
+            throw new IllegalArgumentException(base + " is not a multicast address");
+        }
+        this.logger = logger;
+        this.base = base.getAddress();
+        this.port = port;
+        this.socket = new MulticastSocket();
+        if (networkInterface != null) {
+            this.socket.setNetworkInterface(networkInterface);
+        }
+        Thread thread = new Thread(() -> {
+            while (!this.socket.isClosed()) {
+                long current = System.currentTimeMillis();
+                this.groups.forEach((serviceID, group) -> group.heartbeat(current));
+                try {
+                    Thread.sleep(HEARTBEAT_INTERVAL);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }, "Proto4j Multicast Heartbeat Thread");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public InetSocketAddress getGroup(int serviceID) {
+        byte[] address = this.base.clone();
+        address[address.length - 1] = (byte) serviceID;
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(address), this.port);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Must be synchronized with {@link #send(int, RpcInvocationPacket)}, so that the client joining the group
+     * receives every broadcast starting from the returned one.
+     *
+     * @return sequence number of the next broadcast of the service
+     */
+    public int getNextSequence(int serviceID) {
+        return getGroup0(serviceID).getNextSequence();
+    }
+
+    /**
+     * @return whether the broadcast was multicasted, false if it doesn't fit into a single datagram
+     */
+    public boolean send(int serviceID, RpcInvocationPacket packet) {
+        byte[] invocation = MulticastDatagram.encode(packet);
+        if (invocation.length + MulticastDatagram.HEADER > DATAGRAM_SIZE) {
+            return false;
+        }
+        getGroup0(serviceID).send(invocation);
+        return true;
+    }
+
+    /**
+     * @return the invocation of the broadcast or null if it's not kept anymore
+     */
+    public byte[] getInvocation(int serviceID, int sequence) {
+        Group group = this.groups.get(serviceID);
+        return group == null ? null : group.get(sequence);
+    }
+
+    public void close() {
+        this.socket.close();
+    }
+
+    private Group getGroup0(int serviceID) {
+        return this.groups.computeIfAbsent(serviceID, Group::new);
+    }
+
+    private void send0(InetSocketAddress address, byte[] datagram) {
+        try {
+            this.socket.send(new DatagramPacket(datagram, datagram.length, address));
+        } catch (IOException ex) {
+            // treated just like a lost datagram
+            if (!this.socket.isClosed()) {
+                this.logger.error("Could not multicast datagram", ex);
+            }
+        }
+    }
+
+    private class Group {
+
+        private final int               serviceID;
+        private final InetSocketAddress address;
+        private final byte[][]          invocations = new byte[HISTORY][];
+        private final int[]             sequences   = new int[HISTORY];
+        private       int               sequence;
+        private       long              lastSent;
+
+        private Group(int serviceID) {
+            this.serviceID = serviceID;
+            this.address = getGroup(serviceID);
+        }
+
+        private synchronized void send(byte[] invocation) {
+            int index = Math.floorMod(this.sequence, HISTORY);
+            this.invocations[index] = invocation;
+            this.sequences[index] = this.sequence;
+            send0(this.address, MulticastDatagram.encode(this.serviceID, this.sequence, invocation));
+            this.sequence++;
+            this.lastSent = System.currentTimeMillis();
+        }
+
+        private synchronized int getNextSequence() {
+            return this.sequence;
+        }
+
+        private synchronized byte[] get(int sequence) {
+            int index = Math.floorMod(sequence, HISTORY);
+            return this.sequences[index] == sequence && sequence - this.sequence < 0 ? this.invocations[index] : null;
+        }
+
+        private void heartbeat(long current) {
+            int  sequence;
+            long lastSent;
+            synchronized (this) {
+                sequence = this.sequence;
+                lastSent = this.lastSent;
+            }
+            if (lastSent != 0 && current - lastSent < HEARTBEAT_DURATION) {
+                send0(this.address, MulticastDatagram.encode(this.serviceID, sequence, null));
+            }
+        }
+
+    }
+
+}
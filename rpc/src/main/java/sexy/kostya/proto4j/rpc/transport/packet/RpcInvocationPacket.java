@@ -2,6 +2,8 @@ package sexy.kostya.proto4j.rpc.transport.packet;
 
 import sexy.kostya.proto4j.transport.buffer.Buffer;
 import sexy.kostya.proto4j.transport.highlevel.packet.CallbackProto4jPacket;
+import sexy.kostya.proto4j.transport.highlevel.packet.codec.Codecs;
+import sexy.kostya.proto4j.transport.packet.Proto4jPacket;
 
 /**
  * Created by k.shandurenko on 01.10.2020
@@ -12,16 +14,22 @@ public class RpcInvocationPacket extends CallbackProto4jPacket {
     private int     methodID;
     private int     index;
     private boolean broadcast;
+    private boolean sequenced;
     private byte[]  arguments;
 
     public RpcInvocationPacket() {
     }
 
     public RpcInvocationPacket(int serviceID, int methodID, int index, boolean broadcast, byte[] arguments) {
+        this(serviceID, methodID, index, broadcast, false, arguments);
+    }
+
+    public RpcInvocationPacket(int serviceID, int methodID, int index, boolean broadcast, boolean sequenced, byte[] arguments) {
         this.serviceID = serviceID;
         this.methodID = methodID;
         this.index = index;
         this.broadcast = broadcast;
+        this.sequenced = sequenced;
         this.arguments = arguments;
     }
 
@@ -37,12 +45,38 @@ public class RpcInvocationPacket extends CallbackProto4jPacket {
         return index;
     }
 
+    /**
+     * @return whether the invocation is indexed, so that it's always routed the same way: index 0 stands for none
+     */
+    public boolean hasIndex() {
+        return this.index != 0;
+    }
+
     public boolean isBroadcast() {
         return broadcast;
     }
 
+    public boolean isSequenced() {
+        return sequenced;
+    }
+
+    /**
+     * @return flags this invocation must be transmitted with on every hop
+     */
+    public int getFlags() {
+        return this.sequenced ? Proto4jPacket.Flag.SEQUENCED | Proto4jPacket.Flag.UNRELIABLE : 0;
+    }
+
+    /**
+     * @return the method, so that invocations of different sequenced methods don't drop each other
+     */
+    @Override
+    public long getSequenceKey() {
+        return (long) this.serviceID << 32 | this.methodID & 0xFFFFFFFFL;
+    }
+
     public boolean canBeExecutedLocally() {
-        return this.index == 0 && !this.broadcast;
+        return !hasIndex() && !this.broadcast;
     }
 
     public byte[] getArguments() {
@@ -54,12 +88,18 @@ public class RpcInvocationPacket extends CallbackProto4jPacket {
         return 1;
     }
 
+    @Override
+    public int estimateSize() {
+        return 4 + 4 + 4 + 1 + 1 + Codecs.varIntSize(this.arguments.length) + this.arguments.length;
+    }
+
     @Override
     public void write(Buffer buffer) {
         buffer.writeInt(this.serviceID);
         buffer.writeInt(this.methodID);
         buffer.writeInt(this.index);
         buffer.writeBoolean(this.broadcast);
+        buffer.writeBoolean(this.sequenced);
         buffer.writeVarInt(this.arguments.length);
         buffer.writeBytes(this.arguments);
     }
@@ -70,6 +110,7 @@ public class RpcInvocationPacket extends CallbackProto4jPacket {
         this.methodID = buffer.readInt();
         this.index = buffer.readInt();
         this.broadcast = buffer.readBoolean();
+        this.sequenced = buffer.readBoolean();
         this.arguments = new byte[buffer.readVarInt()];
         buffer.readBytes(this.arguments);
     }
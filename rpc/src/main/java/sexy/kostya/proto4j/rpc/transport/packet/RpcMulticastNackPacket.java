@@ -0,0 +1,58 @@
+package sexy.kostya.proto4j.rpc.transport.packet;
+
+import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.highlevel.packet.EnumeratedProto4jPacket;
+import sexy.kostya.proto4j.transport.packet.Proto4jPacket;
+
+/**
+ * Reports the broadcasts of the service which weren't received through multicast, so that the server repairs them.
+ */
+public class RpcMulticastNackPacket extends EnumeratedProto4jPacket {
+
+    private int   serviceID;
+    private int[] sequences;
+
+    public RpcMulticastNackPacket() {
+    }
+
+    public RpcMulticastNackPacket(int serviceID, int[] sequences) {
+        this.serviceID = serviceID;
+        this.sequences = sequences;
+    }
+
+    public int getServiceID() {
+        return serviceID;
+    }
+
+    public int[] getSequences() {
+        return sequences;
+    }
+
+    @Override
+    public int getID() {
+        return 7;
+    }
+
+    @Override
+    public Proto4jPacket.Priority getPriority() {
+        return Proto4jPacket.Priority.HIGH;
+    }
+
+    @Override
+    public void write(Buffer buffer) {
+        buffer.writeInt(this.serviceID);
+        buffer.writeVarInt(this.sequences.length);
+        for (int sequence : this.sequences) {
+            buffer.writeInt(sequence);
+        }
+    }
+
+    @Override
+    public void read(Buffer buffer) {
+        this.serviceID = buffer.readInt();
+        this.sequences = new int[buffer.readVarInt()];
+        for (int i = 0; i < this.sequences.length; ++i) {
+            this.sequences[i] = buffer.readInt();
+        }
+    }
+}
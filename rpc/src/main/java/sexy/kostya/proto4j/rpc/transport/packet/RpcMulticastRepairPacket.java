@@ -0,0 +1,62 @@
+package sexy.kostya.proto4j.rpc.transport.packet;
+
+import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.highlevel.packet.EnumeratedProto4jPacket;
+
+/**
+ * Broadcast which the client has reported as not received through multicast,
+ * without the invocation if the server doesn't hold it anymore.
+ */
+public class RpcMulticastRepairPacket extends EnumeratedProto4jPacket {
+
+    private int    serviceID;
+    private int    sequence;
+    private byte[] invocation;
+
+    public RpcMulticastRepairPacket() {
+    }
+
+    public RpcMulticastRepairPacket(int serviceID, int sequence, byte[] invocation) {
+        this.serviceID = serviceID;
+        this.sequence = sequence;
+        this.invocation = invocation;
+    }
+
+    public int getServiceID() {
+        return serviceID;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public byte[] getInvocation() {
+        return invocation;
+    }
+
+    @Override
+    public int getID() {
+        return 8;
+    }
+
+    @Override
+    public void write(Buffer buffer) {
+        buffer.writeInt(this.serviceID);
+        buffer.writeInt(this.sequence);
+        buffer.writeBoolean(this.invocation != null);
+        if (this.invocation != null) {
+            buffer.writeVarInt(this.invocation.length);
+            buffer.writeBytes(this.invocation);
+        }
+    }
+
+    @Override
+    public void read(Buffer buffer) {
+        this.serviceID = buffer.readInt();
+        this.sequence = buffer.readInt();
+        if (buffer.readBoolean()) {
+            this.invocation = new byte[buffer.readVarInt()];
+            buffer.readBytes(this.invocation);
+        }
+    }
+}
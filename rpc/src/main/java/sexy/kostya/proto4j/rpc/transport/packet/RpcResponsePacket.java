@@ -33,6 +33,12 @@ public class RpcResponsePacket extends CallbackProto4jPacket {
         return 2;
     }
 
+    @Override
+    public int estimateSize() {
+        // exceptions are rare, so they're left to the estimate of the channel
+        return this.exception == null ? 1 + 5 + this.response.length : -1;
+    }
+
     @Override
     public void write(Buffer buffer) {
         if (this.exception == null) {
@@ -2,38 +2,102 @@ package sexy.kostya.proto4j.rpc.transport.packet;
 
 import sexy.kostya.proto4j.transport.buffer.Buffer;
 import sexy.kostya.proto4j.transport.highlevel.packet.CallbackProto4jPacket;
+import sexy.kostya.proto4j.transport.packet.Proto4jPacket;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
 
 /**
  * Created by k.shandurenko on 01.10.2020
  */
 public class RpcServicePacket extends CallbackProto4jPacket {
 
-    private int serviceID;
+    private int               serviceID;
+    private boolean           multicast;
+    private InetSocketAddress group;
+    private int               sequence;
 
     public RpcServicePacket() {
 
     }
 
     public RpcServicePacket(int serviceID) {
+        this(serviceID, false);
+    }
+
+    /**
+     * @param multicast whether the client is able to receive broadcasts of the service through multicast
+     */
+    public RpcServicePacket(int serviceID, boolean multicast) {
         this.serviceID = serviceID;
+        this.multicast = multicast;
     }
 
     public int getServiceID() {
         return serviceID;
     }
 
+    public boolean isMulticast() {
+        return multicast;
+    }
+
+    /**
+     * @return multicast group the client has to join, set by the server in the response
+     */
+    public InetSocketAddress getGroup() {
+        return group;
+    }
+
+    /**
+     * @return sequence number of the next broadcast sent to the group
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    public void setGroup(InetSocketAddress group, int sequence) {
+        this.group = group;
+        this.sequence = sequence;
+    }
+
     @Override
     public int getID() {
         return 3;
     }
 
+    @Override
+    public Proto4jPacket.Priority getPriority() {
+        return Proto4jPacket.Priority.HIGH;
+    }
+
     @Override
     public void write(Buffer buffer) {
         buffer.writeInt(this.serviceID);
+        buffer.writeBoolean(this.multicast);
+        buffer.writeBoolean(this.group != null);
+        if (this.group != null) {
+            byte[] address = this.group.getAddress().getAddress();
+            buffer.writeByte((byte) address.length);
+            buffer.writeBytes(address);
+            buffer.writeShort((short) this.group.getPort());
+            buffer.writeInt(this.sequence);
+        }
     }
 
     @Override
     public void read(Buffer buffer) {
         this.serviceID = buffer.readInt();
+        this.multicast = buffer.readBoolean();
+        if (buffer.readBoolean()) {
+            byte[] address = new byte[buffer.readByte()];
+            buffer.readBytes(address);
+            try {
+                this.group = new InetSocketAddress(InetAddress.getByAddress(address), buffer.readShort() & 0xFFFF);
+            } catch (UnknownHostException ex) {
+                throw new IllegalStateException("Invalid multicast group", ex);
+            }
+            this.sequence = buffer.readInt();
+        }
     }
 }
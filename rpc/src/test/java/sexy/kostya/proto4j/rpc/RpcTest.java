@@ -3,15 +3,28 @@ package sexy.kostya.proto4j.rpc;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 import sexy.kostya.proto4j.exception.RpcException;
+import sexy.kostya.proto4j.rpc.transport.RpcClient;
 import sexy.kostya.proto4j.rpc.transport.RpcServer;
 import sexy.kostya.proto4j.rpc.transport.conclave.RpcConclaveServer;
+import sexy.kostya.proto4j.rpc.transport.packet.RpcInvocationPacket;
+import sexy.kostya.proto4j.transport.datagram.DatagramTransport;
+import sexy.kostya.proto4j.transport.highlevel.HighChannel;
+import sexy.kostya.proto4j.transport.lowlevel.Proto4jSocket;
 
+import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Created by k.shandurenko on 02.10.2020
@@ -25,12 +38,127 @@ public class RpcTest {
     public void testBase() throws ExecutionException, InterruptedException {
         RpcServer server = new RpcServer(2, 2);
         server.start(PORT).toCompletableFuture().get();
+        testBase(server, LOCALHOST);
+    }
 
-        RpcClientPerformer performer = new RpcClientPerformer(2, 2);
+    @Test
+    public void testEpoll() throws ExecutionException, InterruptedException {
+        Assume.assumeTrue(DatagramTransport.isEpollAvailable());
+        RpcServer server = new RpcServer(2, 2);
+        server.setTransport(DatagramTransport.epoll());
+        server.start(PORT).toCompletableFuture().get();
+        testBase(server, LOCALHOST);
+    }
+
+    @Test
+    public void testLoopback() throws ExecutionException, InterruptedException {
+        RpcServer server = new RpcServer(2, 2);
+        server.start(Proto4jSocket.LOOPBACK_ADDRESS, PORT).toCompletableFuture().get();
+        testBase(server, Proto4jSocket.LOOPBACK_ADDRESS);
+    }
+
+    @Test
+    public void testSharedMemory() throws ExecutionException, InterruptedException {
+        RpcServer server = new RpcServer(2, 2);
+        server.start(PORT).toCompletableFuture().get();
+        String address = Proto4jSocket.SHARED_MEMORY_SCHEME + System.getProperty("java.io.tmpdir");
+        server.start(address, PORT).toCompletableFuture().get();
+        testBase(server, address);
+    }
+
+    @Test
+    public void testTcp() throws ExecutionException, InterruptedException {
+        RpcServer server = new RpcServer(2, 2);
+        server.start(PORT).toCompletableFuture().get();
+        server.start(Proto4jSocket.TCP_SCHEME + "127.0.0.1", PORT).toCompletableFuture().get();
+        testBase(server, Proto4jSocket.TCP_SCHEME + "127.0.0.1");
+    }
+
+    @Test
+    public void testTcpFallback() throws Exception {
+        RpcServer server = new RpcServer(2, 2);
+        server.start(PORT).toCompletableFuture().get();
+        server.start(Proto4jSocket.TCP_SCHEME + LOCALHOST, PORT).toCompletableFuture().get();
+
+        // the performer loses 30% of the datagrams it sends
+        RpcClient performer = new RpcClient(2, 2);
+        Random    random    = new Random(39);
+        performer.setTransport((address, logger, workers, receiver) -> {
+            DatagramTransport socket = DatagramTransport.jdk().bind(address, logger, workers, receiver);
+            return new DatagramTransport() {
+
+                @Override
+                public void send(byte[] array, InetSocketAddress address) throws IOException {
+                    if (random.nextInt(10) >= 3) {
+                        socket.send(array, address);
+                    }
+                }
+
+                @Override
+                public boolean isClosed() {
+                    return socket.isClosed();
+                }
+
+                @Override
+                public void close() {
+                    socket.close();
+                }
+
+            };
+        });
+        performer.setTcpFallback(0.1);
         performer.connect(LOCALHOST, PORT).toCompletableFuture().get();
+        performer.getServiceManager().registerService(TestService.class, new TestServiceImpl()).toCompletableFuture().get();
 
         RpcClientUser user = new RpcClientUser(2, 2);
         user.connect(LOCALHOST, PORT).toCompletableFuture().get();
+        TestService svc = user.getService();
+
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (!performer.isTcp()) {
+            Assert.assertTrue("Client hasn't fallen back to TCP", System.currentTimeMillis() < deadline);
+            for (int i = 0; i < 100; ++i) {
+                svc.sum(i, i, i);
+            }
+            Thread.sleep(50);
+        }
+        // the service is announced to the server again once the client is connected over TCP
+        while (true) {
+            try {
+                Assert.assertSame(6, svc.sum(1, 2, 3).toCompletableFuture().get(1, TimeUnit.SECONDS));
+                break;
+            } catch (ExecutionException | TimeoutException ex) {
+                Assert.assertTrue("Service isn't restored over TCP", System.currentTimeMillis() < deadline);
+            }
+        }
+        Assert.assertTrue(performer.getChannel().isActive());
+
+        user.shutdown();
+        performer.shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    public void testMulticast() throws ExecutionException, InterruptedException, IOException {
+        RpcServer server = new RpcServer(2, 2);
+        server.enableMulticast(InetAddress.getByName("239.255.42.0"), PORT + 1);
+        server.start(PORT).toCompletableFuture().get();
+        testBase(server, LOCALHOST, true);
+    }
+
+    private void testBase(RpcServer server, String address) throws ExecutionException, InterruptedException {
+        testBase(server, address, false);
+    }
+
+    private void testBase(RpcServer server, String address, boolean multicast) throws ExecutionException, InterruptedException {
+        RpcClientPerformer performer = new RpcClientPerformer(2, 2);
+        if (multicast) {
+            performer.enableMulticast();
+        }
+        performer.connect(address, PORT).toCompletableFuture().get();
+
+        RpcClientUser user = new RpcClientUser(2, 2);
+        user.connect(address, PORT).toCompletableFuture().get();
 
         TestService svc = user.getService();
 
@@ -40,6 +168,12 @@ public class RpcTest {
         Thread.sleep(10);
         Assert.assertSame(5, svc.get());
 
+        svc.setLatest(7);
+        for (int i = 0; i < 100 && svc.get() != 7; ++i) {
+            Thread.sleep(10);
+        }
+        Assert.assertSame(7, svc.get());
+
         svc.setWithFuture(17, 10).toCompletableFuture().get();
         Assert.assertSame(27, svc.get());
 
@@ -52,7 +186,10 @@ public class RpcTest {
         Assert.assertArrayEquals(new long[]{5, 0, 2, 4, 7, 10}, svc.plusOne(new long[]{4, -1, 1, 3, 6, 9}));
 
         RpcClientPerformer performer2 = new RpcClientPerformer(2, 2);
-        performer2.connect(LOCALHOST, PORT).toCompletableFuture().get();
+        if (multicast) {
+            performer2.enableMulticast();
+        }
+        performer2.connect(address, PORT).toCompletableFuture().get();
 
         svc.broadcastTest();
         Thread.sleep(10);
@@ -106,6 +243,14 @@ public class RpcTest {
             throw t;
         }
 
+        CompletionStage<Void> awaiting = svc.awaitCancel();
+        Thread.sleep(50);
+        awaiting.toCompletableFuture().cancel(false);
+        for (int i = 0; i < 100 && svc.get() != -3; ++i) {
+            Thread.sleep(10);
+        }
+        Assert.assertSame(-3, svc.get());
+
         performer2.shutdown();
 
         try {
@@ -123,6 +268,46 @@ public class RpcTest {
         Assert.assertFalse(user.getChannel().isActive());
     }
 
+    @Test
+    public void testPool() throws ExecutionException, InterruptedException {
+        RpcServer server = new RpcServer(2, 2);
+        server.start(PORT).toCompletableFuture().get();
+
+        RpcClientPerformer performer = new RpcClientPerformer(2, 2);
+        performer.connect(LOCALHOST, PORT).toCompletableFuture().get();
+
+        RpcClientUser user = new RpcClientUser(2, 2);
+        user.setPoolSize(3);
+        user.connect(LOCALHOST, PORT).toCompletableFuture().get();
+
+        Assert.assertFalse(new RpcInvocationPacket(1, 1, 0, false, new byte[0]).hasIndex());
+        Set<HighChannel> channels = Sets.newHashSet();
+        for (int i = 0; i < 3; ++i) {
+            channels.add(user.getChannel(new RpcInvocationPacket(1, 1, 0, false, new byte[0])));
+        }
+        Assert.assertEquals(3, channels.size());
+        Assert.assertSame(user.getChannel(new RpcInvocationPacket(1, 1, 7, false, new byte[0])), user.getChannel(new RpcInvocationPacket(1, 1, 7, false, new byte[0])));
+        Assert.assertSame(user.getChannel(), user.getChannel(new RpcInvocationPacket(1, 1, 0, false, true, new byte[0])));
+
+        TestService                    svc     = user.getService();
+        List<CompletionStage<Integer>> futures = Lists.newArrayList();
+        for (int i = 0; i < 30; ++i) {
+            futures.add(svc.sum(i, i, i));
+        }
+        for (int i = 0; i < 30; ++i) {
+            Assert.assertSame(i * 3, futures.get(i).toCompletableFuture().get());
+        }
+        Assert.assertEquals(15, svc.sumArray(new int[]{3, 7, 5}));
+
+        user.shutdown();
+        performer.shutdown();
+        server.shutdown();
+
+        for (HighChannel channel : channels) {
+            Assert.assertFalse(channel.isActive());
+        }
+    }
+
     @Test
     public void testConclaveServers() throws Throwable {
         List<InetSocketAddress> serversAddresses = Lists.newArrayList(
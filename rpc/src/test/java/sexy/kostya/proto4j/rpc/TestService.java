@@ -2,6 +2,7 @@ package sexy.kostya.proto4j.rpc;
 
 import sexy.kostya.proto4j.rpc.service.annotation.Broadcast;
 import sexy.kostya.proto4j.rpc.service.annotation.Proto4jService;
+import sexy.kostya.proto4j.rpc.service.annotation.Sequenced;
 
 import java.util.List;
 import java.util.Set;
@@ -17,6 +18,9 @@ public interface TestService {
 
     CompletionStage<Void> setWithFuture(int a, int b);
 
+    @Sequenced
+    void setLatest(int value);
+
     int get();
 
     CompletionStage<Integer> sum(int a, int b, int c);
@@ -42,4 +46,6 @@ public interface TestService {
 
     CompletionStage<Void> testException();
 
+    CompletionStage<Void> awaitCancel();
+
 }
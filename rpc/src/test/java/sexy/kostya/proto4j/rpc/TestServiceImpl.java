@@ -28,6 +28,11 @@ public class TestServiceImpl implements TestService {
         return CompletableFuture.completedFuture(null);
     }
 
+    @Override
+    public void setLatest(int value) {
+        this.value.set(value);
+    }
+
     @Override
     public int get() {
         return this.value.get();
@@ -96,4 +101,15 @@ public class TestServiceImpl implements TestService {
     public CompletionStage<Void> testException() {
         throw new RuntimeException("Exception");
     }
+
+    @Override
+    public CompletionStage<Void> awaitCancel() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.whenComplete((res, ex) -> {
+            if (future.isCancelled()) {
+                this.value.set(-3);
+            }
+        });
+        return future;
+    }
 }
@@ -0,0 +1,41 @@
+package sexy.kostya.proto4j.rpc.transport.packet;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sexy.kostya.proto4j.exception.RpcException;
+import sexy.kostya.proto4j.transport.buffer.Buffer;
+
+/**
+ * Sizes reported by the RPC packets, which the buffers they're written to are allocated with.
+ */
+public class PacketSizeTest {
+
+    @Test
+    public void testInvocation() {
+        int[] values = {0, 1, -1, 127, 128, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (int value : values) {
+            for (int length : new int[]{0, 1, 127, 128, 100_000}) {
+                assertExact(new RpcInvocationPacket(value, value, value, value > 0, value < 0, new byte[length]));
+            }
+        }
+    }
+
+    @Test
+    public void testResponse() {
+        for (int length : new int[]{0, 1, 127, 128, 100_000}) {
+            RpcResponsePacket packet = new RpcResponsePacket(null, new byte[length]);
+            Buffer            buffer = Buffer.newBuffer();
+            packet.write(buffer);
+            Assert.assertTrue(buffer.readableBytes() <= packet.estimateSize());
+        }
+        // exceptions are estimated by the channel
+        Assert.assertEquals(-1, new RpcResponsePacket(new RpcException(RpcException.Code.EXECUTION_EXCEPTION, "Failed"), null).estimateSize());
+    }
+
+    private static void assertExact(RpcInvocationPacket packet) {
+        Buffer buffer = Buffer.newBuffer();
+        packet.write(buffer);
+        Assert.assertEquals(buffer.readableBytes(), packet.estimateSize());
+    }
+
+}
@@ -0,0 +1,52 @@
+package sexy.kostya.proto4j.serialization;
+
+import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.highlevel.packet.EnumeratedProto4jPacket;
+import sexy.kostya.proto4j.transport.highlevel.packet.codec.AutoPacket;
+import sexy.kostya.proto4j.transport.highlevel.packet.codec.Varint;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packet which codec is generated by the processor.
+ */
+@AutoPacket(id = 100)
+public class GeneratedPacket extends EnumeratedProto4jPacket {
+
+    int      number;
+    @Varint
+    int      varint;
+    @Varint(zigzag = true)
+    long     zigzag;
+    boolean  flag;
+    double   fraction;
+    String   name;
+    UUID     uuid;
+    TimeUnit unit;
+    byte[]   bytes;
+    @Varint(zigzag = true)
+    int[]    ints;
+    long[]   longs;
+
+    @Override
+    public int getID() {
+        return GeneratedPacketCodec.ID;
+    }
+
+    @Override
+    public int estimateSize() {
+        return GeneratedPacketCodec.size(this);
+    }
+
+    @Override
+    public void write(Buffer buffer) {
+        GeneratedPacketCodec.write(this, buffer);
+    }
+
+    @Override
+    public void read(Buffer buffer) {
+        GeneratedPacketCodec.read(this, buffer);
+    }
+
+}
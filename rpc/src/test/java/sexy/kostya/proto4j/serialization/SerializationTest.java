@@ -5,7 +5,10 @@ import org.junit.Test;
 import sexy.kostya.proto4j.rpc.BufferSerializer;
 import sexy.kostya.proto4j.serialization.exception.Proto4jSerializationException;
 import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.highlevel.packet.def.DefaultPacketManager;
 
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 
@@ -26,6 +29,32 @@ public class SerializationTest {
         exception(StringBuilder.class);
     }
 
+    @Test
+    public void testGeneratedCodec() {
+        GeneratedPacket packet = new GeneratedPacket();
+        packet.number = -8;
+        packet.varint = 300;
+        packet.zigzag = -1;
+        packet.flag = true;
+        packet.fraction = 0.5;
+        packet.name = "name";
+        packet.uuid = new UUID(1, 2);
+        packet.unit = TimeUnit.SECONDS;
+        packet.bytes = new byte[]{1, 2, 3};
+        packet.ints = new int[]{-1, 0, 1};
+        packet.longs = new long[]{Long.MIN_VALUE};
+        codec(packet);
+        // references are nullable
+        codec(new GeneratedPacket());
+    }
+
+    @Test
+    public void testGeneratedRegistration() {
+        DefaultPacketManager packetManager = new DefaultPacketManager();
+        packetManager.registerGenerated("sexy.kostya.proto4j.serialization");
+        Assert.assertTrue(packetManager.generate(GeneratedPacketCodec.ID) instanceof GeneratedPacket);
+    }
+
     private <S> void exception(Class<S> clazz) {
         Serializer<Buffer> serializer = BufferSerializer.getInstance();
         try {
@@ -48,4 +77,25 @@ public class SerializationTest {
         }
     }
 
+    private void codec(GeneratedPacket packet) {
+        try (Buffer buffer = Buffer.newBuffer()) {
+            packet.write(buffer);
+            Assert.assertEquals(packet.estimateSize(), buffer.readableBytes());
+            GeneratedPacket newPacket = new GeneratedPacket();
+            newPacket.read(buffer);
+            Assert.assertEquals(0, buffer.readableBytes());
+            Assert.assertEquals(packet.number, newPacket.number);
+            Assert.assertEquals(packet.varint, newPacket.varint);
+            Assert.assertEquals(packet.zigzag, newPacket.zigzag);
+            Assert.assertEquals(packet.flag, newPacket.flag);
+            Assert.assertEquals(packet.fraction, newPacket.fraction, 0);
+            Assert.assertEquals(packet.name, newPacket.name);
+            Assert.assertEquals(packet.uuid, newPacket.uuid);
+            Assert.assertEquals(packet.unit, newPacket.unit);
+            Assert.assertArrayEquals(packet.bytes, newPacket.bytes);
+            Assert.assertArrayEquals(packet.ints, newPacket.ints);
+            Assert.assertArrayEquals(packet.longs, newPacket.longs);
+        }
+    }
+
 }
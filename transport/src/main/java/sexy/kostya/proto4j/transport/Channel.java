@@ -1,12 +1,15 @@
 package sexy.kostya.proto4j.transport;
 
+import com.google.common.base.Preconditions;
 import sexy.kostya.proto4j.transport.attribute.AttributeMap;
 import sexy.kostya.proto4j.transport.buffer.Buffer;
 import sexy.kostya.proto4j.transport.packet.PacketCodec;
 import sexy.kostya.proto4j.transport.packet.Proto4jPacket;
 import sexy.kostya.proto4j.transport.packet.Proto4jPacketHandler;
 
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 /**
@@ -43,6 +46,13 @@ public class Channel {
         return this.codec.getDecoder().read(buffer, this.handler);
     }
 
+    /**
+     * Receives the packet passed as is by the peer, e.g. in-memory or through shared memory.
+     */
+    public void recv(Proto4jPacket packet) {
+        this.codec.read(packet);
+    }
+
     public void send(Buffer buffer) {
         send((byte) 0, buffer);
     }
@@ -51,8 +61,30 @@ public class Channel {
         send(new Proto4jPacket(flags, buffer));
     }
 
+    /**
+     * Sends the packet that supersedes previously sent with the same key but not yet confirmed one.
+     */
+    public void send(Object key, byte flags, Buffer buffer) {
+        send(new Proto4jPacket(key, flags, buffer));
+    }
+
+    /**
+     * Sends the reliable packet which is not retransmitted anymore once given time passes.
+     *
+     * @return stage which is completed when the packet is confirmed by the receiver
+     * or exceptionally with {@link java.util.concurrent.TimeoutException} when it expires
+     */
+    public CompletionStage<Void> send(byte flags, Buffer buffer, long timeToLive, TimeUnit unit) {
+        Proto4jPacket         packet   = new Proto4jPacket(flags, buffer);
+        CompletionStage<Void> delivery = packet.expireAfter(timeToLive, unit);
+        send(packet);
+        return delivery;
+    }
+
     public void send(Proto4jPacket packet) {
-        this.codec.getEncoder().write(packet);
+        // the ordering key can't be given through the flags, so otherwise every such packet would share the same one
+        Preconditions.checkArgument(!Proto4jPacket.Flag.isKeyed(packet.getFlags()) || packet.hasOrderingKey(), "Keyed packet must be made with setOrderingKey");
+        this.codec.write(packet);
     }
 
     public PacketCodec getCodec() {
@@ -4,7 +4,10 @@ import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by k.shandurenko on 30.09.2020
+ *
+ * @deprecated {@link AttributeMap} keeps the values in slots of {@link AttributeKey}s and doesn't use this class anymore
  */
+@Deprecated
 public class Attribute<V> {
 
     private final AtomicReference<V> reference = new AtomicReference<>();
@@ -0,0 +1,54 @@
+package sexy.kostya.proto4j.transport.attribute;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Typed key of an {@link AttributeMap}. Every key gets the next index once it's created, which is the slot of its value in every map,
+ * so keys must be constants: the indices are never freed. Names made at runtime belong to the string methods of the map.
+ */
+public final class AttributeKey<V> {
+
+    private final static ConcurrentMap<String, AttributeKey<?>> KEYS = new ConcurrentHashMap<>();
+
+    private static int nextIndex;
+
+    private final String name;
+    private final int    index;
+
+    private AttributeKey(String name, int index) {
+        this.name = name;
+        this.index = index;
+    }
+
+    /**
+     * @return the key with given name, which is created unless it already exists
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> AttributeKey<V> valueOf(String name) {
+        Preconditions.checkNotNull(name, "Name can't be null");
+        AttributeKey<?> key = KEYS.get(name);
+        if (key == null) {
+            synchronized (KEYS) {
+                key = KEYS.computeIfAbsent(name, n -> new AttributeKey<>(n, nextIndex++));
+            }
+        }
+        return (AttributeKey<V>) key;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    int getIndex() {
+        return this.index;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+}
@@ -2,33 +2,114 @@ package sexy.kostya.proto4j.transport.attribute;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
+ * Values of the attributes are kept in slots indexed by {@link AttributeKey}s. Slots are allocated lazily in small chunks which are
+ * never replaced once allocated, so that growing the map doesn't lose concurrent writes. A slot holding null means no attribute.
+ * <p>
+ * Attributes with string keys are kept apart in a map of their own, so that names made at runtime don't take global indices.
+ * They don't share the values with the typed keys of the same name.
+ *
  * Created by k.shandurenko on 30.09.2020
  */
 public class AttributeMap {
 
-    private final Map<String, Attribute<?>> attributes = new ConcurrentHashMap<>();
+    private final static int CHUNK_SHIFT = 3;
+    private final static int CHUNK_SIZE  = 1 << CHUNK_SHIFT;
+
+    @SuppressWarnings("unchecked")
+    private final static AtomicReferenceArray<Object>[] EMPTY = new AtomicReferenceArray[0];
+
+    private volatile AtomicReferenceArray<Object>[] chunks = EMPTY;
+    private volatile Map<String, Object>            named;
+
+    public boolean has(AttributeKey<?> key) {
+        return get(key) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <V> V get(AttributeKey<V> key) {
+        AtomicReferenceArray<Object> chunk = getChunk(key.getIndex());
+        return chunk == null ? null : (V) chunk.get(key.getIndex() & (CHUNK_SIZE - 1));
+    }
+
+    public <V> void set(AttributeKey<V> key, V value) {
+        AtomicReferenceArray<Object> chunk = getChunk(key.getIndex());
+        if (chunk == null) {
+            if (value == null) {
+                return;
+            }
+            chunk = createChunk(key.getIndex());
+        }
+        chunk.set(key.getIndex() & (CHUNK_SIZE - 1), value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <V> V remove(AttributeKey<V> key) {
+        AtomicReferenceArray<Object> chunk = getChunk(key.getIndex());
+        return chunk == null ? null : (V) chunk.getAndSet(key.getIndex() & (CHUNK_SIZE - 1), null);
+    }
 
     public boolean has(String key) {
-        return this.attributes.containsKey(key);
+        Map<String, Object> named = this.named;
+        return named != null && named.containsKey(key);
     }
 
+    @SuppressWarnings("unchecked")
     public <V> V remove(String key) {
-        Attribute<V> attr = (Attribute<V>) this.attributes.remove(key);
-        return attr == null ? null : attr.get();
+        Map<String, Object> named = this.named;
+        return named == null ? null : (V) named.remove(key);
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * @param value value of the attribute or null to remove it
+     */
     public <V> void set(String key, V value) {
-        Attribute<V> attr = (Attribute<V>) this.attributes.computeIfAbsent(key, k -> new Attribute<V>());
-        attr.set(value);
+        if (value == null) {
+            remove(key);
+            return;
+        }
+        Map<String, Object> named = this.named;
+        if (named == null) {
+            synchronized (this) {
+                named = this.named;
+                if (named == null) {
+                    this.named = named = new ConcurrentHashMap<>();
+                }
+            }
+        }
+        named.put(key, value);
     }
 
     @SuppressWarnings("unchecked")
     public <V> V get(String key) {
-        Attribute<V> attr = (Attribute<V>) this.attributes.get(key);
-        return attr == null ? null : attr.get();
+        Map<String, Object> named = this.named;
+        return named == null ? null : (V) named.get(key);
+    }
+
+    private AtomicReferenceArray<Object> getChunk(int index) {
+        AtomicReferenceArray<Object>[] chunks = this.chunks;
+        int                            chunk  = index >>> CHUNK_SHIFT;
+        return chunk < chunks.length ? chunks[chunk] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized AtomicReferenceArray<Object> createChunk(int index) {
+        AtomicReferenceArray<Object>[] chunks = this.chunks;
+        int                            chunk  = index >>> CHUNK_SHIFT;
+        if (chunk >= chunks.length) {
+            AtomicReferenceArray<Object>[] grown = new AtomicReferenceArray[chunk + 1];
+            System.arraycopy(chunks, 0, grown, 0, chunks.length);
+            chunks = grown;
+        } else if (chunks[chunk] != null) {
+            return chunks[chunk];
+        } else {
+            chunks = chunks.clone();
+        }
+        chunks[chunk] = new AtomicReferenceArray<>(CHUNK_SIZE);
+        this.chunks = chunks;
+        return chunks[chunk];
     }
 
 }
@@ -3,6 +3,7 @@ package sexy.kostya.proto4j.transport.buffer;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -21,6 +22,13 @@ public interface Buffer extends AutoCloseable {
         return wrap(Unpooled.buffer(maxCapacity, maxCapacity));
     }
 
+    /**
+     * @param initialCapacity capacity the buffer starts with, it's grown once exceeded
+     */
+    static Buffer allocate(int initialCapacity) {
+        return wrap(Unpooled.buffer(initialCapacity));
+    }
+
     static Buffer wrap(byte[] bytes) {
         return wrap(Unpooled.wrappedBuffer(bytes));
     }
@@ -48,6 +56,8 @@ public interface Buffer extends AutoCloseable {
 
     void writeBytes(byte[] value);
 
+    void writeBytes(ByteBuffer value);
+
     default boolean readBoolean() {
         return readByte() == 1;
     }
@@ -3,6 +3,8 @@ package sexy.kostya.proto4j.transport.buffer;
 import io.netty.buffer.ByteBuf;
 import sexy.kostya.proto4j.transport.util.Recycler;
 
+import java.nio.ByteBuffer;
+
 /**
  * Created by k.shandurenko on 30.09.2020
  */
@@ -50,6 +52,11 @@ public class BufferImpl implements Buffer {
         this.buffer.writeBytes(value);
     }
 
+    @Override
+    public void writeBytes(ByteBuffer value) {
+        this.buffer.writeBytes(value);
+    }
+
     @Override
     public short readShort() {
         return this.buffer.readShort();
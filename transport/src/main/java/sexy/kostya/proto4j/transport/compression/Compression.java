@@ -0,0 +1,44 @@
+package sexy.kostya.proto4j.transport.compression;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Algorithm used to compress bodies of large high level packets.
+ * Peers negotiate the algorithms both of them support while handshaking.
+ */
+public interface Compression {
+
+    /**
+     * @return copy of the given algorithms, which are checked to fit into a handshaking packet
+     */
+    static Compression[] copyOf(Compression... compressions) {
+        Preconditions.checkArgument(compressions.length <= 0xFF, "Too many compressions");
+        for (int i = 0; i < compressions.length; i++) {
+            for (int j = 0; j < i; j++) {
+                Preconditions.checkArgument(compressions[i].getID() != compressions[j].getID(), "Duplicate compression ID %s", compressions[i].getID());
+            }
+        }
+        return compressions.clone();
+    }
+
+    /**
+     * @return identifier of the algorithm, unique among the supported ones
+     */
+    byte getID();
+
+    /**
+     * @return value which must be equal on both peers for the algorithm to be negotiated, e.g. checksum of the preset dictionary
+     */
+    default int getFingerprint() {
+        return 0;
+    }
+
+    byte[] compress(byte[] array, int offset, int length);
+
+    /**
+     * @param out array which length is exactly the length of the uncompressed data
+     * @throws sexy.kostya.proto4j.commons.Proto4jException if data is malformed
+     */
+    void decompress(byte[] array, int offset, int length, byte[] out);
+
+}
@@ -0,0 +1,98 @@
+package sexy.kostya.proto4j.transport.compression;
+
+import com.google.common.base.Preconditions;
+import sexy.kostya.proto4j.commons.Proto4jException;
+
+import java.util.Arrays;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression via JDK {@link Deflater} with an optional preset dictionary: it's worth specifying one
+ * containing strings which are common for the transferred data when packets are only several kilobytes large.
+ */
+public class DeflateCompression implements Compression {
+
+    public final static byte ID = 1;
+
+    private final byte[]                dictionary;
+    private final int                   fingerprint;
+    private final ThreadLocal<Deflater> deflater;
+    private final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(Inflater::new);
+
+    public DeflateCompression() {
+        this(Deflater.DEFAULT_COMPRESSION, null);
+    }
+
+    public DeflateCompression(byte[] dictionary) {
+        this(Deflater.DEFAULT_COMPRESSION, dictionary);
+    }
+
+    public DeflateCompression(int level, byte[] dictionary) {
+        Preconditions.checkArgument(level == Deflater.DEFAULT_COMPRESSION || level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION, "Invalid compression level");
+        this.dictionary = dictionary == null ? null : dictionary.clone();
+        if (dictionary == null) {
+            this.fingerprint = 0;
+        } else {
+            Adler32 adler32 = new Adler32();
+            adler32.update(dictionary);
+            this.fingerprint = (int) adler32.getValue();
+        }
+        this.deflater = ThreadLocal.withInitial(() -> new Deflater(level));
+    }
+
+    @Override
+    public byte getID() {
+        return ID;
+    }
+
+    @Override
+    public int getFingerprint() {
+        return this.fingerprint;
+    }
+
+    @Override
+    public byte[] compress(byte[] array, int offset, int length) {
+        Deflater deflater = this.deflater.get();
+        deflater.reset();
+        if (this.dictionary != null) {
+            deflater.setDictionary(this.dictionary);
+        }
+        deflater.setInput(array, offset, length);
+        deflater.finish();
+        byte[] result = new byte[length + 16];
+        int    size   = 0;
+        while (!deflater.finished()) {
+            if (size == result.length) {
+                result = Arrays.copyOf(result, result.length << 1);
+            }
+            size += deflater.deflate(result, size, result.length - size);
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    @Override
+    public void decompress(byte[] array, int offset, int length, byte[] out) {
+        Inflater inflater = this.inflater.get();
+        inflater.reset();
+        inflater.setInput(array, offset, length);
+        try {
+            int size = inflater.inflate(out);
+            if (size == 0 && inflater.needsDictionary()) {
+                if (this.dictionary == null) {
+                    throw new Proto4jException("Compressed data requires a preset dictionary");
+                }
+                inflater.setDictionary(this.dictionary);
+                size = inflater.inflate(out);
+            }
+            if (size != out.length || !inflater.finished()) {
+                throw new Proto4jException("Compressed data length does not match: " + out.length + " expected");
+            }
+        } catch (DataFormatException | IllegalArgumentException ex) {
+            throw new Proto4jException("Malformed compressed data", ex);
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+package sexy.kostya.proto4j.transport.compression;
+
+import sexy.kostya.proto4j.commons.Proto4jException;
+
+import java.util.Arrays;
+
+/**
+ * Compression into LZ4 block format: it's much faster than {@link DeflateCompression} but compresses worse.
+ */
+public class Lz4Compression implements Compression {
+
+    public final static byte ID = 2;
+
+    private final static int MIN_MATCH     = 4;
+    private final static int LAST_LITERALS = 5;  // the last bytes of the block are always literals
+    private final static int MF_LIMIT      = 12; // the last match must start at least that many bytes before the end of the block
+    private final static int MAX_DISTANCE  = 0xFFFF;
+    private final static int HASH_LOG      = 12;
+
+    @Override
+    public byte getID() {
+        return ID;
+    }
+
+    @Override
+    public byte[] compress(byte[] array, int offset, int length) {
+        byte[] out        = new byte[length + length / 255 + 16];
+        int[]  table      = new int[1 << HASH_LOG];
+        int    end        = offset + length;
+        int    matchLimit = end - LAST_LITERALS;
+        int    anchor     = offset;
+        int    index      = offset;
+        int    size       = 0;
+        while (index <= end - MF_LIMIT) {
+            int sequence = readInt(array, index);
+            int hash     = (sequence * -1640531535) >>> (32 - HASH_LOG);
+            int ref      = table[hash] - 1;
+            table[hash] = index + 1;
+            if (ref < 0 || index - ref > MAX_DISTANCE || readInt(array, ref) != sequence) {
+                index++;
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while (index + matchLength < matchLimit && array[ref + matchLength] == array[index + matchLength]) {
+                matchLength++;
+            }
+            size = writeLiterals(out, size, array, anchor, index - anchor, matchLength - MIN_MATCH);
+            out[size++] = (byte) (index - ref);
+            out[size++] = (byte) ((index - ref) >>> 8);
+            if (matchLength - MIN_MATCH >= 15) {
+                size = writeLength(out, size, matchLength - MIN_MATCH - 15);
+            }
+            index += matchLength;
+            anchor = index;
+        }
+        size = writeLiterals(out, size, array, anchor, end - anchor, 0);
+        return Arrays.copyOf(out, size);
+    }
+
+    @Override
+    public void decompress(byte[] array, int offset, int length, byte[] out) {
+        int end  = offset + length;
+        int size = 0;
+        try {
+            while (true) {
+                if (offset >= end) {
+                    throw new Proto4jException("Malformed compressed data");
+                }
+                int token    = array[offset++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = array[offset++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                if (offset + literals > end) {
+                    throw new Proto4jException("Malformed compressed data");
+                }
+                System.arraycopy(array, offset, out, size, literals);
+                offset += literals;
+                size += literals;
+                if (offset == end) {
+                    break;
+                }
+                int distance = (array[offset++] & 0xFF) | (array[offset++] & 0xFF) << 8;
+                if (distance == 0 || distance > size) {
+                    throw new Proto4jException("Malformed compressed data");
+                }
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = array[offset++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                if (size + matchLength > out.length) {
+                    throw new Proto4jException("Malformed compressed data");
+                }
+                for (int i = 0; i < matchLength; i++, size++) {
+                    out[size] = out[size - distance];
+                }
+            }
+        } catch (IndexOutOfBoundsException ex) {
+            throw new Proto4jException("Malformed compressed data", ex);
+        }
+        if (size != out.length) {
+            throw new Proto4jException("Compressed data length does not match: " + out.length + " expected");
+        }
+    }
+
+    private static int writeLiterals(byte[] out, int size, byte[] array, int offset, int length, int matchLength) {
+        out[size++] = (byte) (Math.min(length, 15) << 4 | Math.min(matchLength, 15));
+        if (length >= 15) {
+            size = writeLength(out, size, length - 15);
+        }
+        System.arraycopy(array, offset, out, size, length);
+        return size + length;
+    }
+
+    private static int writeLength(byte[] out, int size, int length) {
+        while (length >= 255) {
+            out[size++] = (byte) 255;
+            length -= 255;
+        }
+        out[size++] = (byte) length;
+        return size;
+    }
+
+    private static int readInt(byte[] array, int index) {
+        return (array[index] & 0xFF) | (array[index + 1] & 0xFF) << 8 | (array[index + 2] & 0xFF) << 16 | array[index + 3] << 24;
+    }
+
+}
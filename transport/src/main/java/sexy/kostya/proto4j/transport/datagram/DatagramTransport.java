@@ -0,0 +1,76 @@
+package sexy.kostya.proto4j.transport.datagram;
+
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import sexy.kostya.proto4j.commons.Proto4jException;
+import sexy.kostya.proto4j.commons.Proto4jProperties;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+
+/**
+ * Socket which datagrams of {@link sexy.kostya.proto4j.transport.lowlevel.Proto4jSocket} are sent and received through.
+ */
+public interface DatagramTransport {
+
+    /**
+     * Either {@code jdk} or {@code epoll}, which falls back to {@code jdk} when native epoll is unavailable.
+     */
+    String DEFAULT = Proto4jProperties.getProperty("datagramTransport", "jdk");
+
+    static Factory jdk() {
+        return JdkDatagramTransport::new;
+    }
+
+    /**
+     * Requires {@code io.netty:netty-transport-native-epoll} on the classpath and Linux.
+     */
+    static Factory epoll() {
+        if (!isEpollAvailable()) {
+            throw new Proto4jException("Native epoll transport is unavailable");
+        }
+        return EpollDatagramTransport::new;
+    }
+
+    static Factory byDefault() {
+        return "epoll".equals(DEFAULT) && isEpollAvailable() ? epoll() : jdk();
+    }
+
+    static boolean isEpollAvailable() {
+        try {
+            return (Boolean) Class.forName("io.netty.channel.epoll.Epoll").getMethod("isAvailable").invoke(null);
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            return false;
+        }
+    }
+
+    /**
+     * May be called by any thread.
+     */
+    void send(byte[] array, InetSocketAddress address) throws IOException;
+
+    boolean isClosed();
+
+    void close();
+
+    interface Factory {
+
+        /**
+         * Binds the socket and starts receiving datagrams.
+         *
+         * @param address  local address, null for any
+         * @param workers  executor on which datagrams are passed to the receiver
+         * @param receiver receiver of datagrams which becomes the owner of passed buffers
+         */
+        DatagramTransport bind(InetSocketAddress address, Logger logger, Executor workers, Receiver receiver) throws IOException;
+
+    }
+
+    interface Receiver {
+
+        void receive(ByteBuf buffer, InetSocketAddress sender);
+
+    }
+
+}
@@ -0,0 +1,142 @@
+package sexy.kostya.proto4j.transport.datagram;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.unix.Socket;
+import org.slf4j.Logger;
+import sexy.kostya.proto4j.commons.Proto4jProperties;
+import sexy.kostya.proto4j.transport.NamedThreadFactory;
+import sexy.kostya.proto4j.transport.util.DatagramHelper;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Netty's native epoll datagram channels: datagrams are received by batches with {@code recvmmsg} and sent right away
+ * by the calling thread. Once the socket buffer is full, datagrams are left to the event loop which flushes them
+ * together with {@code sendmmsg} when the socket becomes writable. Listening address is bound by {@link #THREADS}
+ * sockets with {@code SO_REUSEPORT}, so that the kernel spreads the clients among them.
+ */
+public class EpollDatagramTransport implements DatagramTransport {
+
+    public final static int THREADS = Proto4jProperties.getProperty("epollThreads", 1);
+    public final static int BATCH   = Proto4jProperties.getProperty("epollBatch", 16);
+
+    private final static ThreadLocal<ByteBuffer> DIRECT_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(DatagramHelper.MAX_DATAGRAM_SIZE));
+
+    private final EventLoopGroup group;
+    private final Bound[]        sockets;
+
+    private volatile boolean closed;
+
+    public EpollDatagramTransport(InetSocketAddress address, Logger logger, Executor workers, Receiver receiver) throws IOException {
+        int threads = address == null ? 1 : THREADS;
+        this.group = new EpollEventLoopGroup(threads, new NamedThreadFactory("Proto4j Epoll Thread", true));
+        Bootstrap bootstrap = new Bootstrap()
+                .group(this.group)
+                .channel(EpollDatagramChannel.class)
+                .option(EpollChannelOption.SO_REUSEPORT, threads > 1)
+                .option(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE, DatagramHelper.MAX_DATAGRAM_SIZE)
+                .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(DatagramHelper.MAX_DATAGRAM_SIZE * BATCH).maxMessagesPerRead(BATCH))
+                .handler(new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                        DatagramPacket    packet = (DatagramPacket) msg;
+                        // datagrams of a batch share the buffer of the channel
+                        ByteBuf           buffer = Unpooled.copiedBuffer(packet.content());
+                        InetSocketAddress sender = packet.sender();
+                        packet.release();
+                        workers.execute(() -> receiver.receive(buffer, sender));
+                    }
+
+                    @Override
+                    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                        if (!EpollDatagramTransport.this.closed) {
+                            logger.error("Could not receive datagram", cause);
+                        }
+                    }
+                });
+        this.sockets = new Bound[threads];
+        for (int i = 0; i < threads; ++i) {
+            ChannelFuture future = bootstrap.bind(address == null ? new InetSocketAddress(0) : address).awaitUninterruptibly();
+            if (!future.isSuccess()) {
+                close();
+                throw new IOException("Could not bind " + address, future.cause());
+            }
+            this.sockets[i] = new Bound(future.channel());
+        }
+    }
+
+    @Override
+    public void send(byte[] array, InetSocketAddress address) throws IOException {
+        Bound socket = this.sockets[this.sockets.length == 1 ? 0 : Math.floorMod(address.hashCode(), this.sockets.length)];
+        // handing every datagram over to the event loop costs a context switch and sends them in bursts
+        if (socket.pending.isEmpty() && array.length <= DatagramHelper.MAX_DATAGRAM_SIZE) {
+            ByteBuffer buffer = DIRECT_BUFFER.get();
+            buffer.clear();
+            buffer.put(array);
+            if (socket.fd.sendTo(buffer, 0, array.length, address.getAddress(), address.getPort()) > 0) {
+                return;
+            }
+        }
+        socket.pending.add(new DatagramPacket(Unpooled.wrappedBuffer(array), address));
+        if (socket.flushing.compareAndSet(false, true)) {
+            socket.channel.eventLoop().execute(socket::flush);
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        for (Bound socket : this.sockets) {
+            if (socket != null) {
+                socket.channel.close();
+            }
+        }
+        this.group.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+    }
+
+    private static class Bound {
+
+        private final Channel               channel;
+        private final Socket                fd;
+        private final Queue<DatagramPacket> pending  = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean         flushing = new AtomicBoolean();
+
+        Bound(Channel channel) {
+            this.channel = channel;
+            this.fd = (Socket) ((EpollDatagramChannel) channel).fd();
+        }
+
+        /**
+         * Writes all the datagrams left by the moment, so that they're flushed together once the socket is writable.
+         */
+        void flush() {
+            this.flushing.set(false);
+            DatagramPacket packet;
+            while ((packet = this.pending.poll()) != null) {
+                this.channel.write(packet, this.channel.voidPromise());
+            }
+            this.channel.flush();
+        }
+
+    }
+
+}
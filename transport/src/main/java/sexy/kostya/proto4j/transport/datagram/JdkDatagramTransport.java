@@ -0,0 +1,63 @@
+package sexy.kostya.proto4j.transport.datagram;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.slf4j.Logger;
+import sexy.kostya.proto4j.transport.util.DatagramHelper;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+
+/**
+ * Blocking {@link DatagramSocket} read by a dedicated thread.
+ */
+public class JdkDatagramTransport implements DatagramTransport {
+
+    private final DatagramSocket socket;
+
+    public JdkDatagramTransport(InetSocketAddress address, Logger logger, Executor workers, Receiver receiver) throws IOException {
+        this.socket = address == null ? new DatagramSocket() : new DatagramSocket(address);
+        Thread thread = new Thread(() -> {
+            while (!this.socket.isClosed()) {
+                byte[]         array  = new byte[DatagramHelper.MAX_DATAGRAM_SIZE];
+                DatagramPacket packet = new DatagramPacket(array, array.length);
+                try {
+                    this.socket.receive(packet);
+                    workers.execute(() -> {
+                        ByteBuf           buffer = Unpooled.wrappedBuffer(packet.getData(), packet.getOffset(), packet.getLength());
+                        InetSocketAddress sender = new InetSocketAddress(packet.getAddress(), packet.getPort());
+                        receiver.receive(buffer, sender);
+                    });
+                } catch (IOException e) {
+                    if (!this.socket.isClosed()) {
+                        logger.error("Could not receive datagram", e);
+                    }
+                }
+            }
+        }, "Proto4j Datagram Thread");
+        thread.start();
+    }
+
+    @Override
+    public void send(byte[] array, InetSocketAddress address) throws IOException {
+        this.socket.send(new DatagramPacket(array, array.length, address));
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.socket.isClosed();
+    }
+
+    @Override
+    public void close() {
+        this.socket.close();
+    }
+
+    public DatagramSocket getSocket() {
+        return this.socket;
+    }
+
+}
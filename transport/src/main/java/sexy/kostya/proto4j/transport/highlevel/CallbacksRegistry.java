@@ -2,69 +2,155 @@ package sexy.kostya.proto4j.transport.highlevel;
 
 import sexy.kostya.proto4j.commons.Proto4jProperties;
 import sexy.kostya.proto4j.transport.highlevel.packet.CallbackProto4jPacket;
+import sexy.kostya.proto4j.transport.highlevel.packet.def.Packet7Cancel;
+import sexy.kostya.proto4j.transport.util.IntMap;
+import sexy.kostya.proto4j.transport.util.TimerWheel;
 
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Random;
-import java.util.Set;
-import java.util.concurrent.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Created by k.shandurenko on 01.10.2020
  */
 public class CallbacksRegistry {
 
-    private final Map<Short, CallbackData> callbacks = new ConcurrentHashMap<>();
-
-    public CallbacksRegistry() {
-        long delay = Proto4jProperties.getProperty("callbacksRegistryDelay", 100L);
-        Thread thread = new Thread(() -> {
-            Set<Short> toBeRemoved = new HashSet<>();
-            while (true) {
-                long current = System.currentTimeMillis();
-                this.callbacks.forEach((id, data) -> {
-                    if (current > data.maxTime) {
-                        toBeRemoved.add(id);
-                        data.future.completeExceptionally(new TimeoutException());
-                    }
-                });
-                toBeRemoved.forEach(this.callbacks::remove);
-                try {
-                    Thread.sleep(delay);
-                } catch (InterruptedException ignored) {
-                }
+    // cancels which came before the packets they cancel are remembered for this long
+    private final static long CANCELLED_TIME = 10_000;
+
+    private final static Runnable CANCELLED = () -> {
+    };
+
+    private final TimerWheel timeouts = new TimerWheel(Proto4jProperties.getProperty("callbacksRegistryDelay", 100L), "Proto4j Callbacks Thread");
+
+    public void awaiting(HighChannel channel, CallbackProto4jPacket packet, CompletableFuture<CallbackProto4jPacket> future, TimeUnit timeUnit, long time) {
+        Callbacks callbacks = channel.getCallbacks();
+        Callback  callback  = new Callback(future);
+        int       id        = callbacks.register(callback);
+        packet.setCallbackID(id);
+        callback.timeout = this.timeouts.schedule(time, timeUnit, () -> {
+            if (callbacks.remove(id, callback)) {
+                future.completeExceptionally(new TimeoutException());
+            }
+        });
+        future.whenComplete((response, ex) -> {
+            if (ex instanceof CancellationException && callbacks.remove(id, callback)) {
+                callback.timeout.cancel();
+                channel.send(new Packet7Cancel(id));
             }
-        }, "Proto4j Callbacks Thread");
-        thread.setDaemon(true);
-        thread.start();
+        });
     }
 
-    public void awaiting(CallbackProto4jPacket packet, CompletableFuture<CallbackProto4jPacket> future, TimeUnit timeUnit, long time) {
-        short  id;
-        Random random = ThreadLocalRandom.current();
-        do {
-            id = (short) random.nextInt(Short.MAX_VALUE - 10);
-        } while (this.callbacks.containsKey(id));
-        packet.setCallbackID(id);
-        CallbackData data = new CallbackData(future, System.currentTimeMillis() + timeUnit.toMillis(time));
-        this.callbacks.put(id, data);
+    public void responded(HighChannel channel, CallbackProto4jPacket packet) {
+        Callback callback = channel.getCallbacks().remove(packet.getCallbackID());
+        if (callback != null) {
+            callback.timeout.cancel();
+            callback.future.complete(packet);
+        }
+    }
+
+    boolean onCancel(HighChannel channel, int id, Runnable cancel) {
+        if (channel.getCallbacks().onCancel(id, cancel)) {
+            return true;
+        }
+        cancel.run();
+        return false;
     }
 
-    public void responded(CallbackProto4jPacket packet) {
-        CallbackData data = this.callbacks.remove(packet.getCallbackID());
-        if (data != null) {
-            data.future.complete(packet);
+    void cancel(HighChannel channel, int id) {
+        Callbacks callbacks = channel.getCallbacks();
+        Runnable  cancel    = callbacks.cancel(id);
+        if (cancel != null) {
+            cancel.run();
+        } else {
+            this.timeouts.schedule(CANCELLED_TIME, TimeUnit.MILLISECONDS, () -> callbacks.removeCancelled(id));
         }
     }
 
-    private static class CallbackData {
+    /**
+     * Callbacks awaited by a single channel and the cancels of the work it does for the remote side. Identifiers grow monotonically
+     * and wrap around skipping the pending ones, so that an identifier isn't reused while its response may still arrive.
+     */
+    static class Callbacks {
+
+        private final IntMap<Callback> callbacks     = new IntMap<>();
+        private final IntMap<Runnable> cancellations = new IntMap<>();
+        private       int              lastID;
+
+        private synchronized int register(Callback callback) {
+            do {
+                this.lastID = this.lastID == Integer.MAX_VALUE ? 1 : this.lastID + 1;
+            } while (this.callbacks.containsKey(this.lastID));
+            this.callbacks.put(this.lastID, callback);
+            return this.lastID;
+        }
+
+        private synchronized Callback remove(int id) {
+            return this.callbacks.remove(id);
+        }
+
+        private synchronized boolean remove(int id, Callback callback) {
+            if (this.callbacks.get(id) != callback) {
+                return false;
+            }
+            this.callbacks.remove(id);
+            return true;
+        }
+
+        /**
+         * @return false if the remote side has already cancelled the work
+         */
+        private synchronized boolean onCancel(int id, Runnable cancel) {
+            Runnable previous = this.cancellations.get(id);
+            if (previous == CANCELLED) {
+                return false;
+            }
+            // the work may be split, e.g. when a broadcast is forwarded to several implementations
+            this.cancellations.put(id, previous == null ? cancel : () -> {
+                previous.run();
+                cancel.run();
+            });
+            return true;
+        }
+
+        synchronized boolean isCancelled(int id) {
+            return this.cancellations.get(id) == CANCELLED;
+        }
+
+        /**
+         * @return the cancel of the work or null if it's not started yet, in which case it's marked as cancelled
+         */
+        private synchronized Runnable cancel(int id) {
+            Runnable cancel = this.cancellations.put(id, CANCELLED);
+            if (cancel == null || cancel == CANCELLED) {
+                return null;
+            }
+            this.cancellations.remove(id);
+            return cancel;
+        }
+
+        synchronized void removeOnCancel(int id) {
+            if (this.cancellations.get(id) != CANCELLED) {
+                this.cancellations.remove(id);
+            }
+        }
+
+        private synchronized void removeCancelled(int id) {
+            if (this.cancellations.get(id) == CANCELLED) {
+                this.cancellations.remove(id);
+            }
+        }
+
+    }
+
+    private static class Callback {
 
-        private final CompletableFuture<CallbackProto4jPacket> future;
-        private final long                                     maxTime;
+        private final    CompletableFuture<CallbackProto4jPacket> future;
+        private volatile TimerWheel.Timeout                       timeout;
 
-        public CallbackData(CompletableFuture<CallbackProto4jPacket> future, long maxTime) {
+        private Callback(CompletableFuture<CallbackProto4jPacket> future) {
             this.future = future;
-            this.maxTime = maxTime;
         }
     }
 
@@ -1,9 +1,11 @@
 package sexy.kostya.proto4j.transport.highlevel;
 
 import sexy.kostya.proto4j.exception.Proto4jHandshakingException;
-import sexy.kostya.proto4j.transport.Channel;
+import sexy.kostya.proto4j.transport.attribute.AttributeKey;
 import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.compression.Compression;
 
+import java.util.Arrays;
 import java.util.concurrent.CompletionStage;
 
 /**
@@ -11,19 +13,27 @@ import java.util.concurrent.CompletionStage;
  */
 public class Handshake {
 
-    private final static long   MAGIC         = 0xD3ADC0DE007L;
-    private final static String ATTRIBUTE_KEY = "_hst";
+    private final static long               MAGIC         = 0xD3ADC0DE007L;
+    private final static AttributeKey<Long> ATTRIBUTE_KEY = AttributeKey.valueOf("_hst");
 
-    public static void initOnClientside(Channel channel) {
+    /**
+     * @param compressions algorithms offered to the server, which replies with the ones it supports as well
+     */
+    public static void initOnClientside(HighChannel channel, Compression[] compressions) {
         long   time   = System.currentTimeMillis();
-        Buffer buffer = Buffer.newBuffer(16);
+        Buffer buffer = Buffer.newBuffer(16 + 1 + compressions.length * 5);
         buffer.writeLong(MAGIC);
         buffer.writeLong(time);
+        buffer.writeByte((byte) compressions.length);
+        for (Compression compression : compressions) {
+            buffer.writeByte(compression.getID());
+            buffer.writeInt(compression.getFingerprint());
+        }
         channel.getAttributes().set(ATTRIBUTE_KEY, time);
         channel.send(buffer);
     }
 
-    public static boolean processOnClientside(Channel channel, Buffer in, CompletionStage<Void> completed) {
+    public static boolean processOnClientside(HighChannel channel, Buffer in, CompletionStage<Void> completed, Compression[] compressions) {
         long first  = in.readLong();
         long second = in.readLong();
         if (first == MAGIC) {
@@ -36,6 +46,25 @@ public class Handshake {
             }
             long serverTime = in.readLong();
             channel.getAttributes().set(ATTRIBUTE_KEY, serverTime);
+            if (in.readableBytes() > 0) {
+                int count = in.readByte() & 0xFF;
+                if (count > in.readableBytes()) {
+                    throw new Proto4jHandshakingException("Malformed list of accepted compressions");
+                }
+                Compression[] accepted = new Compression[count];
+                for (int i = 0; i < accepted.length; i++) {
+                    byte id = in.readByte();
+                    for (Compression compression : compressions) {
+                        if (compression.getID() == id) {
+                            accepted[i] = compression;
+                        }
+                    }
+                    if (accepted[i] == null) {
+                        throw new Proto4jHandshakingException("Server accepted unknown compression " + id);
+                    }
+                }
+                channel.setCompressions(accepted);
+            }
             Buffer out = Buffer.newBuffer(16);
             out.writeLong(serverTime);
             out.writeLong(MAGIC);
@@ -55,15 +84,43 @@ public class Handshake {
         }
     }
 
-    public static boolean processOnServerside(Channel channel, Buffer in, CompletionStage<Void> completed) {
+    /**
+     * @param compressions algorithms supported by the server: the ones also offered by the client are accepted in the client's order
+     */
+    public static boolean processOnServerside(HighChannel channel, Buffer in, CompletionStage<Void> completed, Compression[] compressions) {
         long first  = in.readLong();
         long second = in.readLong();
         if (first == MAGIC) {
+            Compression[] accepted = new Compression[0];
+            if (in.readableBytes() > 0) {
+                int offered = in.readByte() & 0xFF;
+                if (offered * 5 > in.readableBytes()) {
+                    throw new Proto4jHandshakingException("Malformed list of offered compressions");
+                }
+                accepted = new Compression[offered];
+                int count = 0;
+                for (int i = 0; i < offered; i++) {
+                    byte id          = in.readByte();
+                    int  fingerprint = in.readInt();
+                    for (Compression compression : compressions) {
+                        if (compression.getID() == id && compression.getFingerprint() == fingerprint) {
+                            accepted[count++] = compression;
+                            break;
+                        }
+                    }
+                }
+                accepted = Arrays.copyOf(accepted, count);
+            }
+            channel.setCompressions(accepted);
             long   time = System.currentTimeMillis();
-            Buffer out  = Buffer.newBuffer(24);
+            Buffer out  = Buffer.newBuffer(24 + 1 + accepted.length);
             out.writeLong(MAGIC);
             out.writeLong(second);
             out.writeLong(time);
+            out.writeByte((byte) accepted.length);
+            for (Compression compression : accepted) {
+                out.writeByte(compression.getID());
+            }
             channel.getAttributes().set(ATTRIBUTE_KEY, time);
             completed.thenAccept(v -> channel.send(out));
             return false;
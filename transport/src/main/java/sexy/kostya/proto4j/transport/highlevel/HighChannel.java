@@ -1,36 +1,89 @@
 package sexy.kostya.proto4j.transport.highlevel;
 
+import com.google.common.base.Preconditions;
+import sexy.kostya.proto4j.commons.Proto4jException;
 import sexy.kostya.proto4j.commons.Proto4jProperties;
 import sexy.kostya.proto4j.transport.Channel;
 import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.compression.Compression;
 import sexy.kostya.proto4j.transport.highlevel.packet.CallbackProto4jPacket;
 import sexy.kostya.proto4j.transport.highlevel.packet.EnumeratedProto4jPacket;
+import sexy.kostya.proto4j.transport.highlevel.packet.PacketManager;
 import sexy.kostya.proto4j.transport.packet.PacketCodec;
 import sexy.kostya.proto4j.transport.packet.Proto4jPacket;
 
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Created by k.shandurenko on 01.10.2020
  */
 public class HighChannel extends Channel {
 
-    public final static long INITIAL_DELAY = Proto4jProperties.getProperty("callbacksInitialDelay", 500L);
+    public final static long INITIAL_DELAY         = Proto4jProperties.getProperty("callbacksInitialDelay", 500L);
+    public final static int  COMPRESSION_THRESHOLD = Proto4jProperties.getProperty("compressionThreshold", 512);
+    public final static int  MAX_DECOMPRESSED_SIZE = Proto4jProperties.getProperty("maxDecompressedSize", 64 * 1024 * 1024);
 
-    private final CallbacksRegistry callbacksRegistry;
+    /**
+     * Reserved packet ID: such packet wraps the compressed body of another one
+     */
+    public final static int COMPRESSED_PACKET_ID = -3;
+
+    /**
+     * Reserved packet ID: such packet consists of several length-delimited packets
+     */
+    public final static int BUNDLE_PACKET_ID = -8;
+
+    private final CallbacksRegistry           callbacksRegistry;
+    private final CallbacksRegistry.Callbacks callbacks = new CallbacksRegistry.Callbacks();
+    private final StreamRegistry              streams   = new StreamRegistry(this);
+    private final SizeEstimates               sizes     = new SizeEstimates();
 
     boolean handshaked;
     boolean active = true;
-    private volatile long lastPacketReceived;
-    private volatile long lastPacketSent;
+    private volatile long          lastPacketReceived;
+    private volatile long          lastPacketSent;
+    private volatile Compression[] compressions         = new Compression[0];
+    private volatile int           compressionThreshold = COMPRESSION_THRESHOLD;
 
     public HighChannel(CallbacksRegistry callbacksRegistry, PacketCodec codec) {
         super(codec);
         this.callbacksRegistry = callbacksRegistry;
     }
 
+    CallbacksRegistry.Callbacks getCallbacks() {
+        return this.callbacks;
+    }
+
+    /**
+     * Registers the action cancelling the work the remote side has asked for with a callback packet,
+     * which is run once the remote side doesn't await the response anymore. The action is forgotten once the packet is responded.
+     *
+     * @return false if the remote side has already cancelled the work, in which case the action is run right away
+     */
+    public boolean onCancel(int callbackID, Runnable cancel) {
+        return this.callbacksRegistry.onCancel(this, callbackID, cancel);
+    }
+
+    /**
+     * @return whether the remote side has cancelled the work before it was started
+     */
+    public boolean isCancelled(int callbackID) {
+        return this.callbacks.isCancelled(callbackID);
+    }
+
+    public void removeOnCancel(int callbackID) {
+        this.callbacks.removeOnCancel(callbackID);
+    }
+
+    void cancel(int callbackID) {
+        this.callbacksRegistry.cancel(this, callbackID);
+    }
+
     public boolean isHandshaked() {
         return handshaked;
     }
@@ -47,12 +100,54 @@ public class HighChannel extends Channel {
         return lastPacketSent;
     }
 
+    public StreamRegistry getStreams() {
+        return streams;
+    }
+
+    /**
+     * Sends the data of the given channel in chunks with flow control instead of a single packet.
+     *
+     * @see StreamRegistry#send(String, ReadableByteChannel)
+     */
+    public CompletionStage<Void> sendStream(String name, ReadableByteChannel source) {
+        return this.streams.send(name, source);
+    }
+
+    /**
+     * @return compression algorithms negotiated while handshaking, the first one is used by default
+     */
+    public Compression[] getCompressions() {
+        return compressions.clone();
+    }
+
+    void setCompressions(Compression[] compressions) {
+        this.compressions = compressions;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * @param compressionThreshold minimal length of the packet body which is compressed by default
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        Preconditions.checkArgument(compressionThreshold >= 0, "Compression threshold can't be negative");
+        this.compressionThreshold = compressionThreshold;
+    }
+
     @Override
     public boolean recv(Buffer buffer) {
         this.lastPacketReceived = System.currentTimeMillis();
         return super.recv(buffer);
     }
 
+    @Override
+    public void recv(Proto4jPacket packet) {
+        this.lastPacketReceived = System.currentTimeMillis();
+        super.recv(packet);
+    }
+
     @Override
     public void send(Proto4jPacket packet) {
         this.lastPacketSent = System.currentTimeMillis();
@@ -64,10 +159,227 @@ public class HighChannel extends Channel {
     }
 
     public void send(EnumeratedProto4jPacket packet, int flags) {
-        Buffer buffer = Buffer.newBuffer();
+        send(null, packet, flags);
+    }
+
+    public void send(Object key, EnumeratedProto4jPacket packet, int flags) {
+        send(key, packet, flags, packet.getPriority());
+    }
+
+    public void send(EnumeratedProto4jPacket packet, int flags, Proto4jPacket.Priority priority) {
+        send(null, packet, flags, priority);
+    }
+
+    public void send(Object key, EnumeratedProto4jPacket packet, int flags, Proto4jPacket.Priority priority) {
+        send(toProto4jPacket(key, packet, flags, priority, null, false));
+    }
+
+    /**
+     * @param compression one of the negotiated algorithms the packet is compressed with regardless of its length or null to send it uncompressed
+     */
+    public void send(EnumeratedProto4jPacket packet, int flags, Compression compression) {
+        send(null, packet, flags, packet.getPriority(), compression);
+    }
+
+    public void send(Object key, EnumeratedProto4jPacket packet, int flags, Proto4jPacket.Priority priority, Compression compression) {
+        Preconditions.checkArgument(compression == null || getCompression(compression.getID()) == compression, "Compression is not negotiated with the remote side");
+        send(toProto4jPacket(key, packet, flags, priority, compression, true));
+    }
+
+    /**
+     * Sends the reliable packet which the remote side keeps in order only with the packets of the same ordering key,
+     * handling the packets of different keys in parallel. The packet is compressed just like by {@link #send(EnumeratedProto4jPacket, int)}.
+     *
+     * @see Proto4jPacket#setOrderingKey(Object)
+     */
+    public void sendKeyed(Object orderingKey, EnumeratedProto4jPacket packet, int flags) {
+        sendKeyed(orderingKey, toProto4jPacket(null, packet, flags, packet.getPriority(), null, false));
+    }
+
+    /**
+     * @param compression one of the negotiated algorithms the packet is compressed with regardless of its length or null to send it uncompressed
+     * @see #sendKeyed(Object, EnumeratedProto4jPacket, int)
+     */
+    public void sendKeyed(Object orderingKey, EnumeratedProto4jPacket packet, int flags, Compression compression) {
+        Preconditions.checkArgument(compression == null || getCompression(compression.getID()) == compression, "Compression is not negotiated with the remote side");
+        sendKeyed(orderingKey, toProto4jPacket(null, packet, flags, packet.getPriority(), compression, true));
+    }
+
+    private void sendKeyed(Object orderingKey, Proto4jPacket packet) {
+        packet.setOrderingKey(orderingKey);
+        send(packet);
+    }
+
+    public CompletionStage<Void> send(EnumeratedProto4jPacket packet, int flags, long timeToLive, TimeUnit unit) {
+        Proto4jPacket         proto4jPacket = toProto4jPacket(null, packet, flags, packet.getPriority(), null, false);
+        CompletionStage<Void> delivery      = proto4jPacket.expireAfter(timeToLive, unit);
+        send(proto4jPacket);
+        return delivery;
+    }
+
+    /**
+     * Sends several packets as a single one, so that they share the sequence number, the signature and the confirmation.
+     * The packets are handled by the remote side in the given order.
+     *
+     * @param priority priority of the bundle or null to use the highest one of the packets
+     */
+    public void sendAll(Collection<? extends EnumeratedProto4jPacket> packets, int flags, Proto4jPacket.Priority priority) {
+        if (packets.isEmpty()) {
+            return;
+        }
+        if (packets.size() == 1) {
+            EnumeratedProto4jPacket packet = packets.iterator().next();
+            send(packet, flags, priority == null ? packet.getPriority() : priority);
+            return;
+        }
+        int                    capacity = 5;
+        Proto4jPacket.Priority highest  = null;
+        for (EnumeratedProto4jPacket packet : packets) {
+            capacity += 5 + estimate(packet, packet.estimateSize());
+            if (highest == null || packet.getPriority().compareTo(highest) < 0) {
+                highest = packet.getPriority();
+            }
+        }
+        Buffer bundle = Buffer.allocate(capacity);
+        bundle.writeVarInt(BUNDLE_PACKET_ID);
+        for (EnumeratedProto4jPacket packet : packets) {
+            Buffer buffer = write(packet);
+            bundle.writeVarInt(buffer.readableBytes());
+            bundle.write(buffer);
+        }
+        send(toProto4jPacket(null, bundle, flags, priority == null ? highest : priority, null, false));
+    }
+
+    public void sendAll(Collection<? extends EnumeratedProto4jPacket> packets, int flags) {
+        sendAll(packets, flags, null);
+    }
+
+    public void sendAll(Collection<? extends EnumeratedProto4jPacket> packets) {
+        sendAll(packets, 0, null);
+    }
+
+    /**
+     * Reads the packet decompressing it if needed.
+     */
+    public <P extends EnumeratedProto4jPacket> P readPacket(PacketManager packetManager, Buffer buffer) {
+        int id = buffer.readVarInt();
+        if (id == COMPRESSED_PACKET_ID) {
+            buffer = decompress(buffer);
+            id = buffer.readVarInt();
+        }
+        if (id == BUNDLE_PACKET_ID) {
+            throw new Proto4jException("Bundled packets must be read with readPackets");
+        }
+        return packetManager.readPacket(id, buffer);
+    }
+
+    /**
+     * Reads the packet decompressing it if needed, or each packet of the bundle in their order.
+     */
+    public void readPackets(PacketManager packetManager, Buffer buffer, Consumer<EnumeratedProto4jPacket> handler) {
+        int id = buffer.readVarInt();
+        if (id == COMPRESSED_PACKET_ID) {
+            buffer = decompress(buffer);
+            id = buffer.readVarInt();
+        }
+        if (id != BUNDLE_PACKET_ID) {
+            handler.accept(packetManager.readPacket(id, buffer));
+            return;
+        }
+        while (buffer.readableBytes() != 0) {
+            int length    = buffer.readVarInt();
+            int remaining = buffer.readableBytes() - length;
+            if (length <= 0 || remaining < 0) {
+                throw new Proto4jException("Malformed bundled packet");
+            }
+            EnumeratedProto4jPacket packet = packetManager.readPacket(buffer);
+            if (buffer.readableBytes() < remaining) {
+                throw new Proto4jException("Bundled packet " + packet.getClass().getSimpleName() + " is read beyond its length");
+            }
+            buffer.skip(buffer.readableBytes() - remaining);
+            handler.accept(packet);
+        }
+    }
+
+    private Buffer decompress(Buffer buffer) {
+        byte        compressionID = buffer.readByte();
+        Compression compression   = getCompression(compressionID);
+        if (compression == null) {
+            throw new Proto4jException("Packet is compressed with unknown algorithm " + compressionID);
+        }
+        int length = buffer.readVarInt();
+        // the length comes from the remote side and the array is allocated before the data is checked
+        if (length < 0 || length > MAX_DECOMPRESSED_SIZE) {
+            throw new Proto4jException("Malformed compressed packet of length " + length);
+        }
+        byte[] compressed = new byte[buffer.readableBytes()];
+        byte[] original   = new byte[length];
+        buffer.readBytes(compressed);
+        compression.decompress(compressed, 0, compressed.length, original);
+        return Buffer.wrap(original);
+    }
+
+    private Compression getCompression(byte id) {
+        for (Compression compression : this.compressions) {
+            if (compression.getID() == id) {
+                return compression;
+            }
+        }
+        return null;
+    }
+
+    private int estimate(EnumeratedProto4jPacket packet, int size) {
+        return size >= 0 ? SizeEstimates.HEADER_SIZE + size : this.sizes.get(packet.getClass());
+    }
+
+    private Buffer write(EnumeratedProto4jPacket packet) {
+        int    size   = packet.estimateSize();
+        Buffer buffer = Buffer.allocate(estimate(packet, size));
         buffer.writeVarInt(packet.getID());
         packet.write0(buffer);
-        send((byte) flags, buffer);
+        if (size < 0) {
+            this.sizes.update(packet.getClass(), buffer.readableBytes());
+        }
+        return buffer;
+    }
+
+    private Proto4jPacket toProto4jPacket(Object key, EnumeratedProto4jPacket packet, int flags, Proto4jPacket.Priority priority, Compression compression, boolean explicit) {
+        Proto4jPacket proto4jPacket = toProto4jPacket(key, write(packet), flags, priority, compression, explicit);
+        if (Proto4jPacket.Flag.isSequenced((byte) flags)) {
+            proto4jPacket.setSequenceKey(packet.getSequenceKey());
+        }
+        return proto4jPacket;
+    }
+
+    private Proto4jPacket toProto4jPacket(Object key, Buffer buffer, int flags, Proto4jPacket.Priority priority, Compression compression, boolean explicit) {
+        if (!explicit) {
+            Compression[] compressions = this.compressions;
+            if (compressions.length != 0 && buffer.readableBytes() >= this.compressionThreshold) {
+                compression = compressions[0];
+            }
+        }
+        if (compression != null) {
+            buffer = compress(buffer, compression);
+        }
+        Proto4jPacket proto4jPacket = new Proto4jPacket(key, (byte) flags, buffer);
+        proto4jPacket.setPriority(priority);
+        return proto4jPacket;
+    }
+
+    private Buffer compress(Buffer buffer, Compression compression) {
+        byte[] original = new byte[buffer.readableBytes()];
+        buffer.readBytes(original);
+        buffer.release();
+        byte[] compressed = compression.compress(original, 0, original.length);
+        if (compressed.length + 8 >= original.length) {
+            return Buffer.wrap(original);
+        }
+        Buffer result = Buffer.allocate(1 + 1 + 5 + compressed.length);
+        result.writeVarInt(COMPRESSED_PACKET_ID);
+        result.writeByte(compression.getID());
+        result.writeVarInt(original.length);
+        result.writeBytes(compressed);
+        return result;
     }
 
     public CompletionStage<CallbackProto4jPacket> sendWithCallback(CallbackProto4jPacket packet) {
@@ -76,7 +388,7 @@ public class HighChannel extends Channel {
 
     public CompletionStage<CallbackProto4jPacket> sendWithCallback(CallbackProto4jPacket packet, long time, TimeUnit timeUnit) {
         CompletableFuture<CallbackProto4jPacket> future = new CompletableFuture<>();
-        this.callbacksRegistry.awaiting(packet, future, timeUnit, time);
+        this.callbacksRegistry.awaiting(this, packet, future, timeUnit, time);
         send(packet);
         return future;
     }
@@ -2,6 +2,7 @@ package sexy.kostya.proto4j.transport.highlevel;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import sexy.kostya.proto4j.transport.compression.Compression;
 import sexy.kostya.proto4j.transport.highlevel.packet.CallbackProto4jPacket;
 import sexy.kostya.proto4j.transport.highlevel.packet.EnumeratedProto4jPacket;
 import sexy.kostya.proto4j.transport.highlevel.packet.PacketHandler;
@@ -9,23 +10,32 @@ import sexy.kostya.proto4j.transport.highlevel.packet.PacketManager;
 import sexy.kostya.proto4j.transport.highlevel.packet.def.DefaultPacketManager;
 import sexy.kostya.proto4j.transport.highlevel.packet.def.Packet1Ping;
 import sexy.kostya.proto4j.transport.highlevel.packet.def.Packet2Disconnect;
+import sexy.kostya.proto4j.transport.highlevel.packet.def.Packet4StreamOpen;
+import sexy.kostya.proto4j.transport.highlevel.packet.def.Packet5StreamChunk;
+import sexy.kostya.proto4j.transport.highlevel.packet.def.Packet6StreamAck;
+import sexy.kostya.proto4j.transport.highlevel.packet.def.Packet7Cancel;
 import sexy.kostya.proto4j.transport.lowlevel.Proto4jClient;
 import sexy.kostya.proto4j.transport.packet.Proto4jPacket;
 
+import java.nio.channels.WritableByteChannel;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 
 /**
  * Created by k.shandurenko on 01.10.2020
  */
 public abstract class Proto4jHighClient<C extends HighChannel> extends Proto4jClient<C> {
 
-    private       PacketManager     packetManager = new DefaultPacketManager();
-    private       PacketHandler<C>  packetHandler = new PacketHandler<>();
-    private final CallbacksRegistry callbacksRegistry;
+    private          PacketManager     packetManager = new DefaultPacketManager();
+    private          PacketHandler<C>  packetHandler = new PacketHandler<>();
+    private final    CallbacksRegistry callbacksRegistry;
+    private volatile Compression[]     compressions  = new Compression[0];
 
-    private CompletableFuture<Void> handshakingFuture;
+    private          CompletableFuture<Void>                    handshakingFuture;
+    private volatile BiFunction<C, String, WritableByteChannel> streamAcceptor;
 
     public Proto4jHighClient(Logger logger, int workerThreads, int handlerThreads) {
         this(logger, workerThreads, handlerThreads, new CallbacksRegistry());
@@ -34,53 +44,81 @@ public abstract class Proto4jHighClient<C extends HighChannel> extends Proto4jCl
     public Proto4jHighClient(Logger logger, int workerThreads, int handlerThreads, CallbacksRegistry callbacksRegistry) {
         super(logger, workerThreads, handlerThreads);
         this.callbacksRegistry = callbacksRegistry;
+        init();
+    }
+
+    /**
+     * Makes the client share the executors, e.g. with other clients connected to the same server.
+     */
+    public Proto4jHighClient(Logger logger, Executor workers, Executor handlers, CallbacksRegistry callbacksRegistry) {
+        super(logger, workers, handlers);
+        this.callbacksRegistry = callbacksRegistry;
+        init();
+    }
+
+    private void init() {
         super.setInitialPacketHandler((channel, packet) -> {
             CompletableFuture<Void> completed = new CompletableFuture<>();
-            if (Handshake.processOnClientside(channel, packet.getBuffer(), completed)) {
+            if (Handshake.processOnClientside(channel, packet.getBuffer(), completed, this.compressions)) {
                 channel.handshaked = true;
-                channel.setHandler(getHandlers(), p -> {
-                    EnumeratedProto4jPacket enumeratedPacket = this.packetManager.readPacket(p.getBuffer());
-                    getLogger().debug("Received {} from {}", enumeratedPacket.getClass().getSimpleName(), channel.getCodec().getAddress());
-                    switch (enumeratedPacket.getID()) {
-                        case Packet1Ping.ID:
-                            channel.send(new Packet1Ping());
-                            break;
-                        case Packet2Disconnect.ID: {
-                            Packet2Disconnect casted = (Packet2Disconnect) enumeratedPacket;
-                            if (handleCallbackPacket(casted)) {
-                                break;
-                            }
-                            if (casted.getReason() == null) {
-                                getLogger().info("Disconnected by server");
-                            } else {
-                                getLogger().info("Disconnected by server: {}", casted.getReason());
-                            }
-                            casted.respond(channel, casted, Proto4jPacket.Flag.UNRELIABLE);
-                            if (shutdownInternally(false)) {
-                                Runtime.getRuntime().removeShutdownHook(super.shutdownHook);
-                            }
-                            break;
-                        }
-                        default:
-                            if (enumeratedPacket instanceof CallbackProto4jPacket) {
-                                if (handleCallbackPacket((CallbackProto4jPacket) enumeratedPacket)) {
-                                    break;
-                                }
-                            }
-                            this.packetHandler.handle(channel, enumeratedPacket);
-                            break;
-                    }
-                });
+                channel.setHandler(getHandlers(), p -> channel.readPackets(this.packetManager, p.getBuffer(), enumeratedPacket -> handle(channel, enumeratedPacket)));
                 this.handshakingFuture.complete(null);
             }
             completed.complete(null);
         });
     }
 
-    private boolean handleCallbackPacket(CallbackProto4jPacket packet) {
+    private void handle(C channel, EnumeratedProto4jPacket enumeratedPacket) {
+        getLogger().debug("Received {} from {}", enumeratedPacket.getClass().getSimpleName(), channel.getCodec().getAddress());
+        switch (enumeratedPacket.getID()) {
+            case Packet1Ping.ID:
+                channel.send(new Packet1Ping());
+                this.packetManager.recycle(enumeratedPacket);
+                break;
+            case Packet2Disconnect.ID: {
+                Packet2Disconnect casted = (Packet2Disconnect) enumeratedPacket;
+                if (handleCallbackPacket(channel, casted)) {
+                    break;
+                }
+                if (casted.getReason() == null) {
+                    getLogger().info("Disconnected by server");
+                } else {
+                    getLogger().info("Disconnected by server: {}", casted.getReason());
+                }
+                casted.respond(channel, casted, Proto4jPacket.Flag.UNRELIABLE);
+                if (shutdownInternally(false)) {
+                    Runtime.getRuntime().removeShutdownHook(super.shutdownHook);
+                }
+                break;
+            }
+            case Packet4StreamOpen.ID:
+                channel.getStreams().handle((Packet4StreamOpen) enumeratedPacket, name -> this.streamAcceptor == null ? null : this.streamAcceptor.apply(channel, name));
+                break;
+            case Packet5StreamChunk.ID:
+                channel.getStreams().handle((Packet5StreamChunk) enumeratedPacket);
+                break;
+            case Packet6StreamAck.ID:
+                channel.getStreams().handle((Packet6StreamAck) enumeratedPacket);
+                break;
+            case Packet7Cancel.ID:
+                channel.cancel(((Packet7Cancel) enumeratedPacket).getCallbackID());
+                break;
+            default:
+                if (enumeratedPacket instanceof CallbackProto4jPacket) {
+                    if (handleCallbackPacket(channel, (CallbackProto4jPacket) enumeratedPacket)) {
+                        break;
+                    }
+                }
+                this.packetHandler.handle(channel, enumeratedPacket);
+                this.packetManager.recycle(enumeratedPacket);
+                break;
+        }
+    }
+
+    private boolean handleCallbackPacket(C channel, CallbackProto4jPacket packet) {
         if (packet.getCallbackID() < 0) {
-            packet.setCallbackID((short) -packet.getCallbackID());
-            this.callbacksRegistry.responded(packet);
+            packet.setCallbackID(-packet.getCallbackID());
+            this.callbacksRegistry.responded(channel, packet);
             return true;
         }
         return false;
@@ -91,7 +129,7 @@ public abstract class Proto4jHighClient<C extends HighChannel> extends Proto4jCl
         this.handshakingFuture = new CompletableFuture<>();
         super.start(address, port).whenComplete((res, ex) -> {
             if (ex == null) {
-                Handshake.initOnClientside(getChannel());
+                Handshake.initOnClientside(getChannel(), this.compressions);
             } else if (this.handshakingFuture != null) {
                 this.handshakingFuture.completeExceptionally(ex);
             }
@@ -123,6 +161,24 @@ public abstract class Proto4jHighClient<C extends HighChannel> extends Proto4jCl
         return callbacksRegistry;
     }
 
+    /**
+     * @param streamAcceptor returns the channel the incoming stream with the given name is written to or null to reject it
+     */
+    public void setStreamAcceptor(BiFunction<C, String, WritableByteChannel> streamAcceptor) {
+        this.streamAcceptor = streamAcceptor;
+    }
+
+    public Compression[] getCompressions() {
+        return compressions.clone();
+    }
+
+    /**
+     * @param compressions algorithms offered while handshaking in the order of preference
+     */
+    public void setCompressions(Compression... compressions) {
+        this.compressions = Compression.copyOf(compressions);
+    }
+
     @Override
     protected boolean shutdownInternally() {
         return shutdownInternally(true);
@@ -143,6 +199,7 @@ public abstract class Proto4jHighClient<C extends HighChannel> extends Proto4jCl
             return false;
         }
         channel.active = false;
+        channel.getStreams().close("Channel is disconnected");
         if (this.handshakingFuture != null) {
             if (!this.handshakingFuture.isDone()) {
                 this.handshakingFuture.completeExceptionally(new Exception("Disconnected"));
@@ -3,6 +3,7 @@ package sexy.kostya.proto4j.transport.highlevel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sexy.kostya.proto4j.commons.Proto4jProperties;
+import sexy.kostya.proto4j.transport.compression.Compression;
 import sexy.kostya.proto4j.transport.highlevel.packet.CallbackProto4jPacket;
 import sexy.kostya.proto4j.transport.highlevel.packet.EnumeratedProto4jPacket;
 import sexy.kostya.proto4j.transport.highlevel.packet.PacketHandler;
@@ -10,15 +11,21 @@ import sexy.kostya.proto4j.transport.highlevel.packet.PacketManager;
 import sexy.kostya.proto4j.transport.highlevel.packet.def.DefaultPacketManager;
 import sexy.kostya.proto4j.transport.highlevel.packet.def.Packet1Ping;
 import sexy.kostya.proto4j.transport.highlevel.packet.def.Packet2Disconnect;
+import sexy.kostya.proto4j.transport.highlevel.packet.def.Packet4StreamOpen;
+import sexy.kostya.proto4j.transport.highlevel.packet.def.Packet5StreamChunk;
+import sexy.kostya.proto4j.transport.highlevel.packet.def.Packet6StreamAck;
+import sexy.kostya.proto4j.transport.highlevel.packet.def.Packet7Cancel;
 import sexy.kostya.proto4j.transport.lowlevel.Proto4jServer;
 import sexy.kostya.proto4j.transport.packet.Proto4jPacket;
 
 import java.net.InetSocketAddress;
+import java.nio.channels.WritableByteChannel;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
 
 /**
@@ -26,42 +33,21 @@ import java.util.function.Consumer;
  */
 public abstract class Proto4jHighServer<C extends HighChannel> extends Proto4jServer<C> {
 
-    private       PacketManager     packetManager     = new DefaultPacketManager();
-    private       PacketHandler<C>  packetHandler     = new PacketHandler<>();
-    private final CallbacksRegistry callbacksRegistry = new CallbacksRegistry();
+    private          PacketManager     packetManager     = new DefaultPacketManager();
+    private          PacketHandler<C>  packetHandler     = new PacketHandler<>();
+    private final    CallbacksRegistry callbacksRegistry = new CallbacksRegistry();
+    private volatile Compression[]     compressions      = new Compression[0];
 
-    private Consumer<C> onDisconnect;
+    private          Consumer<C>                                onDisconnect;
+    private volatile BiFunction<C, String, WritableByteChannel> streamAcceptor;
 
     public Proto4jHighServer(Logger logger, int workerThreads, int handlerThreads) {
         super(logger, workerThreads, handlerThreads);
         super.setInitialPacketHandler((channel, packet) -> {
             CompletableFuture<Void> completed = new CompletableFuture<>();
-            if (Handshake.processOnServerside(channel, packet.getBuffer(), completed)) {
+            if (Handshake.processOnServerside(channel, packet.getBuffer(), completed, this.compressions)) {
                 channel.handshaked = true;
-                channel.setHandler(getHandlers(), p -> {
-                    EnumeratedProto4jPacket enumeratedPacket = this.packetManager.readPacket(p.getBuffer());
-                    getLogger().trace("Received {} from {}", enumeratedPacket.getClass().getSimpleName(), channel.getCodec().getAddress());
-                    switch (enumeratedPacket.getID()) {
-                        case Packet1Ping.ID:
-                            // nothing is here
-                            break;
-                        case Packet2Disconnect.ID:
-                            Packet2Disconnect casted = (Packet2Disconnect) enumeratedPacket;
-                            if (handleCallbackPacket(casted)) {
-                                break;
-                            }
-                            disconnect(channel, casted, null, null);
-                            break;
-                        default:
-                            if (enumeratedPacket instanceof CallbackProto4jPacket) {
-                                if (handleCallbackPacket((CallbackProto4jPacket) enumeratedPacket)) {
-                                    break;
-                                }
-                            }
-                            this.packetHandler.handle(channel, enumeratedPacket);
-                            break;
-                    }
-                });
+                channel.setHandler(getHandlers(), p -> channel.readPackets(this.packetManager, p.getBuffer(), enumeratedPacket -> handle(channel, enumeratedPacket)));
             }
             completed.complete(null);
         });
@@ -99,10 +85,47 @@ public abstract class Proto4jHighServer<C extends HighChannel> extends Proto4jSe
         this(LoggerFactory.getLogger("Proto4j HighServer"), workerThreads, handlerThreads);
     }
 
-    private boolean handleCallbackPacket(CallbackProto4jPacket packet) {
+    private void handle(C channel, EnumeratedProto4jPacket enumeratedPacket) {
+        getLogger().trace("Received {} from {}", enumeratedPacket.getClass().getSimpleName(), channel.getCodec().getAddress());
+        switch (enumeratedPacket.getID()) {
+            case Packet1Ping.ID:
+                this.packetManager.recycle(enumeratedPacket);
+                break;
+            case Packet2Disconnect.ID:
+                Packet2Disconnect casted = (Packet2Disconnect) enumeratedPacket;
+                if (handleCallbackPacket(channel, casted)) {
+                    break;
+                }
+                disconnect(channel, casted, null, null);
+                break;
+            case Packet4StreamOpen.ID:
+                channel.getStreams().handle((Packet4StreamOpen) enumeratedPacket, name -> this.streamAcceptor == null ? null : this.streamAcceptor.apply(channel, name));
+                break;
+            case Packet5StreamChunk.ID:
+                channel.getStreams().handle((Packet5StreamChunk) enumeratedPacket);
+                break;
+            case Packet6StreamAck.ID:
+                channel.getStreams().handle((Packet6StreamAck) enumeratedPacket);
+                break;
+            case Packet7Cancel.ID:
+                channel.cancel(((Packet7Cancel) enumeratedPacket).getCallbackID());
+                break;
+            default:
+                if (enumeratedPacket instanceof CallbackProto4jPacket) {
+                    if (handleCallbackPacket(channel, (CallbackProto4jPacket) enumeratedPacket)) {
+                        break;
+                    }
+                }
+                this.packetHandler.handle(channel, enumeratedPacket);
+                this.packetManager.recycle(enumeratedPacket);
+                break;
+        }
+    }
+
+    private boolean handleCallbackPacket(C channel, CallbackProto4jPacket packet) {
         if (packet.getCallbackID() < 0) {
-            packet.setCallbackID((short) -packet.getCallbackID());
-            this.callbacksRegistry.responded(packet);
+            packet.setCallbackID(-packet.getCallbackID());
+            this.callbacksRegistry.responded(channel, packet);
             return true;
         }
         return false;
@@ -150,6 +173,24 @@ public abstract class Proto4jHighServer<C extends HighChannel> extends Proto4jSe
         return callbacksRegistry;
     }
 
+    /**
+     * @param streamAcceptor returns the channel the incoming stream with the given name is written to or null to reject it
+     */
+    public void setStreamAcceptor(BiFunction<C, String, WritableByteChannel> streamAcceptor) {
+        this.streamAcceptor = streamAcceptor;
+    }
+
+    public Compression[] getCompressions() {
+        return compressions.clone();
+    }
+
+    /**
+     * @param compressions algorithms supported while handshaking: the ones also offered by the client are accepted in the client's order
+     */
+    public void setCompressions(Compression... compressions) {
+        this.compressions = Compression.copyOf(compressions);
+    }
+
     @Override
     protected boolean shutdownInternally() {
         CompletionStage<Void> disconnection = null;
@@ -190,6 +231,7 @@ public abstract class Proto4jHighServer<C extends HighChannel> extends Proto4jSe
             callback.respond(channel, callback, Proto4jPacket.Flag.UNRELIABLE);
         }
         channel.active = false;
+        channel.getStreams().close("Channel is disconnected");
         if (toBeRemoved != null) {
             toBeRemoved.add(channel.getCodec().getAddress());
         } else {
@@ -0,0 +1,44 @@
+package sexy.kostya.proto4j.transport.highlevel;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Running estimates of the serialized sizes of the packets which don't report them, one per packet class. An estimate grows to
+ * the largest size seen at once and decays slowly otherwise, so that a buffer allocated by it rarely has to be grown.
+ */
+class SizeEstimates {
+
+    // upper bound of the packet ID and the callback ID written before the body
+    final static int HEADER_SIZE = 10;
+
+    private final static int INITIAL_SIZE = 64;
+    private final static int DECAY_SHIFT  = 3;
+
+    private final ConcurrentMap<Class<?>, Estimate> estimates = new ConcurrentHashMap<>();
+
+    /**
+     * @return capacity of the buffer the packet of given class is written to
+     */
+    int get(Class<?> type) {
+        Estimate estimate = this.estimates.get(type);
+        return estimate == null ? INITIAL_SIZE : estimate.size;
+    }
+
+    void update(Class<?> type, int size) {
+        Estimate estimate = this.estimates.get(type);
+        if (estimate == null) {
+            estimate = this.estimates.computeIfAbsent(type, t -> new Estimate());
+        }
+        // concurrent updates may lose each other, which only makes the estimate a bit less precise
+        int current = estimate.size;
+        estimate.size = size >= current ? size : current - ((current - size) >> DECAY_SHIFT);
+    }
+
+    private static class Estimate {
+
+        private volatile int size;
+
+    }
+
+}
@@ -0,0 +1,218 @@
+package sexy.kostya.proto4j.transport.highlevel;
+
+import sexy.kostya.proto4j.commons.Proto4jException;
+import sexy.kostya.proto4j.commons.Proto4jProperties;
+import sexy.kostya.proto4j.transport.highlevel.packet.def.Packet4StreamOpen;
+import sexy.kostya.proto4j.transport.highlevel.packet.def.Packet5StreamChunk;
+import sexy.kostya.proto4j.transport.highlevel.packet.def.Packet6StreamAck;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Streams of a single channel: data is sent in chunks not larger than {@link #CHUNK_SIZE} and the sender
+ * never has more than {@link #WINDOW} chunks which are not yet written by the receiver.
+ */
+public class StreamRegistry {
+
+    public final static int CHUNK_SIZE = Proto4jProperties.getProperty("streamChunkSize", 16 * 1024);
+    public final static int WINDOW     = Proto4jProperties.getProperty("streamWindow", 16);
+
+    private final static long MAPPING_SIZE = 64L * 1024 * 1024;
+
+    private final HighChannel                  channel;
+    private final AtomicInteger                ids      = new AtomicInteger();
+    private final Map<Integer, OutgoingStream> outgoing = new ConcurrentHashMap<>();
+    private final Map<Integer, IncomingStream> incoming = new ConcurrentHashMap<>();
+
+    StreamRegistry(HighChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * @param source blocking channel which is read on handler threads and closed once the stream is over;
+     *               {@link FileChannel} is memory-mapped instead of being read
+     * @return stage which is completed once the receiver has written and closed all the data
+     */
+    public CompletionStage<Void> send(String name, ReadableByteChannel source) {
+        int            id     = this.ids.incrementAndGet();
+        OutgoingStream stream = new OutgoingStream(id, source);
+        this.outgoing.put(id, stream);
+        this.channel.send(new Packet4StreamOpen(id, name));
+        return stream.future;
+    }
+
+    void handle(Packet4StreamOpen packet, Function<String, WritableByteChannel> acceptor) {
+        WritableByteChannel target;
+        try {
+            target = acceptor == null ? null : acceptor.apply(packet.getName());
+        } catch (Throwable t) {
+            this.channel.send(Packet6StreamAck.aborted(packet.getStreamID(), "Could not accept stream: " + t.getMessage()));
+            return;
+        }
+        if (target == null) {
+            this.channel.send(Packet6StreamAck.aborted(packet.getStreamID(), "Stream is rejected"));
+            return;
+        }
+        this.incoming.put(packet.getStreamID(), new IncomingStream(target));
+        this.channel.send(Packet6StreamAck.credits(packet.getStreamID(), WINDOW));
+    }
+
+    void handle(Packet5StreamChunk packet) {
+        IncomingStream stream = this.incoming.get(packet.getStreamID());
+        if (stream == null) {
+            return;
+        }
+        try {
+            if (packet.isAborted()) {
+                this.incoming.remove(packet.getStreamID());
+                stream.target.close();
+            } else if (packet.isLast()) {
+                this.incoming.remove(packet.getStreamID());
+                stream.target.close();
+                this.channel.send(Packet6StreamAck.completed(packet.getStreamID()));
+            } else {
+                ByteBuffer data = packet.getData();
+                while (data.hasRemaining()) {
+                    stream.target.write(data);
+                }
+                if (++stream.written >= (WINDOW + 1) / 2) {
+                    this.channel.send(Packet6StreamAck.credits(packet.getStreamID(), stream.written));
+                    stream.written = 0;
+                }
+            }
+        } catch (IOException ex) {
+            this.incoming.remove(packet.getStreamID());
+            closeQuietly(stream.target);
+            this.channel.send(Packet6StreamAck.aborted(packet.getStreamID(), "Could not write stream: " + ex.getMessage()));
+        }
+    }
+
+    void handle(Packet6StreamAck packet) {
+        OutgoingStream stream = this.outgoing.get(packet.getStreamID());
+        if (stream == null) {
+            return;
+        }
+        if (packet.isCompleted()) {
+            this.outgoing.remove(packet.getStreamID());
+            closeQuietly(stream.source);
+            if (packet.getError() == null) {
+                stream.future.complete(null);
+            } else {
+                stream.future.completeExceptionally(new Proto4jException("Stream is aborted by the receiver: " + packet.getError()));
+            }
+            return;
+        }
+        synchronized (stream) {
+            stream.credits += packet.getCredits();
+            try {
+                while (stream.credits > 0 && !stream.finished) {
+                    ByteBuffer data = stream.read();
+                    if (data == null) {
+                        stream.finished = true;
+                        this.channel.send(Packet5StreamChunk.last(stream.id));
+                    } else {
+                        stream.credits--;
+                        this.channel.send(Packet5StreamChunk.data(stream.id, data));
+                    }
+                }
+            } catch (IOException ex) {
+                this.outgoing.remove(stream.id);
+                closeQuietly(stream.source);
+                this.channel.send(Packet5StreamChunk.aborted(stream.id, ex.getMessage()));
+                stream.future.completeExceptionally(ex);
+            }
+        }
+    }
+
+    /**
+     * Aborts all the streams of the channel, e.g. when it's disconnected.
+     */
+    void close(String reason) {
+        this.outgoing.values().forEach(stream -> {
+            closeQuietly(stream.source);
+            stream.future.completeExceptionally(new Proto4jException(reason));
+        });
+        this.outgoing.clear();
+        this.incoming.values().forEach(stream -> closeQuietly(stream.target));
+        this.incoming.clear();
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static class OutgoingStream {
+
+        private final int                     id;
+        private final ReadableByteChannel     source;
+        private final CompletableFuture<Void> future   = new CompletableFuture<>();
+        private       int                     credits;
+        private       boolean                 finished;
+        private       long                    position = -1;
+        private       long                    size;
+        private       MappedByteBuffer        mapped;
+
+        OutgoingStream(int id, ReadableByteChannel source) {
+            this.id = id;
+            this.source = source;
+        }
+
+        ByteBuffer read() throws IOException {
+            if (this.source instanceof FileChannel) {
+                FileChannel file = (FileChannel) this.source;
+                if (this.position == -1) {
+                    this.position = file.position();
+                    this.size = file.size();
+                }
+                if (this.mapped == null || !this.mapped.hasRemaining()) {
+                    if (this.position >= this.size) {
+                        return null;
+                    }
+                    long length = Math.min(MAPPING_SIZE, this.size - this.position);
+                    this.mapped = file.map(FileChannel.MapMode.READ_ONLY, this.position, length);
+                    this.position += length;
+                }
+                ByteBuffer chunk = this.mapped.slice();
+                chunk.limit(Math.min(CHUNK_SIZE, chunk.remaining()));
+                this.mapped.position(this.mapped.position() + chunk.remaining());
+                return chunk;
+            }
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+            while (chunk.hasRemaining()) {
+                if (this.source.read(chunk) < 0) {
+                    break;
+                }
+            }
+            chunk.flip();
+            return chunk.hasRemaining() ? chunk : null;
+        }
+
+    }
+
+    private static class IncomingStream {
+
+        private final WritableByteChannel target;
+        private       int                 written;
+
+        IncomingStream(WritableByteChannel target) {
+            this.target = target;
+        }
+
+    }
+
+}
@@ -8,25 +8,27 @@ import sexy.kostya.proto4j.transport.highlevel.HighChannel;
  */
 public abstract class CallbackProto4jPacket extends EnumeratedProto4jPacket {
 
-    private short callbackID;
+    private int callbackID;
 
-    public short getCallbackID() {
+    public int getCallbackID() {
         return this.callbackID;
     }
 
-    public void setCallbackID(short callbackID) {
+    public void setCallbackID(int callbackID) {
         this.callbackID = callbackID;
     }
 
     @Override
     public void write0(Buffer buffer) {
-        buffer.writeShort(this.callbackID);
+        // zigzag keeps the responses, which negate the identifier, as short as the requests
+        buffer.writeVarInt((this.callbackID << 1) ^ (this.callbackID >> 31));
         super.write0(buffer);
     }
 
     @Override
     public void read0(Buffer buffer) {
-        this.callbackID = buffer.readShort();
+        int encoded = buffer.readVarInt();
+        this.callbackID = (encoded >>> 1) ^ -(encoded & 1);
         super.read0(buffer);
     }
 
@@ -35,7 +37,8 @@ public abstract class CallbackProto4jPacket extends EnumeratedProto4jPacket {
     }
 
     public void respond(HighChannel channel, CallbackProto4jPacket packet, int flags) {
-        packet.setCallbackID((short) -this.callbackID);
+        channel.removeOnCancel(this.callbackID);
+        packet.setCallbackID(-this.callbackID);
         channel.send(packet, flags);
     }
 
@@ -1,6 +1,7 @@
 package sexy.kostya.proto4j.transport.highlevel.packet;
 
 import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.packet.Proto4jPacket;
 
 /**
  * Created by k.shandurenko on 01.10.2020
@@ -13,6 +14,38 @@ public abstract class EnumeratedProto4jPacket {
 
     public abstract void read(Buffer buffer);
 
+    /**
+     * @return priority the packet is sent with unless specified explicitly
+     */
+    public Proto4jPacket.Priority getPriority() {
+        return Proto4jPacket.Priority.NORMAL;
+    }
+
+    /**
+     * @return exact or estimated length of what {@link #write(Buffer)} writes or -1 if it's unknown, in which case
+     * the channel estimates it by the previously sent packets of the same class, so that the buffer is allocated once
+     */
+    public int estimateSize() {
+        return -1;
+    }
+
+    /**
+     * @return key of the latest-wins stream the packet belongs to when it's sent with {@link Proto4jPacket.Flag#SEQUENCED} flag
+     * @see Proto4jPacket#setSequenceKey(long)
+     */
+    public long getSequenceKey() {
+        return 0;
+    }
+
+    /**
+     * Clears the state of a pooled packet before it's reused, the fields which {@link #read(Buffer)} always assigns may be left as is.
+     *
+     * @see PacketManager#registerPooled(int, java.util.function.Supplier)
+     */
+    public void reset() {
+
+    }
+
     public void write0(Buffer buffer) {
         write(buffer);
     }
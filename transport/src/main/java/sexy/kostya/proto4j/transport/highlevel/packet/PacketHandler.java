@@ -1,12 +1,11 @@
 package sexy.kostya.proto4j.transport.highlevel.packet;
 
+import com.google.common.base.Preconditions;
 import sexy.kostya.proto4j.commons.Proto4jException;
 import sexy.kostya.proto4j.transport.highlevel.HighChannel;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
 import java.util.function.BiConsumer;
 
 /**
@@ -14,29 +13,84 @@ import java.util.function.BiConsumer;
  */
 public class PacketHandler<C extends HighChannel> {
 
-    private final Map<Class<? extends EnumeratedProto4jPacket>, List<BiConsumer<C, ? extends EnumeratedProto4jPacket>>> handlers = new HashMap<>();
+    // handlers are looked up by the identifier of the packet, the class of which is checked afterwards;
+    // the table is never modified once published, registration publishes a modified copy instead
+    private volatile PacketTable<Handlers> handlers = new PacketTable<>();
 
-    public <P extends EnumeratedProto4jPacket> void register(Class<P> packetClass, BiConsumer<C, P> handler) {
-        this.handlers.computeIfAbsent(packetClass, pc -> new ArrayList<>()).add(handler);
+    public synchronized <P extends EnumeratedProto4jPacket> void register(Class<P> packetClass, BiConsumer<C, P> handler) {
+        int      id       = getID(packetClass);
+        Handlers previous = this.handlers.get(id);
+        if (previous != null) {
+            Preconditions.checkArgument(previous.type == packetClass, "%s has the same identifier as %s", packetClass.getSimpleName(), previous.type.getSimpleName());
+        }
+        PacketTable<Handlers> handlers = this.handlers.copy();
+        handlers.put(id, previous == null ? new Handlers(packetClass, handler) : previous.with(handler));
+        this.handlers = handlers;
     }
 
-    public <P extends EnumeratedProto4jPacket> void unregisterAll(Class<P> packetClass) {
-        this.handlers.remove(packetClass);
+    public synchronized <P extends EnumeratedProto4jPacket> void unregisterAll(Class<P> packetClass) {
+        int      id       = getID(packetClass);
+        Handlers previous = this.handlers.get(id);
+        if (previous != null && previous.type == packetClass) {
+            PacketTable<Handlers> handlers = this.handlers.copy();
+            handlers.remove(id);
+            this.handlers = handlers;
+        }
     }
 
+    @SuppressWarnings("unchecked")
     public <P extends EnumeratedProto4jPacket> void handle(C channel, P packet) {
-        List<BiConsumer<C, ? extends EnumeratedProto4jPacket>> handlers = this.handlers.get(packet.getClass());
-        if (handlers == null) {
+        Handlers handlers = this.handlers.get(packet.getID());
+        if (handlers == null || handlers.type != packet.getClass()) {
             return;
         }
-        handlers.forEach(handler -> {
-            try {
-                //noinspection unchecked
+        try {
+            if (handlers.single != null) {
+                ((BiConsumer<C, P>) handlers.single).accept(channel, packet);
+                return;
+            }
+            for (BiConsumer<C, ? extends EnumeratedProto4jPacket> handler : handlers.handlers) {
                 ((BiConsumer<C, P>) handler).accept(channel, packet);
-            } catch (Throwable t) {
-                throw new Proto4jException("Could not handle packet " + packet.getClass().getSimpleName(), t);
             }
-        });
+        } catch (Throwable t) {
+            throw new Proto4jException("Could not handle packet " + packet.getClass().getSimpleName(), t);
+        }
+    }
+
+    private static int getID(Class<? extends EnumeratedProto4jPacket> packetClass) {
+        try {
+            Constructor<? extends EnumeratedProto4jPacket> constructor = packetClass.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance().getID();
+        } catch (ReflectiveOperationException ex) {
+            throw new Proto4jException("Could not instantiate " + packetClass.getSimpleName() + " to get its identifier", ex);
+        }
+    }
+
+    private class Handlers {
+
+        private final Class<?>                                             type;
+        private final BiConsumer<C, ? extends EnumeratedProto4jPacket>[] handlers;
+        // the only handler of the packet, which is called directly
+        private final BiConsumer<C, ? extends EnumeratedProto4jPacket>   single;
+
+        @SuppressWarnings("unchecked")
+        private Handlers(Class<?> type, BiConsumer<C, ? extends EnumeratedProto4jPacket> handler) {
+            this(type, new BiConsumer[]{handler});
+        }
+
+        private Handlers(Class<?> type, BiConsumer<C, ? extends EnumeratedProto4jPacket>[] handlers) {
+            this.type = type;
+            this.handlers = handlers;
+            this.single = handlers.length == 1 ? handlers[0] : null;
+        }
+
+        private Handlers with(BiConsumer<C, ? extends EnumeratedProto4jPacket> handler) {
+            BiConsumer<C, ? extends EnumeratedProto4jPacket>[] handlers = Arrays.copyOf(this.handlers, this.handlers.length + 1);
+            handlers[handlers.length - 1] = handler;
+            return new Handlers(this.type, handlers);
+        }
+
     }
 
 }
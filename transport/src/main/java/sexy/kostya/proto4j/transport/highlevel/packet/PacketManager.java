@@ -1,9 +1,12 @@
 package sexy.kostya.proto4j.transport.highlevel.packet;
 
+import com.google.common.base.Preconditions;
+import sexy.kostya.proto4j.commons.Proto4jException;
 import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.highlevel.packet.codec.AutoPacket;
+import sexy.kostya.proto4j.transport.highlevel.packet.codec.AutoPacketCodec;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ServiceLoader;
 import java.util.function.Supplier;
 
 /**
@@ -11,23 +14,106 @@ import java.util.function.Supplier;
  */
 public class PacketManager {
 
-    private final Map<Integer, Supplier<? extends EnumeratedProto4jPacket>> generators = new HashMap<>();
+    private final PacketTable<Supplier<? extends EnumeratedProto4jPacket>> generators = new PacketTable<>();
+    private final PacketTable<Pool>                                         pools      = new PacketTable<>();
 
     @SuppressWarnings("unchecked")
     public <P extends EnumeratedProto4jPacket> P generate(int id) {
-        return (P) this.generators.get(id).get();
+        Supplier<? extends EnumeratedProto4jPacket> generator = this.generators.get(id);
+        if (generator == null) {
+            throw new Proto4jException("Unknown packet " + id);
+        }
+        return (P) generator.get();
     }
 
     public void register(Supplier<? extends EnumeratedProto4jPacket>... generators) {
         for (Supplier<? extends EnumeratedProto4jPacket> generator : generators) {
-            this.generators.put(generator.get().getID(), generator);
+            int id = generator.get().getID();
+            this.generators.put(id, generator);
+            this.pools.remove(id);
+        }
+    }
+
+    /**
+     * Registers the packets of the given package and its subpackages, the codecs of which are generated from {@link AutoPacket}.
+     */
+    @SuppressWarnings("rawtypes")
+    public void registerGenerated(String packageName) {
+        String prefix = packageName + '.';
+        for (AutoPacketCodec codec : ServiceLoader.load(AutoPacketCodec.class)) {
+            if (codec.getClass().getName().startsWith(prefix)) {
+                this.generators.put(codec.getID(), codec::create);
+                this.pools.remove(codec.getID());
+            }
         }
     }
 
+    /**
+     * Registers the packet which instances are reused: once handled by {@link PacketHandler}, the packet is reset
+     * and given back to the pool. Handlers of such packets must neither keep them nor use them asynchronously.
+     *
+     * @param capacity maximum amount of the idle packets kept
+     */
+    public <P extends EnumeratedProto4jPacket> void registerPooled(int capacity, Supplier<P> generator) {
+        Preconditions.checkArgument(capacity > 0, "Capacity must be positive");
+        EnumeratedProto4jPacket packet = generator.get();
+        this.generators.put(packet.getID(), generator);
+        this.pools.put(packet.getID(), new Pool(packet.getClass(), generator, capacity));
+    }
+
     public <P extends EnumeratedProto4jPacket> P readPacket(Buffer buffer) {
-        P packet = generate(buffer.readVarInt());
+        return readPacket(buffer.readVarInt(), buffer);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <P extends EnumeratedProto4jPacket> P readPacket(int id, Buffer buffer) {
+        Pool pool   = this.pools.get(id);
+        P    packet = pool == null ? generate(id) : (P) pool.take();
         packet.read0(buffer);
         return packet;
     }
 
+    /**
+     * Gives the handled packet back to its pool, does nothing unless the packet is registered as a pooled one.
+     */
+    public void recycle(EnumeratedProto4jPacket packet) {
+        Pool pool = this.pools.get(packet.getID());
+        if (pool != null && pool.type == packet.getClass()) {
+            packet.reset();
+            pool.give(packet);
+        }
+    }
+
+    private static class Pool {
+
+        private final Class<?>                                    type;
+        private final Supplier<? extends EnumeratedProto4jPacket> generator;
+        private final EnumeratedProto4jPacket[]                   packets;
+        private       int                                         size;
+
+        private Pool(Class<?> type, Supplier<? extends EnumeratedProto4jPacket> generator, int capacity) {
+            this.type = type;
+            this.generator = generator;
+            this.packets = new EnumeratedProto4jPacket[capacity];
+        }
+
+        private EnumeratedProto4jPacket take() {
+            synchronized (this) {
+                if (this.size != 0) {
+                    EnumeratedProto4jPacket packet = this.packets[--this.size];
+                    this.packets[this.size] = null;
+                    return packet;
+                }
+            }
+            return this.generator.get();
+        }
+
+        private synchronized void give(EnumeratedProto4jPacket packet) {
+            if (this.size != this.packets.length) {
+                this.packets[this.size++] = packet;
+            }
+        }
+
+    }
+
 }
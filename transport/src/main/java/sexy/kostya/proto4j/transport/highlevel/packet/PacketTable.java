@@ -0,0 +1,55 @@
+package sexy.kostya.proto4j.transport.highlevel.packet;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Array of values indexed by packet identifiers, which are expected to be dense: the array spans from the lowest registered
+ * identifier to the highest one, so that a lookup neither boxes nor hashes the identifier.
+ */
+class PacketTable<T> {
+
+    private final static int MAX_RANGE = 1 << 16;
+
+    private Object[] values = new Object[0];
+    private int      min;
+
+    @SuppressWarnings("unchecked")
+    T get(int id) {
+        int index = id - this.min;
+        return index >= 0 && index < this.values.length ? (T) this.values[index] : null;
+    }
+
+    void put(int id, T value) {
+        if (this.values.length == 0) {
+            this.values = new Object[1];
+            this.min = id;
+        } else if (id < this.min || id - this.min >= this.values.length) {
+            int min = Math.min(id, this.min);
+            int max = Math.max(id, this.min + this.values.length - 1);
+            Preconditions.checkArgument((long) max - min < MAX_RANGE, "Packet identifiers must be within a range of %s", MAX_RANGE);
+            Object[] values = new Object[max - min + 1];
+            System.arraycopy(this.values, 0, values, this.min - min, this.values.length);
+            this.values = values;
+            this.min = min;
+        }
+        this.values[id - this.min] = value;
+    }
+
+    /**
+     * @return table with the same values, which may be modified and published in place of this one
+     */
+    PacketTable<T> copy() {
+        PacketTable<T> copy = new PacketTable<>();
+        copy.values = this.values.clone();
+        copy.min = this.min;
+        return copy;
+    }
+
+    void remove(int id) {
+        int index = id - this.min;
+        if (index >= 0 && index < this.values.length) {
+            this.values[index] = null;
+        }
+    }
+
+}
@@ -0,0 +1,23 @@
+package sexy.kostya.proto4j.transport.highlevel.packet.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the packet which codec is generated at compile time by the annotation processor of the processor module.
+ * Non-static and non-transient fields of the packet are written in the order of declaration, they must be neither private nor final.
+ * The generated class is named after the packet with the {@code Codec} suffix: the packet delegates its {@code write(Buffer)}
+ * and {@code read(Buffer)} to it and may register with {@link sexy.kostya.proto4j.transport.highlevel.packet.PacketManager#registerGenerated(String)}.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface AutoPacket {
+
+    /**
+     * @return identifier of the packet, which the generated codec exposes as the {@code ID} constant
+     */
+    int id();
+
+}
@@ -0,0 +1,14 @@
+package sexy.kostya.proto4j.transport.highlevel.packet.codec;
+
+import sexy.kostya.proto4j.transport.highlevel.packet.EnumeratedProto4jPacket;
+
+/**
+ * Implemented by the generated codecs, which are listed as services, so that their packets are registered without naming each one.
+ */
+public interface AutoPacketCodec<P extends EnumeratedProto4jPacket> {
+
+    int getID();
+
+    P create();
+
+}
@@ -0,0 +1,183 @@
+package sexy.kostya.proto4j.transport.highlevel.packet.codec;
+
+import sexy.kostya.proto4j.transport.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Routines the generated codecs are built of. Sizes are exact, so that the whole packet size is known before it's written.
+ */
+public final class Codecs {
+
+    private Codecs() {
+    }
+
+    public static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    public static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static int varIntSize(int value) {
+        return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+    }
+
+    public static int varLongSize(long value) {
+        return (63 - Long.numberOfLeadingZeros(value | 1)) / 7 + 1;
+    }
+
+    public static void writeString(Buffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.writeVarInt(bytes.length);
+        buffer.writeBytes(bytes);
+    }
+
+    public static String readString(Buffer buffer) {
+        return new String(readBytes(buffer), StandardCharsets.UTF_8);
+    }
+
+    public static int stringSize(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return varIntSize(length) + length;
+    }
+
+    public static void writeBytes(Buffer buffer, byte[] value) {
+        buffer.writeVarInt(value.length);
+        buffer.writeBytes(value);
+    }
+
+    public static byte[] readBytes(Buffer buffer) {
+        byte[] value = new byte[readLength(buffer)];
+        buffer.readBytes(value);
+        return value;
+    }
+
+    public static int bytesSize(byte[] value) {
+        return varIntSize(value.length) + value.length;
+    }
+
+    public static void writeInts(Buffer buffer, int[] value) {
+        buffer.writeVarInt(value.length);
+        for (int element : value) {
+            buffer.writeInt(element);
+        }
+    }
+
+    public static int[] readInts(Buffer buffer) {
+        int[] value = new int[readLength(buffer, 4)];
+        for (int i = 0; i < value.length; ++i) {
+            value[i] = buffer.readInt();
+        }
+        return value;
+    }
+
+    public static int intsSize(int[] value) {
+        return varIntSize(value.length) + value.length * 4;
+    }
+
+    public static void writeVarInts(Buffer buffer, int[] value, boolean zigzag) {
+        buffer.writeVarInt(value.length);
+        for (int element : value) {
+            buffer.writeVarInt(zigzag ? zigzag(element) : element);
+        }
+    }
+
+    public static int[] readVarInts(Buffer buffer, boolean zigzag) {
+        int[] value = new int[readLength(buffer, 1)];
+        for (int i = 0; i < value.length; ++i) {
+            int element = buffer.readVarInt();
+            value[i] = zigzag ? unzigzag(element) : element;
+        }
+        return value;
+    }
+
+    public static int varIntsSize(int[] value, boolean zigzag) {
+        int size = varIntSize(value.length);
+        for (int element : value) {
+            size += varIntSize(zigzag ? zigzag(element) : element);
+        }
+        return size;
+    }
+
+    public static void writeLongs(Buffer buffer, long[] value) {
+        buffer.writeVarInt(value.length);
+        for (long element : value) {
+            buffer.writeLong(element);
+        }
+    }
+
+    public static long[] readLongs(Buffer buffer) {
+        long[] value = new long[readLength(buffer, 8)];
+        for (int i = 0; i < value.length; ++i) {
+            value[i] = buffer.readLong();
+        }
+        return value;
+    }
+
+    public static int longsSize(long[] value) {
+        return varIntSize(value.length) + value.length * 8;
+    }
+
+    public static void writeVarLongs(Buffer buffer, long[] value, boolean zigzag) {
+        buffer.writeVarInt(value.length);
+        for (long element : value) {
+            buffer.writeVarLong(zigzag ? zigzag(element) : element);
+        }
+    }
+
+    public static long[] readVarLongs(Buffer buffer, boolean zigzag) {
+        long[] value = new long[readLength(buffer, 1)];
+        for (int i = 0; i < value.length; ++i) {
+            long element = buffer.readVarLong();
+            value[i] = zigzag ? unzigzag(element) : element;
+        }
+        return value;
+    }
+
+    public static int varLongsSize(long[] value, boolean zigzag) {
+        int size = varIntSize(value.length);
+        for (long element : value) {
+            size += varLongSize(zigzag ? zigzag(element) : element);
+        }
+        return size;
+    }
+
+    private static int readLength(Buffer buffer) {
+        return readLength(buffer, 1);
+    }
+
+    /**
+     * @param elementSize minimal size of an element, so that a malformed length doesn't make an enormous array
+     */
+    private static int readLength(Buffer buffer, int elementSize) {
+        int length = buffer.readVarInt();
+        if (length < 0 || (long) length * elementSize > buffer.readableBytes()) {
+            throw new IllegalStateException("Invalid length " + length);
+        }
+        return length;
+    }
+
+}
@@ -0,0 +1,21 @@
+package sexy.kostya.proto4j.transport.highlevel.packet.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Makes the generated codec write the {@code int}, {@code long}, {@code int[]} or {@code long[]} field as varints
+ * instead of fixed length numbers, which is shorter for small values.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface Varint {
+
+    /**
+     * @return whether the values are zigzag encoded, so that small negative numbers are short as well
+     */
+    boolean zigzag() default false;
+
+}
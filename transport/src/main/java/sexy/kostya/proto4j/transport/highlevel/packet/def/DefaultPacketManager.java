@@ -9,9 +9,14 @@ public class DefaultPacketManager extends PacketManager {
 
     @SuppressWarnings("unchecked")
     public DefaultPacketManager() {
+        // pings are the only traffic of the idle channels and are never kept by the handlers
+        registerPooled(64, Packet1Ping::new);
         register(
-                Packet1Ping::new,
-                Packet2Disconnect::new
+                Packet2Disconnect::new,
+                Packet4StreamOpen::new,
+                Packet5StreamChunk::new,
+                Packet6StreamAck::new,
+                Packet7Cancel::new
         );
     }
 
@@ -2,6 +2,7 @@ package sexy.kostya.proto4j.transport.highlevel.packet.def;
 
 import sexy.kostya.proto4j.transport.buffer.Buffer;
 import sexy.kostya.proto4j.transport.highlevel.packet.EnumeratedProto4jPacket;
+import sexy.kostya.proto4j.transport.packet.Proto4jPacket;
 
 /**
  * Created by k.shandurenko on 01.10.2020
@@ -15,6 +16,11 @@ public class Packet1Ping extends EnumeratedProto4jPacket {
         return ID;
     }
 
+    @Override
+    public Proto4jPacket.Priority getPriority() {
+        return Proto4jPacket.Priority.HIGH;
+    }
+
     @Override
     public void write(Buffer buffer) {
 
@@ -2,6 +2,7 @@ package sexy.kostya.proto4j.transport.highlevel.packet.def;
 
 import sexy.kostya.proto4j.transport.buffer.Buffer;
 import sexy.kostya.proto4j.transport.highlevel.packet.CallbackProto4jPacket;
+import sexy.kostya.proto4j.transport.packet.Proto4jPacket;
 
 /**
  * Created by k.shandurenko on 01.10.2020
@@ -29,6 +30,11 @@ public class Packet2Disconnect extends CallbackProto4jPacket {
         return ID;
     }
 
+    @Override
+    public Proto4jPacket.Priority getPriority() {
+        return Proto4jPacket.Priority.HIGH;
+    }
+
     @Override
     public void write(Buffer buffer) {
         buffer.writeStringMaybe(this.reason);
@@ -0,0 +1,50 @@
+package sexy.kostya.proto4j.transport.highlevel.packet.def;
+
+import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.highlevel.packet.EnumeratedProto4jPacket;
+
+/**
+ * Announces a stream which chunks are sent once the receiver grants credits for them.
+ */
+public class Packet4StreamOpen extends EnumeratedProto4jPacket {
+
+    public final static int ID = -4;
+
+    private int    streamID;
+    private String name;
+
+    public Packet4StreamOpen() {
+
+    }
+
+    public Packet4StreamOpen(int streamID, String name) {
+        this.streamID = streamID;
+        this.name = name;
+    }
+
+    public int getStreamID() {
+        return this.streamID;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public int getID() {
+        return ID;
+    }
+
+    @Override
+    public void write(Buffer buffer) {
+        buffer.writeVarInt(this.streamID);
+        buffer.writeString(this.name);
+    }
+
+    @Override
+    public void read(Buffer buffer) {
+        this.streamID = buffer.readVarInt();
+        this.name = buffer.readString();
+    }
+
+}
@@ -0,0 +1,114 @@
+package sexy.kostya.proto4j.transport.highlevel.packet.def;
+
+import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.highlevel.packet.EnumeratedProto4jPacket;
+import sexy.kostya.proto4j.transport.packet.Proto4jPacket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Carries a part of the stream data: the last chunk of the stream is empty and either closes or aborts it.
+ */
+public class Packet5StreamChunk extends EnumeratedProto4jPacket {
+
+    public final static int ID = -5;
+
+    private final static byte DATA    = 0;
+    private final static byte LAST    = 1;
+    private final static byte ABORTED = 2;
+
+    private int        streamID;
+    private byte       state;
+    private ByteBuffer data;
+    private String     error;
+
+    public Packet5StreamChunk() {
+
+    }
+
+    private Packet5StreamChunk(int streamID, byte state, ByteBuffer data, String error) {
+        this.streamID = streamID;
+        this.state = state;
+        this.data = data;
+        this.error = error;
+    }
+
+    public static Packet5StreamChunk data(int streamID, ByteBuffer data) {
+        return new Packet5StreamChunk(streamID, DATA, data, null);
+    }
+
+    public static Packet5StreamChunk last(int streamID) {
+        return new Packet5StreamChunk(streamID, LAST, null, null);
+    }
+
+    public static Packet5StreamChunk aborted(int streamID, String error) {
+        return new Packet5StreamChunk(streamID, ABORTED, null, error);
+    }
+
+    public int getStreamID() {
+        return this.streamID;
+    }
+
+    public boolean isLast() {
+        return this.state == LAST;
+    }
+
+    public boolean isAborted() {
+        return this.state == ABORTED;
+    }
+
+    public ByteBuffer getData() {
+        return this.data;
+    }
+
+    public String getError() {
+        return this.error;
+    }
+
+    @Override
+    public int getID() {
+        return ID;
+    }
+
+    @Override
+    public Proto4jPacket.Priority getPriority() {
+        return Proto4jPacket.Priority.LOW;
+    }
+
+    @Override
+    public int estimateSize() {
+        return this.state == DATA ? 5 + 1 + 5 + this.data.remaining() : -1;
+    }
+
+    @Override
+    public void write(Buffer buffer) {
+        buffer.writeVarInt(this.streamID);
+        buffer.writeByte(this.state);
+        switch (this.state) {
+            case DATA:
+                buffer.writeVarInt(this.data.remaining());
+                buffer.writeBytes(this.data.duplicate());
+                break;
+            case ABORTED:
+                buffer.writeStringMaybe(this.error);
+                break;
+        }
+    }
+
+    @Override
+    public void read(Buffer buffer) {
+        this.streamID = buffer.readVarInt();
+        this.state = buffer.readByte();
+        switch (this.state) {
+            case DATA:
+                byte[] array = new byte[buffer.readVarInt()];
+                buffer.readBytes(array);
+                this.data = ByteBuffer.wrap(array);
+                break;
+            case ABORTED:
+                this.error = buffer.readStringMaybe();
+                break;
+        }
+    }
+
+}
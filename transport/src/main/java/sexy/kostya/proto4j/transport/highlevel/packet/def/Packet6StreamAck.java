@@ -0,0 +1,84 @@
+package sexy.kostya.proto4j.transport.highlevel.packet.def;
+
+import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.highlevel.packet.EnumeratedProto4jPacket;
+import sexy.kostya.proto4j.transport.packet.Proto4jPacket;
+
+/**
+ * Sent by the receiver of the stream: grants credits for more chunks, reports completion or rejects the stream.
+ */
+public class Packet6StreamAck extends EnumeratedProto4jPacket {
+
+    public final static int ID = -6;
+
+    private int     streamID;
+    private int     credits;
+    private boolean completed;
+    private String  error;
+
+    public Packet6StreamAck() {
+
+    }
+
+    private Packet6StreamAck(int streamID, int credits, boolean completed, String error) {
+        this.streamID = streamID;
+        this.credits = credits;
+        this.completed = completed;
+        this.error = error;
+    }
+
+    public static Packet6StreamAck credits(int streamID, int credits) {
+        return new Packet6StreamAck(streamID, credits, false, null);
+    }
+
+    public static Packet6StreamAck completed(int streamID) {
+        return new Packet6StreamAck(streamID, 0, true, null);
+    }
+
+    public static Packet6StreamAck aborted(int streamID, String error) {
+        return new Packet6StreamAck(streamID, 0, true, error);
+    }
+
+    public int getStreamID() {
+        return this.streamID;
+    }
+
+    public int getCredits() {
+        return this.credits;
+    }
+
+    public boolean isCompleted() {
+        return this.completed;
+    }
+
+    public String getError() {
+        return this.error;
+    }
+
+    @Override
+    public int getID() {
+        return ID;
+    }
+
+    @Override
+    public Proto4jPacket.Priority getPriority() {
+        return Proto4jPacket.Priority.HIGH;
+    }
+
+    @Override
+    public void write(Buffer buffer) {
+        buffer.writeVarInt(this.streamID);
+        buffer.writeVarInt(this.credits);
+        buffer.writeBoolean(this.completed);
+        buffer.writeStringMaybe(this.error);
+    }
+
+    @Override
+    public void read(Buffer buffer) {
+        this.streamID = buffer.readVarInt();
+        this.credits = buffer.readVarInt();
+        this.completed = buffer.readBoolean();
+        this.error = buffer.readStringMaybe();
+    }
+
+}
@@ -0,0 +1,48 @@
+package sexy.kostya.proto4j.transport.highlevel.packet.def;
+
+import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.highlevel.packet.EnumeratedProto4jPacket;
+import sexy.kostya.proto4j.transport.packet.Proto4jPacket;
+
+/**
+ * Sent once the response to a callback packet is not awaited anymore, so that the remote side cancels the work it was asked for.
+ */
+public class Packet7Cancel extends EnumeratedProto4jPacket {
+
+    public final static int ID = -7;
+
+    private int callbackID;
+
+    public Packet7Cancel() {
+
+    }
+
+    public Packet7Cancel(int callbackID) {
+        this.callbackID = callbackID;
+    }
+
+    public int getCallbackID() {
+        return this.callbackID;
+    }
+
+    @Override
+    public int getID() {
+        return ID;
+    }
+
+    @Override
+    public Proto4jPacket.Priority getPriority() {
+        return Proto4jPacket.Priority.HIGH;
+    }
+
+    @Override
+    public void write(Buffer buffer) {
+        buffer.writeVarInt(this.callbackID);
+    }
+
+    @Override
+    public void read(Buffer buffer) {
+        this.callbackID = buffer.readVarInt();
+    }
+
+}
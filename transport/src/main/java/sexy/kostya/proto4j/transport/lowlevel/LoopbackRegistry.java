@@ -0,0 +1,15 @@
+package sexy.kostya.proto4j.transport.lowlevel;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Servers started on {@link Proto4jSocket#LOOPBACK_ADDRESS} by the port they are bound to.
+ */
+class LoopbackRegistry {
+
+    final static Map<Integer, Proto4jServer<?>> SERVERS      = new ConcurrentHashMap<>();
+    final static AtomicInteger                  CLIENT_PORTS = new AtomicInteger();
+
+}
@@ -1,22 +1,30 @@
 package sexy.kostya.proto4j.transport.lowlevel;
 
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import com.google.common.base.Preconditions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sexy.kostya.proto4j.transport.Channel;
 import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.datagram.DatagramTransport;
+import sexy.kostya.proto4j.transport.packet.LoopbackCodec;
 import sexy.kostya.proto4j.transport.packet.PacketCodec;
+import sexy.kostya.proto4j.transport.packet.PacketDecoder;
+import sexy.kostya.proto4j.transport.packet.PacketEncoder;
 import sexy.kostya.proto4j.transport.packet.Proto4jPacket;
+import sexy.kostya.proto4j.transport.packet.SharedMemoryCodec;
+import sexy.kostya.proto4j.transport.packet.TcpCodec;
+import sexy.kostya.proto4j.transport.util.Backoff;
 import sexy.kostya.proto4j.transport.util.DatagramHelper;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 import java.util.function.BiConsumer;
 
 /**
@@ -24,12 +32,23 @@ import java.util.function.BiConsumer;
  */
 public abstract class Proto4jClient<C extends Channel> extends Proto4jSocket<C> {
 
-    private C channel;
+    /**
+     * Interval at which the loss of datagrams is measured for the fallback to TCP and the least amount of datagrams measured
+     */
+    private final static long FALLBACK_INTERVAL      = 1000;
+    private final static long FALLBACK_MIN_DATAGRAMS = 64;
+
+    private          C      channel;
+    private volatile double tcpFallback;
 
     public Proto4jClient(Logger logger, int workerThreads, int handlerThreads) {
         super(logger, workerThreads, handlerThreads);
     }
 
+    public Proto4jClient(Logger logger, Executor workers, Executor handlers) {
+        super(logger, workers, handlers);
+    }
+
     public Proto4jClient(int workerThreads, int handlerThreads) {
         this(LoggerFactory.getLogger("Proto4j Client"), workerThreads, handlerThreads);
     }
@@ -43,46 +62,192 @@ public abstract class Proto4jClient<C extends Channel> extends Proto4jSocket<C>
     }
 
     @Override
-    void start0(CompletableFuture<Void> future, String address, int port) throws SocketException {
+    void start0(CompletableFuture<Void> future, String address, int port) throws IOException {
         InetSocketAddress remoteAddress = new InetSocketAddress(address, port);
-        super.socket = new DatagramSocket();
+        super.socket = getTransport().bind(null, getLogger(), getWorkers(), (buffer, addr) -> {
+            if (!remoteAddress.equals(addr)) {
+                getLogger().warn("Received packet from an unknown address: {}", addr);
+                return;
+            }
+            DatagramHelper.log(getLogger(), buffer, addr);
+            try {
+                this.channel.recv(Buffer.wrap(buffer));
+            } catch (Throwable t) {
+                getLogger().error("Could not receive packet", t);
+            }
+        });
         this.channel = createChannel(new PacketCodec(this.socket, remoteAddress));
         BiConsumer<C, Proto4jPacket> handler = getInitialPacketHandler();
         if (handler != null) {
             this.channel.setHandler(getHandlers(), packet -> handler.accept(this.channel, packet));
         }
+        getLogger().info("Started the client");
+        future.complete(null);
+        if (this.tcpFallback > 0) {
+            watchLoss(this.socket, address, port);
+        }
+    }
+
+    /**
+     * Reconnects over TCP once the share of retransmitted datagrams crosses the fallback threshold.
+     * Intervals nothing is received in are not measured: the server is down then rather than the link is lossy.
+     */
+    private void watchLoss(DatagramTransport socket, String address, int port) {
         Thread thread = new Thread(() -> {
-            getLogger().info("Started the client");
-            future.complete(null);
-            while (super.socket != null) {
-                byte[]         array  = new byte[DatagramHelper.MAX_DATAGRAM_SIZE];
-                DatagramPacket packet = new DatagramPacket(array, array.length);
+            PacketEncoder encoder       = this.channel.getCodec().getEncoder();
+            PacketDecoder decoder       = this.channel.getCodec().getDecoder();
+            long          sent          = encoder.getSentDatagrams();
+            long          retransmitted = encoder.getRetransmittedDatagrams();
+            long          received      = decoder.getReceivedDatagrams();
+            while (super.socket == socket) {
                 try {
-                    super.socket.receive(packet);
-                    getWorkers().execute(() -> {
-                        ByteBuf           buffer = Unpooled.wrappedBuffer(packet.getData(), packet.getOffset(), packet.getLength());
-                        InetSocketAddress addr   = new InetSocketAddress(packet.getAddress(), packet.getPort());
-                        if (!remoteAddress.equals(addr)) {
-                            getLogger().warn("Received packet from an unknown address: {}", addr);
-                            return;
-                        }
-                        DatagramHelper.log(getLogger(), buffer, addr);
-                        try {
-                            this.channel.recv(Buffer.wrap(buffer));
-                        } catch (Throwable t) {
-                            getLogger().error("Could not receive packet", t);
+                    Thread.sleep(FALLBACK_INTERVAL);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                long sentDelta          = encoder.getSentDatagrams() - sent;
+                long retransmittedDelta = encoder.getRetransmittedDatagrams() - retransmitted;
+                long receivedDelta      = decoder.getReceivedDatagrams() - received;
+                sent += sentDelta;
+                retransmitted += retransmittedDelta;
+                received += receivedDelta;
+                if (sentDelta < FALLBACK_MIN_DATAGRAMS || receivedDelta == 0) {
+                    continue;
+                }
+                double loss = (double) retransmittedDelta / sentDelta;
+                if (loss >= this.tcpFallback && super.socket == socket) {
+                    getLogger().warn("Falling back to TCP as {}% of datagrams were retransmitted", Math.round(loss * 100));
+                    shutdown();
+                    start(TCP_SCHEME + address, port).whenComplete((res, ex) -> {
+                        if (ex != null) {
+                            getLogger().error("Could not fall back to TCP, restoring UDP", ex);
+                            start(address, port).whenComplete((r, e) -> {
+                                if (e != null) {
+                                    getLogger().error("Could not restore UDP", e);
+                                }
+                            });
                         }
                     });
-                } catch (IOException e) {
-                    if (super.socket != null) {
-                        getLogger().error("Could not receive datagram", e);
-                    }
+                    return;
+                }
+            }
+        }, "Proto4j Client Fallback Thread");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    void startLoopback(CompletableFuture<Void> future, int port) throws SocketException {
+        Proto4jServer<?> server = LoopbackRegistry.SERVERS.get(port);
+        if (server == null) {
+            throw new SocketException("Nothing is listening in-memory on " + port);
+        }
+        this.channel = createChannel(new LoopbackCodec(InetSocketAddress.createUnresolved(LOOPBACK_ADDRESS, port)));
+        BiConsumer<C, Proto4jPacket> handler = getInitialPacketHandler();
+        if (handler != null) {
+            this.channel.setHandler(getHandlers(), packet -> handler.accept(this.channel, packet));
+        }
+        server.connect(this.channel);
+        super.loopbackPort = port;
+        getLogger().info("Started the client in-memory");
+        future.complete(null);
+    }
+
+    @Override
+    void shutdownLoopback(int port) {
+        ((LoopbackCodec) this.channel.getCodec()).unlink();
+    }
+
+    @Override
+    void startSharedMemory(CompletableFuture<Void> future, Path directory, int port) throws IOException {
+        if (!SharedMemoryRegistry.isListening(directory)) {
+            throw new SocketException("Nothing is listening in shared memory on " + port);
+        }
+        SharedMemoryCodec codec = SharedMemoryCodec.create(InetSocketAddress.createUnresolved(directory.toString(), port), directory);
+        this.channel = createChannel(codec);
+        codec.bind(this.channel);
+        BiConsumer<C, Proto4jPacket> handler = getInitialPacketHandler();
+        if (handler != null) {
+            this.channel.setHandler(getHandlers(), packet -> handler.accept(this.channel, packet));
+        }
+        super.sharedMemory = directory;
+        Thread thread = new Thread(() -> {
+            getLogger().info("Started the client in shared memory");
+            future.complete(null);
+            for (int idle = 0; super.sharedMemory == directory && !codec.isClosed(); ) {
+                idle = codec.poll() == 0 ? idle + 1 : 0;
+                Backoff.idle(idle);
+            }
+            // packets written right before the peer has closed the connection
+            codec.poll();
+            codec.close();
+        }, "Proto4j Client Shared Memory Thread");
+        thread.start();
+    }
+
+    @Override
+    void startTcp(CompletableFuture<Void> future, String host, int port) throws IOException {
+        Selector      selector = Selector.open();
+        SocketChannel socket   = null;
+        TcpCodec      codec;
+        try {
+            socket = SocketChannel.open(new InetSocketAddress(host, port));
+            codec = new TcpCodec((InetSocketAddress) socket.getRemoteAddress(), socket);
+            codec.register(selector);
+        } catch (IOException ex) {
+            if (socket != null) {
+                socket.close();
+            }
+            selector.close();
+            throw ex;
+        }
+        this.channel = createChannel(codec);
+        codec.bind(this.channel);
+        BiConsumer<C, Proto4jPacket> handler = getInitialPacketHandler();
+        if (handler != null) {
+            this.channel.setHandler(getHandlers(), packet -> handler.accept(this.channel, packet));
+        }
+        super.tcp = selector;
+        Thread thread = new Thread(() -> {
+            getLogger().info("Started the client over TCP");
+            future.complete(null);
+            while (super.tcp == selector && codec.isOpen()) {
+                try {
+                    selector.select();
+                } catch (IOException ex) {
+                    getLogger().error("Could not select TCP connection", ex);
+                    break;
+                }
+                if (!selector.selectedKeys().isEmpty()) {
+                    selector.selectedKeys().clear();
+                    codec.process();
                 }
             }
-        }, "Proto4j Client Thread");
+            codec.close();
+            try {
+                selector.close();
+            } catch (IOException ex) {
+                getLogger().error("Could not release TCP socket", ex);
+            }
+        }, "Proto4j Client TCP Thread");
         thread.start();
     }
 
+    /**
+     * Makes the client reconnect over TCP to the same host and port once the given share of datagrams sent over UDP
+     * has to be retransmitted; takes effect on the next start. The server has to listen on {@link #TCP_SCHEME} as well.
+     * The client is shut down and then started again through {@link #start(String, int)}, which is where subclasses
+     * restore the state bound to the channel; packets awaiting confirmation or response over UDP are lost.
+     * If the TCP connection fails, the client is started over UDP again. Intervals nothing is received in, e.g. while
+     * the server is down, don't count.
+     *
+     * @param lossRate share of retransmitted datagrams from 0 to 1, 0 to never fall back
+     */
+    public void setTcpFallback(double lossRate) {
+        Preconditions.checkArgument(lossRate >= 0 && lossRate <= 1, "Loss rate must be between 0 and 1");
+        this.tcpFallback = lossRate;
+    }
+
     public C getChannel() {
         return this.channel;
     }
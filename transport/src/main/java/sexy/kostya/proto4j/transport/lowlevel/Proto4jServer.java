@@ -1,18 +1,27 @@
 package sexy.kostya.proto4j.transport.lowlevel;
 
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sexy.kostya.proto4j.transport.Channel;
 import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.packet.LoopbackCodec;
+import sexy.kostya.proto4j.transport.packet.PacketCodec;
+import sexy.kostya.proto4j.transport.packet.SharedMemoryCodec;
+import sexy.kostya.proto4j.transport.packet.TcpCodec;
+import sexy.kostya.proto4j.transport.util.Backoff;
 import sexy.kostya.proto4j.transport.util.DatagramHelper;
+import sexy.kostya.proto4j.transport.util.TokenBucket;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.nio.channels.FileLock;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.*;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
@@ -23,6 +32,10 @@ public abstract class Proto4jServer<C extends Channel> extends Proto4jSocket<C>
 
     protected final ServerChannel<C> channel = new ServerChannel<>(this);
 
+    private volatile TokenBucket rateLimit;
+    private volatile double      channelBytesPerSecond;
+    private volatile double      channelPacketsPerSecond;
+
     public Proto4jServer(Logger logger, int workerThreads, int handlerThreads) {
         super(logger, workerThreads, handlerThreads);
     }
@@ -39,36 +52,261 @@ public abstract class Proto4jServer<C extends Channel> extends Proto4jSocket<C>
         return start(address.getHostName(), address.getPort());
     }
 
+    /**
+     * Limits the aggregate rate of datagrams sent to all the clients.
+     *
+     * @param bytesPerSecond   maximum amount of bytes sent per second, 0 for unlimited
+     * @param packetsPerSecond maximum amount of datagrams sent per second, 0 for unlimited
+     */
+    public void setRateLimit(double bytesPerSecond, double packetsPerSecond) {
+        this.rateLimit = bytesPerSecond == 0 && packetsPerSecond == 0 ? null : new TokenBucket(bytesPerSecond, packetsPerSecond);
+        this.channel.getAll().values().forEach(ch -> applyRateLimits(ch.getCodec()));
+    }
+
+    /**
+     * Limits the rate of datagrams sent to each of the clients.
+     *
+     * @param bytesPerSecond   maximum amount of bytes sent per second, 0 for unlimited
+     * @param packetsPerSecond maximum amount of datagrams sent per second, 0 for unlimited
+     */
+    public void setChannelRateLimit(double bytesPerSecond, double packetsPerSecond) {
+        this.channelBytesPerSecond = bytesPerSecond;
+        this.channelPacketsPerSecond = packetsPerSecond;
+        this.channel.getAll().values().forEach(ch -> applyRateLimits(ch.getCodec()));
+    }
+
+    /**
+     * @return total amount of datagrams delayed by pacing
+     */
+    public int getQueueDepth() {
+        return this.channel.getAll().values().stream().mapToInt(ch -> ch.getCodec().getEncoder().getQueueDepth()).sum();
+    }
+
+    void applyRateLimits(PacketCodec codec) {
+        List<TokenBucket> limits = new ArrayList<>(2);
+        if (this.channelBytesPerSecond != 0 || this.channelPacketsPerSecond != 0) {
+            limits.add(new TokenBucket(this.channelBytesPerSecond, this.channelPacketsPerSecond));
+        }
+        TokenBucket rateLimit = this.rateLimit;
+        if (rateLimit != null) {
+            limits.add(rateLimit);
+        }
+        codec.getEncoder().setRateLimits(limits.toArray(new TokenBucket[0]));
+    }
+
     @Override
-    void start0(CompletableFuture<Void> future, String address, int port) throws SocketException {
-        super.socket = new DatagramSocket(new InetSocketAddress(address, port));
+    void start0(CompletableFuture<Void> future, String address, int port) throws IOException {
+        super.socket = getTransport().bind(new InetSocketAddress(address, port), getLogger(), getWorkers(), (buffer, addr) -> {
+            C channel = this.channel.get(addr);
+            DatagramHelper.log(getLogger(), buffer, addr);
+            try {
+                channel.recv(Buffer.wrap(buffer));
+            } catch (Throwable t) {
+                getLogger().error("Could not receive packet", t);
+            }
+        });
+        getLogger().info("Listening on {}:{}", address, port);
+        future.complete(null);
+    }
+
+    /**
+     * Unlike the other transports, shared memory and TCP may be listened in addition to a datagram or in-memory socket.
+     */
+    @Override
+    boolean canStart(String address) {
+        if (address.startsWith(SHARED_MEMORY_SCHEME)) {
+            return super.sharedMemory == null;
+        }
+        if (address.startsWith(TCP_SCHEME)) {
+            return super.tcp == null;
+        }
+        return super.socket == null && super.loopbackPort == -1;
+    }
+
+    @Override
+    void startLoopback(CompletableFuture<Void> future, int port) throws SocketException {
+        if (LoopbackRegistry.SERVERS.putIfAbsent(port, this) != null) {
+            throw new SocketException("Port " + port + " is already in use in-memory");
+        }
+        super.loopbackPort = port;
+        getLogger().info("Listening in-memory on {}", port);
+        future.complete(null);
+    }
+
+    @Override
+    void shutdownLoopback(int port) {
+        LoopbackRegistry.SERVERS.remove(port, this);
+    }
+
+    /**
+     * Accepts the client connected in-memory.
+     */
+    void connect(Channel client) {
+        LoopbackCodec codec = new LoopbackCodec(InetSocketAddress.createUnresolved(LOOPBACK_ADDRESS, LoopbackRegistry.CLIENT_PORTS.incrementAndGet()));
+        LoopbackCodec.link(client, this.channel.connect(codec));
+    }
+
+    @Override
+    void startSharedMemory(CompletableFuture<Void> future, Path directory, int port) throws IOException {
+        if (!SharedMemoryRegistry.DIRECTORIES.add(directory)) {
+            throw new SocketException("Port " + port + " is already in use in shared memory");
+        }
+        FileLock     lock;
+        WatchService watcher;
+        long         lockedAt;
+        try {
+            Files.createDirectories(directory);
+            lock = SharedMemoryRegistry.lock(directory);
+            if (lock == null) {
+                throw new SocketException("Port " + port + " is already in use in shared memory");
+            }
+            lockedAt = System.currentTimeMillis();
+            watcher = directory.getFileSystem().newWatchService();
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+        } catch (IOException ex) {
+            SharedMemoryRegistry.DIRECTORIES.remove(directory);
+            throw ex;
+        }
+        super.sharedMemory = directory;
         Thread thread = new Thread(() -> {
-            getLogger().info("Listening on {}:{}", address, port);
+            getLogger().info("Listening in shared memory on {}", directory);
             future.complete(null);
-            while (super.socket != null) {
-                byte[]         array  = new byte[DatagramHelper.MAX_DATAGRAM_SIZE];
-                DatagramPacket packet = new DatagramPacket(array, array.length);
+            Map<Path, SharedMemoryCodec> codecs = new HashMap<>();
+            // files of the clients of the previous server are left behind if it wasn't stopped gracefully
+            accept(codecs, directory, port, lockedAt);
+            for (int idle = 0; super.sharedMemory == directory; ) {
+                WatchKey key = watcher.poll();
+                if (key != null) {
+                    key.pollEvents();
+                    key.reset();
+                    accept(codecs, directory, port, 0);
+                }
+                int received = 0;
+                for (Iterator<SharedMemoryCodec> iterator = codecs.values().iterator(); iterator.hasNext(); ) {
+                    SharedMemoryCodec codec = iterator.next();
+                    if (codec.isClosed()) {
+                        // packets written right before the peer has closed the connection
+                        codec.poll();
+                        iterator.remove();
+                        this.channel.remove(codec.getAddress());
+                        continue;
+                    }
+                    received += codec.poll();
+                }
+                idle = received == 0 ? idle + 1 : 0;
+                Backoff.idle(idle);
+            }
+            codecs.values().forEach(SharedMemoryCodec::close);
+            try {
+                watcher.close();
+                lock.channel().close();
+            } catch (IOException ex) {
+                getLogger().error("Could not release shared memory", ex);
+            }
+            SharedMemoryRegistry.DIRECTORIES.remove(directory);
+        }, "Proto4j Server Shared Memory Thread");
+        thread.start();
+    }
+
+    @Override
+    void startTcp(CompletableFuture<Void> future, String host, int port) throws IOException {
+        Selector            selector = Selector.open();
+        ServerSocketChannel acceptor = ServerSocketChannel.open();
+        try {
+            acceptor.bind(new InetSocketAddress(host, port));
+            acceptor.configureBlocking(false);
+            acceptor.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException ex) {
+            acceptor.close();
+            selector.close();
+            throw ex;
+        }
+        super.tcp = selector;
+        Thread thread = new Thread(() -> {
+            getLogger().info("Listening over TCP on {}:{}", host, port);
+            future.complete(null);
+            while (super.tcp == selector) {
                 try {
-                    super.socket.receive(packet);
-                    getWorkers().execute(() -> {
-                        ByteBuf           buffer  = Unpooled.wrappedBuffer(packet.getData(), packet.getOffset(), packet.getLength());
-                        InetSocketAddress addr    = new InetSocketAddress(packet.getAddress(), packet.getPort());
-                        C                 channel = this.channel.get(addr);
-                        DatagramHelper.log(getLogger(), buffer, addr);
-                        try {
-                            channel.recv(Buffer.wrap(buffer));
-                        } catch (Throwable t) {
-                            getLogger().error("Could not receive packet", t);
-                        }
-                    });
-                } catch (IOException e) {
-                    if (super.socket != null) {
-                        getLogger().error("Could not receive datagram", e);
+                    selector.select();
+                } catch (IOException ex) {
+                    getLogger().error("Could not select TCP connections", ex);
+                    break;
+                }
+                for (Iterator<SelectionKey> iterator = selector.selectedKeys().iterator(); iterator.hasNext(); ) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (key.attachment() == null) {
+                        accept(acceptor, selector);
+                        continue;
                     }
+                    TcpCodec codec = (TcpCodec) key.attachment();
+                    if (!codec.process()) {
+                        this.channel.remove(codec.getAddress());
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() != null) {
+                    ((TcpCodec) key.attachment()).close();
                 }
             }
-        }, "Proto4j Server Thread");
+            try {
+                acceptor.close();
+                selector.close();
+            } catch (IOException ex) {
+                getLogger().error("Could not release TCP socket", ex);
+            }
+        }, "Proto4j Server TCP Thread");
         thread.start();
     }
 
+    private void accept(ServerSocketChannel acceptor, Selector selector) {
+        try {
+            SocketChannel socket;
+            while ((socket = acceptor.accept()) != null) {
+                TcpCodec codec = new TcpCodec((InetSocketAddress) socket.getRemoteAddress(), socket);
+                this.channel.connect(codec);
+                try {
+                    codec.register(selector);
+                } catch (IOException ex) {
+                    this.channel.remove(codec.getAddress());
+                    throw ex;
+                }
+            }
+        } catch (IOException ex) {
+            getLogger().error("Could not accept TCP client", ex);
+        }
+    }
+
+    /**
+     * Accepts the clients which files are not known yet.
+     *
+     * @param staleBefore files modified before this time are deleted instead
+     */
+    private void accept(Map<Path, SharedMemoryCodec> codecs, Path directory, int port, long staleBefore) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SharedMemoryCodec.EXTENSION)) {
+            for (Path path : stream) {
+                if (codecs.containsKey(path)) {
+                    continue;
+                }
+                try {
+                    if (Files.getLastModifiedTime(path).toMillis() < staleBefore) {
+                        Files.deleteIfExists(path);
+                        continue;
+                    }
+                    String            name    = path.getFileName().toString();
+                    InetSocketAddress address = InetSocketAddress.createUnresolved(name.substring(0, name.length() - SharedMemoryCodec.EXTENSION.length()), port);
+                    SharedMemoryCodec codec   = SharedMemoryCodec.open(address, path);
+                    this.channel.connect(codec);
+                    codecs.put(path, codec);
+                } catch (IOException ex) {
+                    getLogger().error("Could not accept shared memory client " + path, ex);
+                    Files.deleteIfExists(path);
+                }
+            }
+        } catch (IOException ex) {
+            getLogger().error("Could not accept shared memory clients", ex);
+        }
+    }
+
 }
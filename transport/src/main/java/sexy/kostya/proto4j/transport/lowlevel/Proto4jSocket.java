@@ -2,13 +2,18 @@ package sexy.kostya.proto4j.transport.lowlevel;
 
 import org.slf4j.Logger;
 import sexy.kostya.proto4j.commons.Proto4jException;
+import sexy.kostya.proto4j.commons.Proto4jProperties;
 import sexy.kostya.proto4j.transport.Channel;
 import sexy.kostya.proto4j.transport.NamedThreadFactory;
+import sexy.kostya.proto4j.transport.datagram.DatagramTransport;
 import sexy.kostya.proto4j.transport.packet.PacketCodec;
 import sexy.kostya.proto4j.transport.packet.Proto4jPacket;
 
-import java.net.DatagramSocket;
+import java.io.IOException;
 import java.net.SocketException;
+import java.nio.channels.Selector;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
@@ -20,8 +25,28 @@ import java.util.function.BiConsumer;
  */
 public abstract class Proto4jSocket<C extends Channel> {
 
+    /**
+     * Sockets started on this address are connected in-memory to the ones in the same JVM instead of using UDP
+     */
+    public final static String LOOPBACK_ADDRESS = "loopback";
+
+    /**
+     * Sockets started on addresses with this prefix are connected through files mapped by the processes of the same host,
+     * the rest of the address is the directory of those files
+     */
+    public final static String SHARED_MEMORY_SCHEME    = "shm:";
+    public final static String SHARED_MEMORY_DIRECTORY = Proto4jProperties.getProperty("sharedMemoryDirectory", "/dev/shm");
+
+    /**
+     * Sockets started on addresses with this prefix are connected over TCP, the rest of the address is the host
+     */
+    public final static String TCP_SCHEME = "tcp:";
+
     private final Logger logger;
-    DatagramSocket socket;
+    DatagramTransport socket;
+    volatile int      loopbackPort = -1;
+    volatile Path     sharedMemory;
+    volatile Selector tcp;
     private final Executor workers;
     private final Executor handlers;
 
@@ -29,30 +54,74 @@ public abstract class Proto4jSocket<C extends Channel> {
 
     private BiConsumer<C, Proto4jPacket> initialPacketHandler;
 
+    private volatile DatagramTransport.Factory transport = DatagramTransport.byDefault();
+
     Proto4jSocket(Logger logger, int workerThreads, int handlerThreads) {
+        this(
+                logger,
+                Executors.newFixedThreadPool(workerThreads, new NamedThreadFactory("Proto4j Worker Thread", true)),
+                Executors.newFixedThreadPool(handlerThreads, new NamedThreadFactory("Proto4j Handler Thread", true))
+        );
+    }
+
+    /**
+     * @param workers  executor the received datagrams are processed on, may be shared with other sockets
+     * @param handlers executor the received packets are handled on, may be shared with other sockets
+     */
+    Proto4jSocket(Logger logger, Executor workers, Executor handlers) {
         this.logger = logger;
-        this.workers = Executors.newFixedThreadPool(workerThreads, new NamedThreadFactory("Proto4j Worker Thread", true));
-        this.handlers = Executors.newFixedThreadPool(handlerThreads, new NamedThreadFactory("Proto4j Handler Thread", true));
+        this.workers = workers;
+        this.handlers = handlers;
 
         this.shutdownHook = new Thread(this::shutdownInternally, "Proto4j Socket Shutdown Hook");
     }
 
     public CompletionStage<Void> start(String address, int port) {
         CompletableFuture<Void> future = new CompletableFuture<>();
-        if (this.socket != null) {
+        if (!canStart(address)) {
             future.completeExceptionally(new Proto4jException("Socket is already started"));
             return future;
         }
-        Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+        if (!isStarted()) {
+            Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+        }
         try {
-            start0(future, address, port);
-        } catch (SocketException ex) {
+            if (LOOPBACK_ADDRESS.equals(address)) {
+                startLoopback(future, port);
+            } else if (address.startsWith(SHARED_MEMORY_SCHEME)) {
+                String directory = address.substring(SHARED_MEMORY_SCHEME.length());
+                Path   path      = Paths.get(directory.isEmpty() ? SHARED_MEMORY_DIRECTORY : directory, "proto4j-" + port);
+                startSharedMemory(future, path.toAbsolutePath().normalize(), port);
+            } else if (address.startsWith(TCP_SCHEME)) {
+                startTcp(future, address.substring(TCP_SCHEME.length()), port);
+            } else {
+                start0(future, address, port);
+            }
+        } catch (IOException ex) {
+            if (!isStarted()) {
+                Runtime.getRuntime().removeShutdownHook(this.shutdownHook);
+            }
             future.completeExceptionally(ex);
         }
         return future;
     }
 
-    abstract void start0(CompletableFuture<Void> future, String address, int port) throws SocketException;
+    /**
+     * @param address address the socket is going to be started on
+     */
+    boolean canStart(String address) {
+        return !isStarted();
+    }
+
+    abstract void start0(CompletableFuture<Void> future, String address, int port) throws IOException;
+
+    abstract void startLoopback(CompletableFuture<Void> future, int port) throws SocketException;
+
+    abstract void shutdownLoopback(int port);
+
+    abstract void startSharedMemory(CompletableFuture<Void> future, Path directory, int port) throws IOException;
+
+    abstract void startTcp(CompletableFuture<Void> future, String host, int port) throws IOException;
 
     public final void shutdown() {
         if (shutdownInternally()) {
@@ -61,24 +130,66 @@ public abstract class Proto4jSocket<C extends Channel> {
     }
 
     protected boolean shutdownInternally() {
-        DatagramSocket socket = this.socket;
+        DatagramTransport socket       = this.socket;
+        int               loopbackPort = this.loopbackPort;
+        Path              sharedMemory = this.sharedMemory;
+        Selector          tcp          = this.tcp;
         this.socket = null;
+        this.loopbackPort = -1;
+        // the threads polling the shared memory and selecting TCP connections release them once they notice the shutdown
+        this.sharedMemory = null;
+        this.tcp = null;
+        if (socket == null && loopbackPort == -1 && sharedMemory == null && tcp == null) {
+            return false;
+        }
+        getLogger().info("Shutting down");
         if (socket != null) {
-            getLogger().info("Shutting down");
             socket.close();
-            return true;
         }
-        return false;
+        if (loopbackPort != -1) {
+            shutdownLoopback(loopbackPort);
+        }
+        if (tcp != null) {
+            tcp.wakeup();
+        }
+        return true;
+    }
+
+    public boolean isStarted() {
+        return this.socket != null || this.loopbackPort != -1 || this.sharedMemory != null || this.tcp != null;
+    }
+
+    public boolean isLoopback() {
+        return this.loopbackPort != -1;
+    }
+
+    public boolean isSharedMemory() {
+        return this.sharedMemory != null;
+    }
+
+    public boolean isTcp() {
+        return this.tcp != null;
     }
 
     public Logger getLogger() {
         return logger;
     }
 
-    public DatagramSocket getSocket() {
+    public DatagramTransport getSocket() {
         return socket;
     }
 
+    public DatagramTransport.Factory getTransport() {
+        return this.transport;
+    }
+
+    /**
+     * Sets the implementation of the datagram socket, e.g. {@link DatagramTransport#epoll()}; takes effect on the next start.
+     */
+    public void setTransport(DatagramTransport.Factory transport) {
+        this.transport = transport;
+    }
+
     public Executor getWorkers() {
         return workers;
     }
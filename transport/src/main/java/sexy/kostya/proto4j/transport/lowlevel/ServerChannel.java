@@ -1,6 +1,7 @@
 package sexy.kostya.proto4j.transport.lowlevel;
 
 import sexy.kostya.proto4j.transport.Channel;
+import sexy.kostya.proto4j.transport.packet.DirectCodec;
 import sexy.kostya.proto4j.transport.packet.PacketCodec;
 import sexy.kostya.proto4j.transport.packet.Proto4jPacket;
 
@@ -22,16 +23,28 @@ public class ServerChannel<C extends Channel> {
     }
 
     public C get(InetSocketAddress address) {
-        return this.channels.computeIfAbsent(address, ad -> {
-            PacketCodec codec   = new PacketCodec(this.server.getSocket(), ad);
-            C           channel = this.server.createChannel(codec);
+        return this.channels.computeIfAbsent(address, ad -> create(new PacketCodec(this.server.getSocket(), ad)));
+    }
+
+    /**
+     * Creates the channel of the client which is connected in-memory or through shared memory.
+     */
+    C connect(DirectCodec codec) {
+        C channel = create(codec);
+        codec.bind(channel);
+        this.channels.put(codec.getAddress(), channel);
+        return channel;
+    }
 
-            BiConsumer<C, Proto4jPacket> handler = this.server.getInitialPacketHandler();
-            if (handler != null) {
-                channel.setHandler(this.server.getHandlers(), packet -> handler.accept(channel, packet));
-            }
-            return channel;
-        });
+    private C create(PacketCodec codec) {
+        this.server.applyRateLimits(codec);
+        C channel = this.server.createChannel(codec);
+
+        BiConsumer<C, Proto4jPacket> handler = this.server.getInitialPacketHandler();
+        if (handler != null) {
+            channel.setHandler(this.server.getHandlers(), packet -> handler.accept(channel, packet));
+        }
+        return channel;
     }
 
     public Map<InetSocketAddress, C> getAll() {
@@ -39,11 +52,18 @@ public class ServerChannel<C extends Channel> {
     }
 
     public void remove(InetSocketAddress address) {
-        this.channels.remove(address);
+        close(this.channels.remove(address));
     }
 
     public void clear() {
+        this.channels.values().forEach(this::close);
         this.channels.clear();
     }
 
+    private void close(C channel) {
+        if (channel != null && channel.getCodec() instanceof DirectCodec) {
+            ((DirectCodec) channel.getCodec()).close();
+        }
+    }
+
 }
@@ -0,0 +1,59 @@
+package sexy.kostya.proto4j.transport.lowlevel;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Directories of servers started on {@link Proto4jSocket#SHARED_MEMORY_SCHEME} addresses: a server holds the lock
+ * of a file in its directory for as long as it listens.
+ */
+class SharedMemoryRegistry {
+
+    // closing any channel of the file releases all the locks of the process, so the ones of this JVM aren't probed
+    final static Set<Path> DIRECTORIES = ConcurrentHashMap.newKeySet();
+
+    private final static String LOCK_FILE = "server.lock";
+
+    /**
+     * @return lock of the directory or null if it's held by another process
+     */
+    static FileLock lock(Path directory) throws IOException {
+        FileChannel file = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock    lock;
+        try {
+            lock = file.tryLock();
+        } catch (OverlappingFileLockException ex) {
+            lock = null;
+        }
+        if (lock == null) {
+            file.close();
+        }
+        return lock;
+    }
+
+    static boolean isListening(Path directory) throws IOException {
+        if (DIRECTORIES.contains(directory)) {
+            return true;
+        }
+        Path path = directory.resolve(LOCK_FILE);
+        if (!Files.exists(path)) {
+            return false;
+        }
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            FileLock lock = file.tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+package sexy.kostya.proto4j.transport.packet;
+
+import sexy.kostya.proto4j.transport.Channel;
+
+import java.net.InetSocketAddress;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Codec which passes packets to the peer as is, without splitting them into datagrams, signing or confirming them.
+ * Received packets are handled one at a time in the order they were sent.
+ */
+public abstract class DirectCodec extends PacketCodec {
+
+    private final Queue<Proto4jPacket> received    = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean        dispatching = new AtomicBoolean();
+
+    protected volatile Channel channel;
+
+    DirectCodec(InetSocketAddress address) {
+        super(address);
+    }
+
+    /**
+     * Sets the channel which handler receives packets of this codec.
+     */
+    public void bind(Channel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Disconnects the channel from its peer: packets sent by either of them are dropped from now on.
+     */
+    public abstract void close();
+
+    @Override
+    public void read(Proto4jPacket packet) {
+        this.received.add(packet);
+        dispatch();
+    }
+
+    private void dispatch() {
+        while (!this.received.isEmpty() && this.dispatching.compareAndSet(false, true)) {
+            Proto4jPacket packet = this.received.poll();
+            if (packet == null) {
+                this.dispatching.set(false);
+                continue;
+            }
+            // the handler might have been replaced while handling the previous packet (i.e. after handshaking)
+            Proto4jPacketHandler handler = this.channel.getHandler();
+            if (handler == null) {
+                packet.getBuffer().release();
+                this.dispatching.set(false);
+                continue;
+            }
+            handler.handle0(packet, () -> {
+                packet.getBuffer().release();
+                this.dispatching.set(false);
+                dispatch();
+            });
+            return;
+        }
+    }
+
+}
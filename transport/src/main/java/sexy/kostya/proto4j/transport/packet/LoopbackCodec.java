@@ -0,0 +1,65 @@
+package sexy.kostya.proto4j.transport.packet;
+
+import sexy.kostya.proto4j.transport.Channel;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Codec of a channel which peer lives in the same JVM: packets are handed over to the peer's channel directly.
+ */
+public class LoopbackCodec extends DirectCodec {
+
+    private volatile Channel peer;
+
+    public LoopbackCodec(InetSocketAddress address) {
+        super(address);
+    }
+
+    /**
+     * Connects channels which codecs are both {@link LoopbackCodec}s to each other.
+     */
+    public static void link(Channel first, Channel second) {
+        LoopbackCodec firstCodec  = (LoopbackCodec) first.getCodec();
+        LoopbackCodec secondCodec = (LoopbackCodec) second.getCodec();
+        firstCodec.bind(first);
+        firstCodec.peer = second;
+        secondCodec.bind(second);
+        secondCodec.peer = first;
+    }
+
+    /**
+     * Disconnects the channel from its peer: packets sent by either of them are dropped from now on.
+     */
+    public void unlink() {
+        Channel peer = this.peer;
+        this.peer = null;
+        if (peer != null) {
+            ((LoopbackCodec) peer.getCodec()).peer = null;
+        }
+    }
+
+    public boolean isLinked() {
+        return this.peer != null;
+    }
+
+    @Override
+    public void close() {
+        unlink();
+    }
+
+    @Override
+    public void write(Proto4jPacket packet) {
+        Channel peer = this.peer;
+        if (peer == null) {
+            packet.getBuffer().release();
+            return;
+        }
+        CompletableFuture<Void> delivery = packet.getDelivery();
+        if (delivery != null) {
+            delivery.complete(null);
+        }
+        peer.recv(packet);
+    }
+
+}
@@ -0,0 +1,47 @@
+package sexy.kostya.proto4j.transport.packet;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+
+/**
+ * Ordered accesses of the memory shared with another process: plain accesses of the mapped buffer can't publish the data.
+ */
+final class MappedMemory {
+
+    private final static Unsafe UNSAFE;
+
+    static {
+        Unsafe unsafe;
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = (Unsafe) field.get(null);
+        } catch (Throwable t) {
+            unsafe = null;
+        }
+        UNSAFE = unsafe;
+    }
+
+    private MappedMemory() {
+    }
+
+    static boolean isAvailable() {
+        return UNSAFE != null;
+    }
+
+    /**
+     * Accesses of the memory after this load are not moved before it.
+     */
+    static long getAcquire(long address) {
+        return UNSAFE.getLongVolatile(null, address);
+    }
+
+    /**
+     * Accesses of the memory before this store are not moved after it.
+     */
+    static void putRelease(long address, long value) {
+        UNSAFE.putOrderedLong(null, address, value);
+    }
+
+}
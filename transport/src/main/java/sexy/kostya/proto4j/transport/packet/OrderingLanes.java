@@ -0,0 +1,88 @@
+package sexy.kostya.proto4j.transport.packet;
+
+import sexy.kostya.proto4j.commons.Proto4jProperties;
+import sexy.kostya.proto4j.transport.Channel;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Lanes the {@link Proto4jPacket.Flag#KEYED} packets are handled on: packets of the same ordering key always go to the same lane,
+ * which handles them one at a time in the order they were submitted, while different lanes are handled in parallel.
+ */
+class OrderingLanes {
+
+    final static int LANES = Proto4jProperties.getProperty("orderingLanes", 16);
+
+    private final Lane[]                         lanes;
+    private final AtomicInteger                  pending = new AtomicInteger();
+    private final Consumer<Proto4jPacketHandler> drained;
+
+    /**
+     * @param drained called with the current handler once all the submitted packets are handled
+     */
+    OrderingLanes(int count, Consumer<Proto4jPacketHandler> drained) {
+        this.lanes = new Lane[count];
+        for (int i = 0; i < count; ++i) {
+            this.lanes[i] = new Lane();
+        }
+        this.drained = drained;
+    }
+
+    void submit(Proto4jPacket packet, Proto4jPacketHandler handler) {
+        Lane lane = this.lanes[(packet.getOrderingKey() & 0xFF) % this.lanes.length];
+        this.pending.incrementAndGet();
+        lane.queue.add(packet);
+        lane.dispatch(handler);
+    }
+
+    /**
+     * @return whether all the submitted packets are handled
+     */
+    boolean isDrained() {
+        return this.pending.get() == 0;
+    }
+
+    private void handled(Proto4jPacketHandler handler) {
+        if (this.pending.decrementAndGet() == 0) {
+            this.drained.accept(handler);
+        }
+    }
+
+    private class Lane {
+
+        private final Queue<Proto4jPacket> queue       = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean        dispatching = new AtomicBoolean();
+
+        private void dispatch(Proto4jPacketHandler handler) {
+            while (!this.queue.isEmpty() && this.dispatching.compareAndSet(false, true)) {
+                Proto4jPacket packet = this.queue.poll();
+                if (packet == null) {
+                    this.dispatching.set(false);
+                    continue;
+                }
+                if (handler == null) {
+                    packet.getBuffer().release();
+                    this.dispatching.set(false);
+                    handled(null);
+                    continue;
+                }
+                handler.handle0(packet, () -> {
+                    packet.getBuffer().release();
+                    this.dispatching.set(false);
+                    // the handler might have been replaced while handling the packet (i.e. after handshaking)
+                    Channel              channel = handler.getChannel();
+                    Proto4jPacketHandler current = channel == null ? handler : channel.getHandler();
+                    handled(current);
+                    dispatch(current);
+                });
+                return;
+            }
+        }
+
+    }
+
+}
@@ -1,6 +1,8 @@
 package sexy.kostya.proto4j.transport.packet;
 
-import java.net.DatagramSocket;
+import sexy.kostya.proto4j.commons.Proto4jException;
+import sexy.kostya.proto4j.transport.datagram.DatagramTransport;
+
 import java.net.InetSocketAddress;
 
 /**
@@ -8,22 +10,44 @@ import java.net.InetSocketAddress;
  */
 public class PacketCodec {
 
-    private final DatagramSocket     socket;
+    private final DatagramTransport  transport;
     private final InetSocketAddress  address;
     private final PacketEncoder      encoder;
     private final PacketDecoder      decoder;
     private final ReliabilityChecker reliabilityChecker;
 
-    public PacketCodec(DatagramSocket socket, InetSocketAddress address) {
-        this.socket = socket;
+    public PacketCodec(DatagramTransport transport, InetSocketAddress address) {
+        this.transport = transport;
         this.address = address;
         this.encoder = new PacketEncoder(this);
         this.decoder = new PacketDecoder(this);
         this.reliabilityChecker = new ReliabilityChecker(this);
     }
 
-    public DatagramSocket getSocket() {
-        return this.socket;
+    /**
+     * Creates the codec which doesn't split packets into datagrams, so there's nothing to be checked for reliability.
+     */
+    PacketCodec(InetSocketAddress address) {
+        this.transport = null;
+        this.address = address;
+        this.encoder = new PacketEncoder(this);
+        this.decoder = new PacketDecoder(this);
+        this.reliabilityChecker = null;
+    }
+
+    public void write(Proto4jPacket packet) {
+        this.encoder.write(packet);
+    }
+
+    /**
+     * Receives the packet passed as is by the peer, e.g. in-memory or through shared memory.
+     */
+    public void read(Proto4jPacket packet) {
+        throw new Proto4jException("Datagram codec can't receive packets as is");
+    }
+
+    public DatagramTransport getTransport() {
+        return this.transport;
     }
 
     public InetSocketAddress getAddress() {
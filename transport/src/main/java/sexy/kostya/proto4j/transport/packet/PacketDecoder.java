@@ -3,24 +3,40 @@ package sexy.kostya.proto4j.transport.packet;
 import com.google.common.base.Preconditions;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import sexy.kostya.proto4j.transport.Channel;
 import sexy.kostya.proto4j.transport.buffer.Buffer;
 import sexy.kostya.proto4j.transport.buffer.BufferImpl;
 import sexy.kostya.proto4j.transport.util.DatagramHelper;
 
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by k.shandurenko on 30.09.2020
  */
 public class PacketDecoder {
 
+    /**
+     * Placeholder for sequence numbers which must be passed by without handling.
+     */
+    private final static Proto4jPacket SKIPPED = new Proto4jPacket((byte) 0, null);
+
     private final PacketCodec codec;
 
-    private final AtomicInteger                    sequence = new AtomicInteger();
-    private final Map<Integer, Proto4jPacket>      order    = new ConcurrentHashMap<>();
-    private final Map<Integer, Map<Short, Buffer>> partites = new ConcurrentHashMap<>();
+    private final AtomicInteger                    sequence           = new AtomicInteger();
+    private final Map<Long, AtomicInteger>         sequencedSequences = new ConcurrentHashMap<>();
+    private final AtomicBoolean                    dispatching        = new AtomicBoolean();
+    private final Map<Integer, Proto4jPacket>      order              = new ConcurrentHashMap<>();
+    private final Map<Integer, PartialPacket>      partites           = new ConcurrentHashMap<>();
+    private final Object                           lossDetection      = new Object();
+    private       int                              inspected          = DatagramHelper.getPreviousSequenceNumber(0);
+    private volatile OrderingLanes                 lanes;
+    private final AtomicLong                       receivedDatagrams  = new AtomicLong();
 
     PacketDecoder(PacketCodec codec) {
         this.codec = codec;
@@ -63,11 +79,19 @@ public class PacketDecoder {
         handle.resetReaderIndex();
         handle = handle.slice(handle.readerIndex(), length);
         bufferImpl.setHandle(handle);
+        this.receivedDatagrams.incrementAndGet();
 
         if ((flags & Proto4jPacket.Flag.CONFIRMATION) != 0) {
             if ((flags & Proto4jPacket.Flag.PARTIAL) != 0) {
-                short index = buffer.readShort();
-                this.codec.getReliabilityChecker().remove(sequenceNumber, index);
+                short  offset = buffer.readShort();
+                byte[] bitmap = new byte[buffer.readableBytes()];
+                buffer.readBytes(bitmap);
+                this.codec.getReliabilityChecker().remove(sequenceNumber, offset, BitSet.valueOf(bitmap));
+            } else if ((flags & Proto4jPacket.Flag.CANCELLED) != 0) {
+                this.codec.getReliabilityChecker().retransmit(sequenceNumber);
+                while (buffer.readableBytes() >= 4) {
+                    this.codec.getReliabilityChecker().retransmit(buffer.readInt());
+                }
             } else {
                 this.codec.getReliabilityChecker().remove(sequenceNumber);
             }
@@ -75,37 +99,82 @@ public class PacketDecoder {
             return true;
         }
 
+        if (!Proto4jPacket.Flag.isSequenced(flags)) {
+            detectLosses(sequenceNumber);
+        }
+
+        if ((flags & Proto4jPacket.Flag.CANCELLED) != 0) {
+            this.codec.getEncoder().writeConfirmation(sequenceNumber);
+            buffer.release();
+            releasePartites(sequenceNumber);
+            if (!isObsolete(sequenceNumber) && this.order.putIfAbsent(sequenceNumber, SKIPPED) == null) {
+                dispatch(handler);
+            }
+            return true;
+        }
+
         if ((flags & Proto4jPacket.Flag.PARTIAL) != 0) {
             short index = buffer.readShort();
             short total = buffer.readShort();
             handle = handle.slice(handle.readerIndex(), length - 4);
             bufferImpl.setHandle(handle);
-            Map<Short, Buffer> part = this.partites.computeIfAbsent(sequenceNumber, sn -> new ConcurrentHashMap<>());
-            this.codec.getEncoder().writeConfirmationPartite(sequenceNumber, index);
-            if (part.containsKey(index)) {
+            if (index < 0 || total <= 0 || index >= total && !PartialPacket.isValidParity(buffer, total, index - total)) {
+                buffer.release();
+                return false;
+            }
+            if (isObsolete(sequenceNumber) || this.order.containsKey(sequenceNumber)) {
+                if (index < total) {
+                    // the packet is already assembled, so our confirmation must have been lost
+                    this.codec.getEncoder().writeConfirmationPartites(sequenceNumber, total, DatagramHelper.ZERO_LENGTH_ARRAY);
+                }
                 buffer.release();
                 return true;
             }
-            part.put(index, buffer);
-            if (part.size() < total) {
+            PartialPacket part = this.partites.computeIfAbsent(sequenceNumber, sn -> new PartialPacket(total));
+            boolean       assembled;
+            byte[]        bitmap;
+            short         offset;
+            synchronized (part) {
+                if (this.partites.get(sequenceNumber) != part || part.parts.length != total) {
+                    buffer.release();
+                    return true;
+                }
+                boolean confirm;
+                // parity parts are indexed after the data ones
+                if (index >= total) {
+                    confirm = part.addParity((short) (index - total), buffer) && part.recover((short) (index - total));
+                } else {
+                    confirm = part.add(index, buffer);
+                }
+                assembled = part.received == total && this.partites.remove(sequenceNumber, part);
+                if (assembled) {
+                    offset = total;
+                    bitmap = DatagramHelper.ZERO_LENGTH_ARRAY;
+                } else if (confirm) {
+                    offset = part.getFirstMissing();
+                    bitmap = part.getBitmap(offset);
+                } else {
+                    return true;
+                }
+            }
+            this.codec.getEncoder().writeConfirmationPartites(sequenceNumber, offset, bitmap);
+            if (!assembled) {
                 return true;
             }
+            part.releaseParities();
             int sumLength = 0;
             for (short i = 0; i < total; ++i) {
-                Buffer buf = part.get(i);
+                Buffer buf = part.parts[i];
                 Preconditions.checkState(buf != null, "For packet %s part %s is not present", sequenceNumber, i);
                 sumLength += buf.readableBytes();
             }
-            this.partites.remove(sequenceNumber);
             ByteBuf newHandle = Unpooled.buffer(sumLength, sumLength);
             for (short i = 0; i < total; ++i) {
-                Buffer buf = part.get(i);
+                Buffer buf = part.parts[i];
                 newHandle.writeBytes(((BufferImpl) buf).getHandle());
-                if (buf != buffer) {
-                    buf.release();
-                }
+                buf.release();
             }
-            bufferImpl.setHandle(newHandle);
+            buffer = Buffer.wrap(newHandle);
             flags &= ~Proto4jPacket.Flag.PARTIAL;
         } else {
             bufferImpl.setHandle(handle.slice(handle.readerIndex(), length));
@@ -113,35 +182,347 @@ public class PacketDecoder {
                 this.codec.getEncoder().writeConfirmation(sequenceNumber);
             }
         }
-        Proto4jPacket packet = new Proto4jPacket(sequenceNumber, flags, buffer);
-        if ((flags & Proto4jPacket.Flag.UNORDERED) != 0) {
-            handle(packet, handler);
+        byte orderingKey = 0;
+        if (Proto4jPacket.Flag.isKeyed(flags)) {
+            if (buffer.readableBytes() == 0) {
+                buffer.release();
+                return false;
+            }
+            orderingKey = buffer.readByte();
+        }
+        Proto4jPacket packet = new Proto4jPacket(sequenceNumber, flags, orderingKey, buffer);
+        if (Proto4jPacket.Flag.isSequenced(flags)) {
+            if (buffer.readableBytes() < 8) {
+                buffer.release();
+                return false;
+            }
+            packet.setSequenceKey(buffer.readLong());
+            handleSequenced(packet, handler);
             return true;
         }
-        if (this.sequence.get() == sequenceNumber) {
-            handle(packet, handler);
-        } else {
-            this.order.put(sequenceNumber, packet);
+        if (isObsolete(sequenceNumber)) {
+            buffer.release();
+            return true;
         }
+        if ((flags & Proto4jPacket.Flag.UNORDERED) != 0 && !Proto4jPacket.Flag.isKeyed(flags)) {
+            // the sequence number is still occupied in the ordered stream, so leave a placeholder for it
+            if (this.order.putIfAbsent(sequenceNumber, SKIPPED) != null) {
+                buffer.release();
+                return true;
+            }
+            if (handler != null) {
+                handler.handle0(packet, buffer::release);
+            } else {
+                buffer.release();
+            }
+        } else if (this.order.putIfAbsent(sequenceNumber, packet) != null) {
+            buffer.release();
+            return true;
+        }
+        dispatch(handler);
         return true;
     }
 
-    private void handle(Proto4jPacket packet, Proto4jPacketHandler handler) {
+    private void releasePartites(int sequenceNumber) {
+        PartialPacket part = this.partites.remove(sequenceNumber);
+        if (part != null) {
+            synchronized (part) {
+                for (Buffer buf : part.parts) {
+                    if (buf != null) {
+                        buf.release();
+                    }
+                }
+                part.releaseParities();
+            }
+        }
+    }
+
+    /**
+     * Packets preceding the received one by two sequence numbers or more and still not received are considered lost.
+     * Each sequence number is inspected only once, so the sender is reported about each loss at most once: in case
+     * the retransmission is lost too the reliability threshold takes care of it.
+     */
+    private void detectLosses(int sequenceNumber) {
+        int[] lost  = null;
+        int   count = 0;
+        synchronized (this.lossDetection) {
+            int last     = DatagramHelper.getPreviousSequenceNumber(DatagramHelper.getPreviousSequenceNumber(sequenceNumber));
+            int expected = this.sequence.get();
+            int current  = DatagramHelper.isNewerSequenceNumber(expected, this.inspected) ? expected : DatagramHelper.getNextSequenceNumber(this.inspected);
+            while (current == last || DatagramHelper.isNewerSequenceNumber(last, current)) {
+                if (!this.order.containsKey(current) && !this.partites.containsKey(current)) {
+                    if (lost == null) {
+                        lost = new int[DatagramHelper.MAX_NEGATIVE_CONFIRMATIONS];
+                    }
+                    lost[count++] = current;
+                }
+                this.inspected = current;
+                if (lost != null && count == lost.length) {
+                    break;
+                }
+                current = DatagramHelper.getNextSequenceNumber(current);
+            }
+        }
+        if (count != 0) {
+            this.codec.getEncoder().writeNegativeConfirmation(lost, count);
+        }
+    }
+
+    /**
+     * Checks whether the packet with given sequence number was already handled or skipped.
+     */
+    private boolean isObsolete(int sequenceNumber) {
+        int expected = this.sequence.get();
+        return sequenceNumber != expected && !DatagramHelper.isNewerSequenceNumber(sequenceNumber, expected);
+    }
+
+    /**
+     * Hands the next expected packets over to the handler one at a time.
+     */
+    private void dispatch(Proto4jPacketHandler handler) {
+        while (this.dispatching.compareAndSet(false, true)) {
+            int           sequenceNumber = this.sequence.get();
+            Proto4jPacket packet         = this.order.get(sequenceNumber);
+            if (packet == null) {
+                this.dispatching.set(false);
+                if (this.order.containsKey(this.sequence.get())) {
+                    continue;
+                }
+                return;
+            }
+            OrderingLanes lanes = this.lanes;
+            if (packet != SKIPPED && !Proto4jPacket.Flag.isKeyed(packet.getFlags()) && lanes != null && !lanes.isDrained()) {
+                // the packet is ordered against the keyed ones sent before it, so it's dispatched once the lanes drain
+                this.dispatching.set(false);
+                if (lanes.isDrained()) {
+                    continue;
+                }
+                return;
+            }
+            this.order.remove(sequenceNumber);
+            this.sequence.set(DatagramHelper.getNextSequenceNumber(sequenceNumber));
+            if (packet == SKIPPED) {
+                this.dispatching.set(false);
+                continue;
+            }
+            if (handler == null) {
+                packet.getBuffer().release();
+                this.dispatching.set(false);
+                continue;
+            }
+            if (Proto4jPacket.Flag.isKeyed(packet.getFlags())) {
+                // the lane keeps the order of the key, so the next packets needn't wait for this one
+                getLanes().submit(packet, handler);
+                this.dispatching.set(false);
+                continue;
+            }
+            handler.handle0(packet, () -> {
+                packet.getBuffer().release();
+                this.dispatching.set(false);
+                // the handler might have been replaced while handling the packet (i.e. after handshaking)
+                Channel channel = handler.getChannel();
+                dispatch(channel == null ? handler : channel.getHandler());
+            });
+            return;
+        }
+    }
+
+    /**
+     * @return total amount of datagrams received intact, including confirmations
+     */
+    public long getReceivedDatagrams() {
+        return this.receivedDatagrams.get();
+    }
+
+    private OrderingLanes getLanes() {
+        OrderingLanes lanes = this.lanes;
+        if (lanes == null) {
+            synchronized (this) {
+                lanes = this.lanes;
+                if (lanes == null) {
+                    this.lanes = lanes = new OrderingLanes(OrderingLanes.LANES, this::dispatch);
+                }
+            }
+        }
+        return lanes;
+    }
+
+    /**
+     * Handles the packet only if it's newer than the newest one of its sequence key, keys are tracked separately.
+     */
+    private void handleSequenced(Proto4jPacket packet, Proto4jPacketHandler handler) {
+        AtomicInteger latest = this.sequencedSequences.get(packet.getSequenceKey());
+        if (latest == null) {
+            // the keys are chosen by the remote side, so they're limited
+            if (this.sequencedSequences.size() >= DatagramHelper.MAX_SEQUENCE_KEYS) {
+                packet.getBuffer().release();
+                return;
+            }
+            latest = this.sequencedSequences.computeIfAbsent(packet.getSequenceKey(), key -> new AtomicInteger(-1));
+        }
+        int sequenceNumber = packet.getSequenceNumber();
+        int last;
+        do {
+            last = latest.get();
+            if (last != -1 && !DatagramHelper.isNewerSequenceNumber(sequenceNumber, last)) {
+                packet.getBuffer().release();
+                return;
+            }
+        } while (!latest.compareAndSet(last, sequenceNumber));
         if (handler != null) {
-            handler.handle0(packet, () -> finalize(packet, handler));
+            handler.handle0(packet, () -> packet.getBuffer().release());
         } else {
-            finalize(packet, null);
+            packet.getBuffer().release();
         }
     }
 
-    private void finalize(Proto4jPacket packet, Proto4jPacketHandler handler) {
-        packet.getBuffer().release();
-        int nextSequenceNumber = DatagramHelper.getNextSequenceNumber(packet.getSequenceNumber());
-        this.sequence.set(nextSequenceNumber);
-        Proto4jPacket nextPacket = this.order.remove(nextSequenceNumber);
-        if (nextPacket != null) {
-            handle(nextPacket, handler);
+
+    /**
+     * Parts of the packet received so far. Guarded by its own monitor.
+     */
+    private static class PartialPacket {
+
+        private final Buffer[]           parts;
+        private final Map<Short, Buffer> parities = new HashMap<>();
+        private       int                received;
+        private       int                highest  = -1;
+        private       int                unconfirmed;
+        private       int                firstMissing;
+        private       int                parityGroupSize;
+
+        private PartialPacket(short total) {
+            this.parts = new Buffer[total];
+        }
+
+        /**
+         * @return whether the receiver should confirm received parts now: either several parts were received
+         * since the last confirmation, or parts arrived out of order, or the last part was received, or a duplicate
+         * was received (the sender hasn't got our confirmation)
+         */
+        private boolean add(short index, Buffer buffer) {
+            if (this.parts[index] != null) {
+                buffer.release();
+                return true;
+            }
+            this.parts[index] = buffer;
+            ++this.received;
+            boolean gap = index != this.highest + 1 || index == this.parts.length - 1;
+            this.highest = Math.max(this.highest, index);
+            if (!this.parities.isEmpty() && recover((short) (index / this.parityGroupSize))) {
+                gap = true;
+            }
+            return gap || ++this.unconfirmed >= DatagramHelper.PARTIAL_CONFIRMATION_INTERVAL;
+        }
+
+        private boolean addParity(short group, Buffer buffer) {
+            int groupSize = getParityGroupSize(buffer);
+            if (this.parityGroupSize != 0 && this.parityGroupSize != groupSize || this.parities.putIfAbsent(group, buffer) != null) {
+                buffer.release();
+                return false;
+            }
+            this.parityGroupSize = groupSize;
+            return true;
+        }
+
+        /**
+         * Restores the only missing part of the group using its parity part.
+         * Parity part consists of the group size, xored lengths and xored bodies of the group's parts.
+         *
+         * @return whether the part was restored
+         */
+        private boolean recover(short group) {
+            Buffer parity = this.parities.get(group);
+            if (parity == null) {
+                return false;
+            }
+            int from    = group * this.parityGroupSize;
+            int to      = Math.min(this.parts.length, from + this.parityGroupSize);
+            int missing = -1;
+            for (int i = from; i < to; ++i) {
+                if (this.parts[i] == null) {
+                    if (missing != -1) {
+                        return false;
+                    }
+                    missing = i;
+                }
+            }
+            this.parities.remove(group);
+            if (missing == -1) {
+                parity.release();
+                return false;
+            }
+            ByteBuf parityHandle = ((BufferImpl) parity).getHandle();
+            int     length       = parityHandle.getShort(parityHandle.readerIndex() + 2);
+            byte[]  data         = new byte[parityHandle.readableBytes() - 4];
+            parityHandle.getBytes(parityHandle.readerIndex() + 4, data);
+            parity.release();
+            for (int i = from; i < to; ++i) {
+                if (i == missing) {
+                    continue;
+                }
+                ByteBuf fragment = ((BufferImpl) this.parts[i]).getHandle();
+                int     offset   = fragment.readerIndex();
+                int     len      = fragment.readableBytes();
+                if (len > data.length) {
+                    // the parity doesn't match the parts, so the missing one is left to retransmission
+                    return false;
+                }
+                length ^= len;
+                for (int j = 0; j < len; ++j) {
+                    data[j] ^= fragment.getByte(offset + j);
+                }
+            }
+            if (length < 0 || length > data.length) {
+                return false;
+            }
+            this.parts[missing] = Buffer.wrap(Unpooled.wrappedBuffer(data, 0, length));
+            ++this.received;
+            return true;
         }
+
+        private short getFirstMissing() {
+            while (this.firstMissing < this.parts.length && this.parts[this.firstMissing] != null) {
+                ++this.firstMissing;
+            }
+            return (short) this.firstMissing;
+        }
+
+        /**
+         * @return bitmap of received parts starting with the offset which fits into a single datagram
+         */
+        private byte[] getBitmap(short offset) {
+            this.unconfirmed = 0;
+            int    limit  = Math.min(this.parts.length, offset + DatagramHelper.MAX_CONFIRMATION_BITMAP_SIZE * 8);
+            BitSet bitmap = new BitSet(limit - offset);
+            for (int i = offset; i < limit; ++i) {
+                if (this.parts[i] != null) {
+                    bitmap.set(i - offset);
+                }
+            }
+            return bitmap.toByteArray();
+        }
+
+        private void releaseParities() {
+            this.parities.values().forEach(Buffer::release);
+            this.parities.clear();
+        }
+
+        /**
+         * Checks the parity part received from the remote side before its group size is used to locate the group.
+         */
+        private static boolean isValidParity(Buffer parity, short total, int group) {
+            if (parity.readableBytes() < 4) {
+                return false;
+            }
+            int groupSize = getParityGroupSize(parity);
+            return groupSize > 0 && groupSize <= total && group < (total + groupSize - 1) / groupSize;
+        }
+
+        private static int getParityGroupSize(Buffer parity) {
+            ByteBuf handle = ((BufferImpl) parity).getHandle();
+            return handle.getShort(handle.readerIndex());
+        }
+
     }
 
 }
@@ -4,14 +4,22 @@ import com.google.common.base.Preconditions;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import sexy.kostya.proto4j.commons.Proto4jException;
+import sexy.kostya.proto4j.transport.NamedThreadFactory;
 import sexy.kostya.proto4j.transport.buffer.Buffer;
 import sexy.kostya.proto4j.transport.buffer.BufferImpl;
+import sexy.kostya.proto4j.transport.datagram.DatagramTransport;
 import sexy.kostya.proto4j.transport.util.DatagramHelper;
+import sexy.kostya.proto4j.transport.util.TokenBucket;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by k.shandurenko on 30.09.2020
@@ -20,7 +28,20 @@ public class PacketEncoder {
 
     private final PacketCodec codec;
 
-    private final AtomicInteger sequence = new AtomicInteger();
+    private final static ScheduledExecutorService PACING_EXECUTOR = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Proto4j Pacing Thread", true));
+
+    private final AtomicInteger sequence          = new AtomicInteger();
+    private final AtomicInteger sequencedSequence = new AtomicInteger();
+
+    private final    Queue<byte[]>[] queues     = newQueues();
+    private final    AtomicInteger   queueDepth = new AtomicInteger();
+    private final    AtomicBoolean   draining   = new AtomicBoolean();
+    private          boolean         reserved;
+    private volatile long            pacedTime;
+    private volatile TokenBucket[]   rateLimits = new TokenBucket[0];
+
+    private final AtomicLong sentDatagrams          = new AtomicLong();
+    private final AtomicLong retransmittedDatagrams = new AtomicLong();
 
     PacketEncoder(PacketCodec codec) {
         this.codec = codec;
@@ -28,21 +49,51 @@ public class PacketEncoder {
 
     public void write(Proto4jPacket packet) {
         if (packet.getSequenceNumber() == -1) {
-            packet.setSequenceNumber(this.sequence.getAndUpdate(DatagramHelper::getNextSequenceNumber));
+            // sequenced packets are numbered separately so that dropping them never stalls ordered ones
+            AtomicInteger counter = Proto4jPacket.Flag.isSequenced(packet.getFlags()) ? this.sequencedSequence : this.sequence;
+            packet.setSequenceNumber(counter.getAndUpdate(DatagramHelper::getNextSequenceNumber));
+        }
+        Object key = packet.getKey();
+        if (key != null && (packet.getFlags() & Proto4jPacket.Flag.UNRELIABLE) == 0) {
+            this.codec.getReliabilityChecker().supersede(key, packet.getSequenceNumber());
+        } else {
+            key = null;
+        }
+        if (packet.getDelivery() != null) {
+            this.codec.getReliabilityChecker().expire(packet.getSequenceNumber(), packet.getTimeToLive(), packet.getDelivery());
         }
         BufferImpl buffer = (BufferImpl) packet.getBuffer();
         ByteBuf    handle = buffer.getHandle();
-        write(packet.getSequenceNumber(), packet.getFlags(), handle, 0, handle.writerIndex());
+        ByteBuf    prefix = null;
+        if (Proto4jPacket.Flag.isKeyed(packet.getFlags())) {
+            prefix = Unpooled.wrappedBuffer(new byte[]{packet.getOrderingKey()});
+        } else if (Proto4jPacket.Flag.isSequenced(packet.getFlags())) {
+            prefix = Unpooled.buffer(8, 8).writeLong(packet.getSequenceKey());
+        }
+        if (prefix != null) {
+            // the key precedes the body without copying it
+            handle = Unpooled.wrappedBuffer(prefix, handle.retain());
+            write(packet, key, handle, 0, handle.writerIndex());
+            handle.release();
+        } else {
+            write(packet, key, handle, 0, handle.writerIndex());
+        }
         buffer.release();
     }
 
-    private void write(int sequenceNumber, byte flags, ByteBuf handle, int offset, int length) {
-        short bodyLength   = (short) length;
+    private void write(Proto4jPacket packet, Object key, ByteBuf handle, int offset, int length) {
+        int   sequenceNumber  = packet.getSequenceNumber();
+        byte  flags           = packet.getFlags();
+        int   parityGroupSize = packet.getParityGroupSize();
+        short bodyLength      = (short) length;
         short packetLength = (short) (bodyLength + DatagramHelper.HEADER_LENGTH + DatagramHelper.CRC_LENGTH);
         if (packetLength > DatagramHelper.MAX_DATAGRAM_SIZE) {
             Preconditions.checkState((flags & Proto4jPacket.Flag.INDIVISIBLE) == 0, "The packet is too huge, but indivisible: it can't be sent");
             flags |= Proto4jPacket.Flag.PARTIAL;
             int   capacity        = DatagramHelper.MAX_DATAGRAM_SIZE - DatagramHelper.HEADER_LENGTH - DatagramHelper.CRC_LENGTH - 4;
+            if (parityGroupSize != 0) {
+                capacity -= 4; // room for group size and xored lengths in parity fragments
+            }
             short total           = (short) Math.ceil((float) bodyLength / capacity);
             short extraBodyLength = (short) (bodyLength + 4 * total);
             int   extraCapacity   = capacity + 4;
@@ -54,6 +105,9 @@ public class PacketEncoder {
                 extraBodyLength += 4 * (newTotal - total);
                 total = newTotal;
             }
+            Proto4jPacket.Flag.validate(flags);
+            ReliabilityChecker.ConfirmationAwaitingPartialPacket awaiting = this.codec.getReliabilityChecker().new ConfirmationAwaitingPartialPacket(sequenceNumber, key, packet.getPriority(), total);
+            awaiting.register();
             for (short i = 0; i < total; ++i) {
                 int len;
                 if (i == total - 1) {
@@ -61,15 +115,65 @@ public class PacketEncoder {
                 } else {
                     len = capacity;
                 }
-                write0(sequenceNumber, flags, handle, offset, len, i, total);
-                offset += capacity;
+                Buffer part = encode(sequenceNumber, flags, handle, offset + capacity * i, len, i, total);
+                if (awaiting.set(i, part)) {
+                    send(((BufferImpl) part).getHandle().array(), packet.getPriority());
+                }
+            }
+            if (parityGroupSize != 0) {
+                writeParity(packet, flags, handle, offset, bodyLength, capacity, total);
             }
         } else {
-            write0(sequenceNumber, flags, handle, offset, length, (short) 0, (short) 0);
+            write0(packet, key, handle, offset, length);
         }
     }
 
-    private void write0(int sequenceNumber, byte flags, ByteBuf handle, int offset, int length, short partiteIndex, short partiteTotal) {
+    private void write0(Proto4jPacket packet, Object key, ByteBuf handle, int offset, int length) {
+        Buffer newBuffer = encode(packet.getSequenceNumber(), packet.getFlags(), handle, offset, length, (short) 0, (short) 0);
+        byte[] array     = ((BufferImpl) newBuffer).getHandle().array();
+        if ((packet.getFlags() & Proto4jPacket.Flag.UNRELIABLE) == 0) {
+            this.codec.getReliabilityChecker().new ConfirmationAwaitingPacket(packet.getSequenceNumber(), key, packet.getPriority(), newBuffer).register();
+            send(array, packet.getPriority());
+        } else {
+            send(array, packet.getPriority());
+            newBuffer.release();
+        }
+    }
+
+    /**
+     * Sends parity fragments, each being the group size, xored lengths and xored bodies of the group's fragments.
+     * Parity fragments are indexed after the data ones and are sent only once.
+     */
+    private void writeParity(Proto4jPacket packet, byte flags, ByteBuf handle, int offset, int length, int capacity, short total) {
+        int groupSize = packet.getParityGroupSize();
+        int groups = (total + groupSize - 1) / groupSize;
+        Preconditions.checkState(total + groups <= Short.MAX_VALUE, "The packet is too huge to be sent with parity fragments");
+        byte[] fragment = new byte[capacity];
+        for (int group = 0; group < groups; ++group) {
+            byte[] parity       = new byte[capacity];
+            int    parityLength = 0;
+            int    xorLength    = 0;
+            for (int i = group * groupSize, to = Math.min(total, i + groupSize); i < to; ++i) {
+                int len = Math.min(capacity, length - capacity * i);
+                handle.getBytes(offset + capacity * i, fragment, 0, len);
+                for (int j = 0; j < len; ++j) {
+                    parity[j] ^= fragment[j];
+                }
+                xorLength ^= len;
+                parityLength = Math.max(parityLength, len);
+            }
+            ByteBuf parityHandle = Unpooled.buffer(parityLength + 4, parityLength + 4);
+            parityHandle.writeShort(groupSize);
+            parityHandle.writeShort(xorLength);
+            parityHandle.writeBytes(parity, 0, parityLength);
+            Buffer datagram = encode(packet.getSequenceNumber(), flags, parityHandle, 0, parityHandle.writerIndex(), (short) (total + group), total);
+            send(((BufferImpl) datagram).getHandle().array(), packet.getPriority());
+            datagram.release();
+            parityHandle.release();
+        }
+    }
+
+    private Buffer encode(int sequenceNumber, byte flags, ByteBuf handle, int offset, int length, short partiteIndex, short partiteTotal) {
         Proto4jPacket.Flag.validate(flags);
         short bodyLength = (short) length;
         if (partiteTotal != 0) {
@@ -98,27 +202,159 @@ public class PacketEncoder {
             crc = DatagramHelper.crc32(newHandle.array(), 0, DatagramHelper.HEADER_LENGTH);
         }
         newBuffer.writeInt(crc);
-        if ((flags & Proto4jPacket.Flag.UNRELIABLE) == 0) {
-            this.codec.getReliabilityChecker().new ConfirmationAwaitingPacket(
-                    sequenceNumber,
-                    partiteTotal == 0 ? -1 : partiteIndex,
-                    newBuffer
-            ).register();
-            send(newHandle.array());
-        } else {
-            send(newHandle.array());
-            newBuffer.release();
+        return newBuffer;
+    }
+
+    /**
+     * Encodes the datagram telling receiver to skip the packet with given sequence number.
+     */
+    Buffer encodeCancellation(int sequenceNumber) {
+        return encode(
+                sequenceNumber,
+                (byte) (Proto4jPacket.Flag.CANCELLED | Proto4jPacket.Flag.INDIVISIBLE),
+                null,
+                0,
+                0,
+                (short) 0,
+                (short) 0
+        );
+    }
+
+    /**
+     * Paces the datagrams sent via this encoder. Every datagram takes tokens from each of given buckets,
+     * so a bucket shared by several encoders limits their aggregate rate.
+     */
+    public void setRateLimits(TokenBucket... rateLimits) {
+        this.rateLimits = rateLimits;
+        drain();
+    }
+
+    /**
+     * @return amount of datagrams delayed by pacing
+     */
+    public int getQueueDepth() {
+        return this.queueDepth.get();
+    }
+
+    /**
+     * @return the last time a datagram delayed by pacing was actually sent
+     */
+    long getPacedTime() {
+        return this.pacedTime;
+    }
+
+    /**
+     * @return whether there are datagrams of given or higher priority delayed by pacing
+     */
+    boolean isQueued(Proto4jPacket.Priority priority) {
+        for (int i = 0; i <= priority.ordinal(); ++i) {
+            if (!this.queues[i].isEmpty()) {
+                return true;
+            }
         }
+        return false;
     }
 
-    void send(byte[] array) {
-        DatagramPacket packet = new DatagramPacket(array, array.length, this.codec.getAddress());
+    /**
+     * @return total amount of datagrams sent, including retransmitted ones
+     */
+    public long getSentDatagrams() {
+        return this.sentDatagrams.get();
+    }
+
+    /**
+     * @return total amount of datagrams sent again as they weren't confirmed in time or were reported lost
+     */
+    public long getRetransmittedDatagrams() {
+        return this.retransmittedDatagrams.get();
+    }
+
+    void resend(byte[] array, Proto4jPacket.Priority priority) {
+        this.retransmittedDatagrams.incrementAndGet();
+        send(array, priority);
+    }
+
+    void send(byte[] array, Proto4jPacket.Priority priority) {
+        if (this.rateLimits.length == 0 && this.queueDepth.get() == 0) {
+            send0(array);
+            return;
+        }
+        this.queues[priority.ordinal()].add(array);
+        this.queueDepth.incrementAndGet();
+        drain();
+    }
+
+    private void drain() {
+        if (this.draining.compareAndSet(false, true)) {
+            drain0();
+        }
+    }
+
+    /**
+     * Sends queued datagrams while there are enough tokens, otherwise schedules itself for the moment there would be.
+     * Datagrams of higher priority are always sent first.
+     * Must be called only by the one who has set the draining flag.
+     */
+    private void drain0() {
+        while (true) {
+            Queue<byte[]> queue = peekQueue();
+            if (queue == null) {
+                this.draining.set(false);
+                if (peekQueue() == null || !this.draining.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            if (!this.reserved) {
+                this.reserved = true;
+                long delay = 0;
+                for (TokenBucket bucket : this.rateLimits) {
+                    delay = Math.max(delay, bucket.reserve(queue.peek().length));
+                }
+                if (delay > 0) {
+                    // the reserved tokens are spent on whatever datagram is the first by then
+                    PACING_EXECUTOR.schedule(this::drain0, delay, TimeUnit.NANOSECONDS);
+                    return;
+                }
+            }
+            byte[] array = queue.poll();
+            this.queueDepth.decrementAndGet();
+            this.reserved = false;
+            try {
+                send0(array);
+            } catch (Proto4jException ignored) {
+                // treated just like a lost datagram
+            }
+            this.pacedTime = System.currentTimeMillis();
+        }
+    }
+
+    private Queue<byte[]> peekQueue() {
+        for (Queue<byte[]> queue : this.queues) {
+            if (!queue.isEmpty()) {
+                return queue;
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Queue<byte[]>[] newQueues() {
+        Queue<byte[]>[] queues = new Queue[Proto4jPacket.Priority.values().length];
+        for (int i = 0; i < queues.length; ++i) {
+            queues[i] = new ConcurrentLinkedQueue<>();
+        }
+        return queues;
+    }
+
+    private void send0(byte[] array) {
         try {
-            DatagramSocket socket = this.codec.getSocket();
-            if (socket.isClosed()) {
+            DatagramTransport transport = this.codec.getTransport();
+            if (transport.isClosed()) {
                 return;
             }
-            socket.send(packet);
+            transport.send(array, this.codec.getAddress());
+            this.sentDatagrams.incrementAndGet();
         } catch (IOException e) {
             throw new Proto4jException("Could not send packet", e);
         }
@@ -130,19 +366,44 @@ public class PacketEncoder {
                 (byte) (Proto4jPacket.Flag.CONFIRMATION | Proto4jPacket.Flag.UNRELIABLE | Proto4jPacket.Flag.INDIVISIBLE),
                 Buffer.wrap(DatagramHelper.ZERO_LENGTH_ARRAY)
         );
+        packet.setPriority(Proto4jPacket.Priority.HIGH);
+
+        write(packet);
+    }
+
+    /**
+     * Reports the sender about packets which were not received, so that they're retransmitted without waiting for the reliability threshold.
+     */
+    void writeNegativeConfirmation(int[] sequenceNumbers, int count) {
+        Buffer buffer = Buffer.newBuffer(4 * (count - 1));
+        for (int i = 1; i < count; ++i) {
+            buffer.writeInt(sequenceNumbers[i]);
+        }
+
+        Proto4jPacket packet = new Proto4jPacket(
+                sequenceNumbers[0],
+                (byte) (Proto4jPacket.Flag.CONFIRMATION | Proto4jPacket.Flag.CANCELLED | Proto4jPacket.Flag.UNRELIABLE | Proto4jPacket.Flag.INDIVISIBLE),
+                buffer
+        );
+        packet.setPriority(Proto4jPacket.Priority.HIGH);
 
         write(packet);
     }
 
-    void writeConfirmationPartite(int sequenceNumber, short index) {
-        Buffer buffer = Buffer.newBuffer(2);
-        buffer.writeShort(index);
+    /**
+     * Confirms all the parts with indices lesser than offset and the ones set in the bitmap starting with offset.
+     */
+    void writeConfirmationPartites(int sequenceNumber, short offset, byte[] bitmap) {
+        Buffer buffer = Buffer.newBuffer(2 + bitmap.length);
+        buffer.writeShort(offset);
+        buffer.writeBytes(bitmap);
 
         Proto4jPacket packet = new Proto4jPacket(
                 sequenceNumber,
                 (byte) (Proto4jPacket.Flag.CONFIRMATION | Proto4jPacket.Flag.UNRELIABLE | Proto4jPacket.Flag.INDIVISIBLE | Proto4jPacket.Flag.PARTIAL),
                 buffer
         );
+        packet.setPriority(Proto4jPacket.Priority.HIGH);
 
         write(packet);
     }
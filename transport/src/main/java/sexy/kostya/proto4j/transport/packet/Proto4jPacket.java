@@ -3,25 +3,52 @@ package sexy.kostya.proto4j.transport.packet;
 import com.google.common.base.Preconditions;
 import sexy.kostya.proto4j.transport.buffer.Buffer;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Created by k.shandurenko on 30.09.2020
  */
 public class Proto4jPacket {
 
-    private int    sequenceNumber = -1;
-    private byte   flags;
-    private Buffer buffer;
+    private int                     sequenceNumber = -1;
+    private byte                    flags;
+    private Buffer                  buffer;
+    private Object                  key;
+    private long                    timeToLive;
+    private int                     parityGroupSize;
+    private Priority                priority       = Priority.NORMAL;
+    private CompletableFuture<Void> delivery;
+    private byte                    orderingKey;
+    private boolean                 keyed;
+    private long                    sequenceKey;
 
     public Proto4jPacket(byte flags, Buffer buffer) {
         this(-1, flags, buffer);
     }
 
+    /**
+     * @param key packet will supersede the previous reliable packet sent with the same key
+     *            in case the latter is not yet confirmed by the receiver
+     */
+    public Proto4jPacket(Object key, byte flags, Buffer buffer) {
+        this(-1, flags, buffer);
+        this.key = key;
+    }
+
     public Proto4jPacket(int sequenceNumber, byte flags, Buffer buffer) {
         this.sequenceNumber = sequenceNumber;
         this.flags = flags;
         this.buffer = buffer;
     }
 
+    Proto4jPacket(int sequenceNumber, byte flags, byte orderingKey, Buffer buffer) {
+        this(sequenceNumber, flags, buffer);
+        this.orderingKey = orderingKey;
+        this.keyed = Flag.isKeyed(flags);
+    }
+
     public int getSequenceNumber() {
         return sequenceNumber;
     }
@@ -38,6 +65,102 @@ public class Proto4jPacket {
         return buffer;
     }
 
+    public Object getKey() {
+        return key;
+    }
+
+    public byte getOrderingKey() {
+        return orderingKey;
+    }
+
+    /**
+     * @return whether the ordering key is given by {@link #setOrderingKey(Object)} or read from the datagram
+     */
+    public boolean hasOrderingKey() {
+        return keyed;
+    }
+
+    /**
+     * Makes the packet {@link Flag#KEYED}: the receiver keeps it in order only with the packets of the same ordering key
+     * and handles packets of other keys in parallel. Only a single byte hash of the key is sent, so different keys may still share the order.
+     */
+    public void setOrderingKey(Object orderingKey) {
+        Preconditions.checkState((this.flags & (Flag.UNRELIABLE | Flag.UNORDERED | Flag.SEQUENCED)) == 0, "Only reliable ordered packet can be keyed");
+        int hash = orderingKey.hashCode();
+        this.orderingKey = (byte) (hash ^ hash >>> 8 ^ hash >>> 16 ^ hash >>> 24);
+        this.flags |= Flag.KEYED;
+        this.keyed = true;
+    }
+
+    public long getSequenceKey() {
+        return sequenceKey;
+    }
+
+    /**
+     * Assigns the {@link Flag#SEQUENCED} packet to a latest-wins stream: the receiver drops the packet only if it's older
+     * than the newest one of the same stream, so that packets carrying unrelated state don't drop each other.
+     */
+    public void setSequenceKey(long sequenceKey) {
+        Preconditions.checkState(Flag.isSequenced(this.flags), "Only sequenced packet can have a sequence key");
+        this.sequenceKey = sequenceKey;
+    }
+
+    /**
+     * Makes the sender stop retransmitting the packet once given time passes: receiver skips it then.
+     *
+     * @return stage which is completed when the packet is confirmed by the receiver
+     * or exceptionally with {@link java.util.concurrent.TimeoutException} when it expires
+     */
+    public CompletionStage<Void> expireAfter(long time, TimeUnit unit) {
+        Preconditions.checkArgument(time > 0, "Time to live must be positive");
+        Preconditions.checkState((this.flags & Flag.UNRELIABLE) == 0, "Unreliable packet can't expire");
+        this.timeToLive = unit.toMillis(time);
+        this.delivery = new CompletableFuture<>();
+        return this.delivery;
+    }
+
+    /**
+     * Enables forward error correction in case the packet is split into several datagrams:
+     * a parity datagram is sent for every group of data ones, so that receiver can restore
+     * a single lost datagram of the group without waiting for its retransmission.
+     *
+     * @param ratio amount of parity datagrams per data one, from 0 (exclusive) to 1 (inclusive)
+     */
+    public void setRedundancy(float ratio) {
+        Preconditions.checkArgument(ratio > 0 && ratio <= 1, "Redundancy ratio must be within (0; 1]");
+        Preconditions.checkState((this.flags & Flag.UNRELIABLE) == 0, "Unreliable packet can't be split, so it can't be redundant");
+        this.parityGroupSize = Math.round(1 / ratio);
+    }
+
+    int getParityGroupSize() {
+        return parityGroupSize;
+    }
+
+    long getTimeToLive() {
+        return timeToLive;
+    }
+
+    CompletableFuture<Void> getDelivery() {
+        return delivery;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Datagrams of packets with higher priority (including retransmitted ones) jump ahead of the ones delayed by pacing.
+     */
+    public void setPriority(Priority priority) {
+        this.priority = Preconditions.checkNotNull(priority);
+    }
+
+    public enum Priority {
+        HIGH,   // control packets: pings, confirmations, etc.
+        NORMAL,
+        LOW     // bulk data
+    }
+
     public static class Flag {
         public final static byte CONFIRMATION  = 0x01; // indicates that some packet was received
         public final static byte PARTIAL       = 0x02; // is a part of a large packet or a confirmation about part
@@ -45,6 +168,17 @@ public class Proto4jPacket {
         public final static byte UNSIGNED_BODY = 0x08; // only header is signed: therefore, data may be corrupted
         public final static byte UNRELIABLE    = 0x10; // explicitly mark that confirmation is not required
         public final static byte INDIVISIBLE   = 0x20; // explicitly mark that this packet can't be split into parts
+        public final static byte SEQUENCED     = 0x40; // only the newest packet of its sequence key, which is the first 8 bytes of the body, is handled: older ones are dropped on arrival
+        public final static byte CANCELLED     = (byte) 0x80; // packet with this sequence number was withdrawn by sender and must be skipped or, with confirmation, packets are lost
+        public final static byte KEYED         = UNORDERED | SEQUENCED; // ordered only among packets with the same ordering key, which is the first byte of the body: set only by setOrderingKey
+
+        public static boolean isSequenced(byte flags) {
+            return (flags & KEYED) == SEQUENCED;
+        }
+
+        public static boolean isKeyed(byte flags) {
+            return (flags & KEYED) == KEYED;
+        }
 
         public static void validate(byte flags) {
             if ((flags & CONFIRMATION) != 0) {
@@ -55,6 +189,15 @@ public class Proto4jPacket {
                 Preconditions.checkState((flags & UNRELIABLE) == 0, "Partial packet can't be unreliable");
                 Preconditions.checkState((flags & INDIVISIBLE) == 0, "Partial packet can't be indivisible");
             }
+            if ((flags & CANCELLED) != 0 && (flags & CONFIRMATION) == 0) {
+                Preconditions.checkState((flags & UNRELIABLE) == 0, "Cancellation packet can't be unreliable");
+                Preconditions.checkState((flags & PARTIAL) == 0, "Cancellation packet can't be partial");
+            }
+            if (isSequenced(flags)) {
+                Preconditions.checkState((flags & UNRELIABLE) != 0, "Sequenced packet must be unreliable");
+            } else if (isKeyed(flags)) {
+                Preconditions.checkState((flags & UNRELIABLE) == 0, "Keyed packet must be reliable");
+            }
         }
     }
 
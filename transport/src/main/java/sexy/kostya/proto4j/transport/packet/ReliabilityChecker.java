@@ -4,35 +4,54 @@ import sexy.kostya.proto4j.transport.buffer.Buffer;
 import sexy.kostya.proto4j.transport.buffer.BufferImpl;
 import sexy.kostya.proto4j.transport.util.DatagramHelper;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Created by k.shandurenko on 30.09.2020
  */
 class ReliabilityChecker {
 
-    private final Map<Integer, ConfirmationAwaitingPacket>             awaitingPackets        = new ConcurrentHashMap<>();
-    private final Map<Integer, Map<Short, ConfirmationAwaitingPacket>> awaitingPartialPackets = new ConcurrentHashMap<>();
+    private final PacketCodec codec;
+
+    private final Map<Integer, ConfirmationAwaitingPacket>        awaitingPackets        = new ConcurrentHashMap<>();
+    private final Map<Integer, ConfirmationAwaitingPartialPacket> awaitingPartialPackets = new ConcurrentHashMap<>();
+    private final Map<Object, Integer>                            supersedingKeys        = new ConcurrentHashMap<>();
+    private final Map<Integer, Expiration>                        expirations            = new ConcurrentHashMap<>();
 
     ReliabilityChecker(PacketCodec codec) {
+        this.codec = codec;
         Thread thread = new Thread(() -> {
             while (true) {
                 long current = System.currentTimeMillis();
                 try {
+                    this.expirations.forEach((sn, expiration) -> {
+                        if (current >= expiration.deadline) {
+                            cancel(sn, new TimeoutException());
+                        }
+                    });
+                    PacketEncoder encoder = codec.getEncoder();
+                    long          sent    = encoder.getPacedTime();
+                    // datagrams delayed by pacing are not even sent yet, so they can't be confirmed
                     this.awaitingPackets.forEach((sn, packet) -> {
-                        if (current - packet.time > DatagramHelper.RELIABILITY_THRESHOLD) {
-                            codec.getEncoder().send(((BufferImpl) packet.buffer).getHandle().array());
+                        if (current - Math.max(packet.time, sent) > DatagramHelper.RELIABILITY_THRESHOLD && !encoder.isQueued(packet.priority)) {
+                            encoder.resend(((BufferImpl) packet.buffer).getHandle().array(), packet.priority);
                             packet.time = current;
                         }
                     });
-                    this.awaitingPartialPackets.forEach((sn, map) -> {
-                        map.forEach((id, packet) -> {
-                            if (current - packet.time > DatagramHelper.RELIABILITY_THRESHOLD) {
-                                codec.getEncoder().send(((BufferImpl) packet.buffer).getHandle().array());
-                                packet.time = current;
+                    this.awaitingPartialPackets.forEach((sn, packet) -> {
+                        if (!encoder.isQueued(packet.priority)) {
+                            for (byte[] array : packet.getRetransmitted(current, sent)) {
+                                encoder.resend(array, packet.priority);
                             }
-                        });
+                        }
                     });
                 } catch (Throwable ignored) {
                 }
@@ -50,42 +69,227 @@ class ReliabilityChecker {
         ConfirmationAwaitingPacket packet = this.awaitingPackets.remove(sequenceNumber);
         if (packet != null) {
             packet.buffer.release();
+            if (packet.key != null) {
+                this.supersedingKeys.remove(packet.key, sequenceNumber);
+            }
+            if (!packet.cancellation) {
+                confirmed(sequenceNumber);
+            }
         }
     }
 
-    void remove(int sequenceNumber, short partialIndex) {
-        Map<Short, ConfirmationAwaitingPacket> map = this.awaitingPartialPackets.get(sequenceNumber);
-        if (map == null) {
+    /**
+     * @param offset    all the parts with lesser indices are confirmed
+     * @param confirmed parts confirmed starting with the offset
+     */
+    void remove(int sequenceNumber, int offset, BitSet confirmed) {
+        ConfirmationAwaitingPartialPacket packet = this.awaitingPartialPackets.get(sequenceNumber);
+        if (packet != null && packet.confirm(offset, confirmed) && this.awaitingPartialPackets.remove(sequenceNumber, packet)) {
+            if (packet.key != null) {
+                this.supersedingKeys.remove(packet.key, sequenceNumber);
+            }
+            confirmed(sequenceNumber);
+        }
+    }
+
+    /**
+     * Retransmits the packet at once as the receiver reported it's lost. Packets of the priority which datagrams are delayed
+     * by pacing are not: the receiver reports them once the higher priority ones overtake them, while they may be not even sent yet.
+     */
+    void retransmit(int sequenceNumber) {
+        long                       current = System.currentTimeMillis();
+        PacketEncoder              encoder = this.codec.getEncoder();
+        ConfirmationAwaitingPacket packet  = this.awaitingPackets.get(sequenceNumber);
+        if (packet != null) {
+            if (!encoder.isQueued(packet.priority)) {
+                packet.time = current;
+                encoder.resend(((BufferImpl) packet.buffer).getHandle().array(), packet.priority);
+            }
             return;
         }
-        ConfirmationAwaitingPacket packet = map.remove(partialIndex);
+        ConfirmationAwaitingPartialPacket partial = this.awaitingPartialPackets.get(sequenceNumber);
+        if (partial != null && !encoder.isQueued(partial.priority)) {
+            for (byte[] array : partial.getUnconfirmed(current)) {
+                encoder.resend(array, partial.priority);
+            }
+        }
+    }
+
+    void expire(int sequenceNumber, long timeToLive, CompletableFuture<Void> delivery) {
+        this.expirations.put(sequenceNumber, new Expiration(System.currentTimeMillis() + timeToLive, delivery));
+    }
+
+    private void confirmed(int sequenceNumber) {
+        Expiration expiration = this.expirations.remove(sequenceNumber);
+        if (expiration != null) {
+            expiration.delivery.complete(null);
+        }
+    }
+
+    /**
+     * Makes the packet with given sequence number the latest one for the key.
+     * Previous packet with the same key is cancelled in case it's still not confirmed.
+     */
+    void supersede(Object key, int sequenceNumber) {
+        Integer previous = this.supersedingKeys.put(key, sequenceNumber);
+        if (previous != null && previous != sequenceNumber) {
+            cancel(previous, new CancellationException("Packet was superseded"));
+        }
+    }
+
+    /**
+     * Stops retransmitting the packet with given sequence number and starts retransmitting
+     * the cancellation datagram instead, so that receiver would not await the packet forever.
+     */
+    void cancel(int sequenceNumber, Throwable cause) {
+        Expiration expiration = this.expirations.remove(sequenceNumber);
+        if (expiration != null) {
+            expiration.delivery.completeExceptionally(cause);
+        }
+        Object                            key     = null;
+        ConfirmationAwaitingPartialPacket partial = this.awaitingPartialPackets.remove(sequenceNumber);
+        if (partial != null) {
+            partial.release();
+            key = partial.key;
+        }
+        ConfirmationAwaitingPacket packet = this.awaitingPackets.get(sequenceNumber);
         if (packet != null) {
-            packet.buffer.release();
-            if (map.isEmpty()) {
-                this.awaitingPartialPackets.remove(sequenceNumber);
+            if (packet.cancellation) {
+                return;
             }
+            key = packet.key;
+        } else if (partial == null) {
+            return;
+        }
+        ConfirmationAwaitingPacket cancellation = new ConfirmationAwaitingPacket(sequenceNumber, key, Proto4jPacket.Priority.HIGH, this.codec.getEncoder().encodeCancellation(sequenceNumber));
+        cancellation.cancellation = true;
+        cancellation.register();
+        this.codec.getEncoder().send(((BufferImpl) cancellation.buffer).getHandle().array(), cancellation.priority);
+    }
+
+    private static class Expiration {
+
+        private final long                    deadline;
+        private final CompletableFuture<Void> delivery;
+
+        private Expiration(long deadline, CompletableFuture<Void> delivery) {
+            this.deadline = deadline;
+            this.delivery = delivery;
         }
+
     }
 
     class ConfirmationAwaitingPacket {
 
-        private       long   time;
-        private final int    sequenceNumber;
-        private final short  partiteIndex;
-        private final Buffer buffer;
+        private       long                   time;
+        private final int                    sequenceNumber;
+        private final Object                 key;
+        private final Proto4jPacket.Priority priority;
+        private final Buffer                 buffer;
+        private       boolean                cancellation;
 
-        ConfirmationAwaitingPacket(int sequenceNumber, short partiteIndex, Buffer buffer) {
+        ConfirmationAwaitingPacket(int sequenceNumber, Object key, Proto4jPacket.Priority priority, Buffer buffer) {
             this.time = System.currentTimeMillis();
             this.sequenceNumber = sequenceNumber;
-            this.partiteIndex = partiteIndex;
+            this.key = key;
+            this.priority = priority;
             this.buffer = buffer;
         }
 
         void register() {
-            if (this.partiteIndex == -1) {
-                awaitingPackets.put(this.sequenceNumber, this);
-            } else {
-                awaitingPartialPackets.computeIfAbsent(this.sequenceNumber, sn -> new ConcurrentHashMap<>()).put(this.partiteIndex, this);
+            ConfirmationAwaitingPacket previous = awaitingPackets.put(this.sequenceNumber, this);
+            if (previous != null) {
+                previous.buffer.release();
+            }
+        }
+    }
+
+    /**
+     * Packet split into several parts: unconfirmed parts are tracked in a bitset and are retransmitted
+     * together once no confirmation for the packet is received for a while.
+     */
+    class ConfirmationAwaitingPartialPacket {
+
+        private       long                   time;
+        private final int                    sequenceNumber;
+        private final Object                 key;
+        private final Proto4jPacket.Priority priority;
+        private final Buffer[]               parts;
+        private final BitSet                 unconfirmed;
+
+        ConfirmationAwaitingPartialPacket(int sequenceNumber, Object key, Proto4jPacket.Priority priority, short total) {
+            this.time = System.currentTimeMillis();
+            this.sequenceNumber = sequenceNumber;
+            this.key = key;
+            this.priority = priority;
+            this.parts = new Buffer[total];
+            this.unconfirmed = new BitSet(total);
+            this.unconfirmed.set(0, total);
+        }
+
+        void register() {
+            awaitingPartialPackets.put(this.sequenceNumber, this);
+        }
+
+        /**
+         * @return whether the part must be sent: it's not if the packet was cancelled meanwhile
+         */
+        synchronized boolean set(short index, Buffer part) {
+            if (!this.unconfirmed.get(index)) {
+                part.release();
+                return false;
+            }
+            this.parts[index] = part;
+            return true;
+        }
+
+        /**
+         * @return whether all the parts are confirmed
+         */
+        synchronized boolean confirm(int offset, BitSet confirmed) {
+            for (int i = this.unconfirmed.nextSetBit(0); i >= 0 && i < offset; i = this.unconfirmed.nextSetBit(i + 1)) {
+                release(i);
+            }
+            for (int i = confirmed.nextSetBit(0); i >= 0 && offset + i < this.parts.length; i = confirmed.nextSetBit(i + 1)) {
+                if (this.unconfirmed.get(offset + i)) {
+                    release(offset + i);
+                }
+            }
+            this.time = System.currentTimeMillis();
+            return this.unconfirmed.isEmpty();
+        }
+
+        synchronized List<byte[]> getRetransmitted(long current, long sent) {
+            if (current - Math.max(this.time, sent) <= DatagramHelper.RELIABILITY_THRESHOLD) {
+                return Collections.emptyList();
+            }
+            return getUnconfirmed(current);
+        }
+
+        synchronized List<byte[]> getUnconfirmed(long current) {
+            this.time = current;
+            List<byte[]> result = new ArrayList<>(this.unconfirmed.cardinality());
+            for (int i = this.unconfirmed.nextSetBit(0); i >= 0; i = this.unconfirmed.nextSetBit(i + 1)) {
+                Buffer part = this.parts[i];
+                if (part != null) {
+                    result.add(((BufferImpl) part).getHandle().array());
+                }
+            }
+            return result;
+        }
+
+        synchronized void release() {
+            for (int i = this.unconfirmed.nextSetBit(0); i >= 0; i = this.unconfirmed.nextSetBit(i + 1)) {
+                release(i);
+            }
+        }
+
+        private void release(int index) {
+            this.unconfirmed.clear(index);
+            Buffer part = this.parts[index];
+            if (part != null) {
+                part.release();
+                this.parts[index] = null;
             }
         }
     }
@@ -0,0 +1,129 @@
+package sexy.kostya.proto4j.transport.packet;
+
+import com.google.common.base.Preconditions;
+import sexy.kostya.proto4j.commons.Proto4jProperties;
+import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.buffer.BufferImpl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Codec of a channel which peer lives on the same host: packets go through a file mapped by both processes,
+ * which holds a ring for each of the directions. The client creates the file and the server picks it up.
+ */
+public class SharedMemoryCodec extends DirectCodec {
+
+    public final static int    RING_SIZE = Proto4jProperties.getProperty("sharedMemoryRingSize", 1024 * 1024);
+    public final static String EXTENSION = ".ring";
+
+    private final static int MAGIC  = 0x50344A53;
+    private final static int HEADER = 64 + 2 * SharedMemoryRing.CONTROL_SIZE;
+
+    private final Path             path;
+    private final SharedMemoryRing inbound;
+    private final SharedMemoryRing outbound;
+
+    private SharedMemoryCodec(InetSocketAddress address, Path path, MappedByteBuffer memory, boolean server) {
+        super(address);
+        this.path = path;
+        int              capacity = memory.getInt(4);
+        SharedMemoryRing toServer = new SharedMemoryRing(memory, 64, HEADER, capacity);
+        SharedMemoryRing toClient = new SharedMemoryRing(memory, 64 + SharedMemoryRing.CONTROL_SIZE, HEADER + capacity, capacity);
+        this.inbound = server ? toServer : toClient;
+        this.outbound = server ? toClient : toServer;
+    }
+
+    /**
+     * Creates the file of the connection in the directory the server listens in.
+     */
+    public static SharedMemoryCodec create(InetSocketAddress address, Path directory) throws IOException {
+        Preconditions.checkState(Integer.bitCount(RING_SIZE) == 1, "Shared memory ring size must be a power of two");
+        String           name      = UUID.randomUUID().toString();
+        Path             temporary = directory.resolve(name + ".tmp");
+        Path             path      = directory.resolve(name + EXTENSION);
+        MappedByteBuffer memory;
+        try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            memory = file.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + 2L * RING_SIZE);
+        }
+        memory.putInt(0, MAGIC);
+        memory.putInt(4, RING_SIZE);
+        // the server only sees the file once it's completely initialized
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+        return new SharedMemoryCodec(address, path, memory, false);
+    }
+
+    /**
+     * Opens the file created by the client.
+     */
+    public static SharedMemoryCodec open(InetSocketAddress address, Path path) throws IOException {
+        MappedByteBuffer memory;
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            memory = file.map(FileChannel.MapMode.READ_WRITE, 0, file.size());
+        }
+        if (memory.capacity() < HEADER || memory.getInt(0) != MAGIC || memory.capacity() != HEADER + 2L * memory.getInt(4)) {
+            throw new IOException("Not a shared memory connection: " + path);
+        }
+        return new SharedMemoryCodec(address, path, memory, true);
+    }
+
+    /**
+     * Passes packets written by the peer to the channel; must be called by a single thread.
+     *
+     * @return amount of received packets
+     */
+    public int poll() {
+        int           count = 0;
+        Proto4jPacket packet;
+        while ((packet = this.inbound.poll()) != null) {
+            this.channel.recv(packet);
+            ++count;
+        }
+        return count;
+    }
+
+    /**
+     * @return whether either of the sides has closed the connection
+     */
+    public boolean isClosed() {
+        return this.inbound.isClosed();
+    }
+
+    @Override
+    public void close() {
+        this.outbound.close();
+        this.inbound.close();
+        try {
+            Files.deleteIfExists(this.path);
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public void write(Proto4jPacket packet) {
+        Buffer buffer = packet.getBuffer();
+        try {
+            if (this.outbound.offer(packet.getFlags(), ((BufferImpl) buffer).getHandle())) {
+                CompletableFuture<Void> delivery = packet.getDelivery();
+                if (delivery != null) {
+                    delivery.complete(null);
+                }
+            }
+        } finally {
+            buffer.release();
+        }
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+
+}
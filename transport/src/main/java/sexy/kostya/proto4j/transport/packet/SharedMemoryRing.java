@@ -0,0 +1,153 @@
+package sexy.kostya.proto4j.transport.packet;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.internal.PlatformDependent;
+import sexy.kostya.proto4j.commons.Proto4jException;
+import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.util.Backoff;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue of packets in memory shared with another process: there's a single producer and a single consumer process.
+ * Positions of both of them only grow, records are aligned to 4 bytes and wrap around the end of the data region.
+ * Record is the length of the packet followed by its flags and body.
+ * <p>
+ * Positions are published with ordered stores and read with volatile loads of the mapped memory,
+ * so the record is written completely before the consumer sees the position past it.
+ */
+class SharedMemoryRing {
+
+    /**
+     * Producer position, consumer position and the closed mark, each on its own cache line.
+     */
+    final static int CONTROL_SIZE = 192;
+
+    private final static int  TAIL          = 0;
+    private final static int  HEAD          = 64;
+    private final static int  CLOSED        = 128;
+    private final static long WRITE_TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+
+    private final    ByteBuffer data;
+    private final    int        capacity;
+    private final    int        mask;
+    private final    long       control;
+    private          long       position;
+
+    /**
+     * @param memory   mapped region which contains both the control block and the data of the ring
+     * @param control  offset of the control block
+     * @param data     offset of the data
+     * @param capacity size of the data, power of two
+     */
+    SharedMemoryRing(ByteBuffer memory, int control, int data, int capacity) {
+        if (!MappedMemory.isAvailable() || !PlatformDependent.hasUnsafe()) {
+            throw new Proto4jException("Shared memory is not supported on this platform");
+        }
+        ByteBuffer region = memory.duplicate();
+        region.position(data);
+        region.limit(data + capacity);
+        this.data = region.slice();
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.control = PlatformDependent.directBufferAddress(memory) + control;
+    }
+
+    /**
+     * Blocks while there's not enough space in the ring, for {@link #WRITE_TIMEOUT} at most.
+     *
+     * @return whether the packet is written: it's not once the ring is closed
+     */
+    synchronized boolean offer(byte flags, ByteBuf body) {
+        int length = body.readableBytes() + 1;
+        int size   = align(length + 4);
+        if (size > this.capacity) {
+            throw new Proto4jException("Packet of " + length + " bytes doesn't fit into the shared memory ring of " + this.capacity + " bytes");
+        }
+        long deadline = 0;
+        for (int i = 0; this.position + size - getAcquire(HEAD) > this.capacity; ++i) {
+            if (isClosed()) {
+                return false;
+            }
+            if (deadline == 0) {
+                deadline = System.nanoTime() + WRITE_TIMEOUT;
+            } else if (System.nanoTime() > deadline) {
+                throw new Proto4jException("Shared memory ring is not drained by the peer");
+            }
+            Backoff.idle(i);
+        }
+        int index = (int) (this.position & this.mask);
+        this.data.putInt(index, length);
+        this.data.put((index + 4) & this.mask, flags);
+        int offset = (index + 5) & this.mask;
+        int first  = Math.min(length - 1, this.capacity - offset);
+        body.getBytes(body.readerIndex(), region(offset, first));
+        if (first < length - 1) {
+            body.getBytes(body.readerIndex() + first, region(0, length - 1 - first));
+        }
+        this.position += size;
+        putRelease(TAIL, this.position);
+        return true;
+    }
+
+    /**
+     * Must be called by a single thread. The ring is closed once the peer writes a malformed record.
+     *
+     * @return next packet of the ring or null if there's none yet
+     */
+    Proto4jPacket poll() {
+        long available = getAcquire(TAIL) - this.position;
+        if (available == 0) {
+            return null;
+        }
+        int index  = (int) (this.position & this.mask);
+        int length = this.data.getInt(index);
+        // the length comes from the other process and the record must lie between the positions of both sides
+        if (available < 0 || available > this.capacity || length < 1 || length > available - 4) {
+            close();
+            return null;
+        }
+        byte    flags  = this.data.get((index + 4) & this.mask);
+        int     offset = (index + 5) & this.mask;
+        int     first  = Math.min(length - 1, this.capacity - offset);
+        ByteBuf body   = Unpooled.buffer(length - 1);
+        body.writeBytes(region(offset, first));
+        if (first < length - 1) {
+            body.writeBytes(region(0, length - 1 - first));
+        }
+        this.position += align(length + 4);
+        putRelease(HEAD, this.position);
+        return new Proto4jPacket(flags, Buffer.wrap(body));
+    }
+
+    void close() {
+        putRelease(CLOSED, 1L);
+    }
+
+    boolean isClosed() {
+        return getAcquire(CLOSED) != 0L;
+    }
+
+    private long getAcquire(int offset) {
+        return MappedMemory.getAcquire(this.control + offset);
+    }
+
+    private void putRelease(int offset, long value) {
+        MappedMemory.putRelease(this.control + offset, value);
+    }
+
+    private ByteBuffer region(int offset, int length) {
+        ByteBuffer region = this.data.duplicate();
+        region.clear();
+        region.position(offset);
+        region.limit(offset + length);
+        return region;
+    }
+
+    private static int align(int size) {
+        return (size + 3) & ~3;
+    }
+
+}
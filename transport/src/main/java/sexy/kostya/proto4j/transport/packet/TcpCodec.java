@@ -0,0 +1,209 @@
+package sexy.kostya.proto4j.transport.packet;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import sexy.kostya.proto4j.commons.Proto4jProperties;
+import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.buffer.BufferImpl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Codec of a channel connected over TCP: packets are written to the stream as length-prefixed frames which hold the flags
+ * and the body, leaving both splitting and reliability to TCP. The socket is non-blocking and serviced by a selector thread.
+ */
+public class TcpCodec extends DirectCodec {
+
+    public final static int MAX_FRAME_SIZE = Proto4jProperties.getProperty("tcpMaxFrameSize", 64 * 1024 * 1024);
+
+    private final static int HEADER = 5;
+
+    private final SocketChannel socket;
+    private final Queue<Frame>  pending = new ArrayDeque<>();
+    private final ByteBuffer    input   = ByteBuffer.allocate(64 * 1024);
+    private final ByteBuffer    header  = ByteBuffer.allocate(HEADER);
+    private       ByteBuf       body;
+    private       byte          flags;
+
+    private volatile SelectionKey key;
+
+    public TcpCodec(InetSocketAddress address, SocketChannel socket) throws IOException {
+        super(address);
+        this.socket = socket;
+        socket.configureBlocking(false);
+        socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    /**
+     * Must be called before the channel sends anything and while the selector isn't selecting.
+     */
+    public void register(Selector selector) throws IOException {
+        this.key = this.socket.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * Reads and writes whatever the socket is ready for; must be called by the selector thread.
+     *
+     * @return whether the connection is still open
+     */
+    public boolean process() {
+        SelectionKey key = this.key;
+        try {
+            if (key.isValid() && key.isReadable() && !read()) {
+                close();
+                return false;
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush();
+            }
+        } catch (IOException ex) {
+            close();
+            return false;
+        }
+        return isOpen();
+    }
+
+    public boolean isOpen() {
+        return this.socket.isOpen();
+    }
+
+    @Override
+    public void close() {
+        SelectionKey key = this.key;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            this.socket.close();
+        } catch (IOException ignored) {
+        }
+        synchronized (this.pending) {
+            Frame frame;
+            while ((frame = this.pending.poll()) != null) {
+                frame.packet.getBuffer().release();
+            }
+        }
+    }
+
+    @Override
+    public void write(Proto4jPacket packet) {
+        ByteBuf    handle = ((BufferImpl) packet.getBuffer()).getHandle();
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(handle.readableBytes() + 1).put(packet.getFlags()).flip();
+        Frame frame = new Frame(packet, new ByteBuffer[]{header, handle.nioBuffer()});
+        synchronized (this.pending) {
+            if (!isOpen()) {
+                packet.getBuffer().release();
+                return;
+            }
+            try {
+                if (this.pending.isEmpty() && frame.write(this.socket)) {
+                    return;
+                }
+                this.pending.add(frame);
+                if (this.pending.size() == 1) {
+                    // the rest is written by the selector thread once the socket buffer is drained
+                    this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    this.key.selector().wakeup();
+                }
+            } catch (IOException ex) {
+                packet.getBuffer().release();
+                close();
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        synchronized (this.pending) {
+            Frame frame;
+            while ((frame = this.pending.peek()) != null) {
+                if (!frame.write(this.socket)) {
+                    return;
+                }
+                this.pending.poll();
+            }
+            this.key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * @return false once the peer has closed the connection
+     */
+    private boolean read() throws IOException {
+        int read;
+        while ((read = this.socket.read(this.input)) > 0) {
+            this.input.flip();
+            while (this.input.hasRemaining()) {
+                if (this.body == null) {
+                    transfer(this.input, this.header);
+                    if (this.header.hasRemaining()) {
+                        break;
+                    }
+                    int length = this.header.getInt(0);
+                    if (length < 1 || length > MAX_FRAME_SIZE) {
+                        throw new IOException("Invalid frame length " + length);
+                    }
+                    this.flags = this.header.get(4);
+                    this.header.clear();
+                    this.body = Unpooled.buffer(length - 1);
+                }
+                int length = Math.min(this.input.remaining(), this.body.writableBytes());
+                int limit  = this.input.limit();
+                this.input.limit(this.input.position() + length);
+                this.body.writeBytes(this.input);
+                this.input.limit(limit);
+                if (!this.body.isWritable()) {
+                    this.channel.recv(new Proto4jPacket(this.flags, Buffer.wrap(this.body)));
+                    this.body = null;
+                }
+            }
+            this.input.clear();
+        }
+        return read == 0;
+    }
+
+    private static void transfer(ByteBuffer from, ByteBuffer to) {
+        int length = Math.min(from.remaining(), to.remaining());
+        for (int i = 0; i < length; ++i) {
+            to.put(from.get());
+        }
+    }
+
+    private static class Frame {
+
+        private final Proto4jPacket packet;
+        private final ByteBuffer[]  buffers;
+
+        private Frame(Proto4jPacket packet, ByteBuffer[] buffers) {
+            this.packet = packet;
+            this.buffers = buffers;
+        }
+
+        /**
+         * @return whether the frame is written completely, in which case it's released
+         */
+        private boolean write(SocketChannel socket) throws IOException {
+            socket.write(this.buffers);
+            if (this.buffers[0].hasRemaining() || this.buffers[1].hasRemaining()) {
+                return false;
+            }
+            this.packet.getBuffer().release();
+            CompletableFuture<Void> delivery = this.packet.getDelivery();
+            if (delivery != null) {
+                delivery.complete(null);
+            }
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,31 @@
+package sexy.kostya.proto4j.transport.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waiting strategy of threads which poll memory instead of blocking on a socket: they spin for a while,
+ * then yield and then park for longer and longer, up to a millisecond.
+ */
+public class Backoff {
+
+    private final static int  SPINS       = 100;
+    private final static int  YIELDS      = 100;
+    private final static long MAX_PARKING = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * @param iteration amount of consecutive polls which found nothing
+     */
+    public static void idle(int iteration) {
+        if (iteration < SPINS) {
+            return;
+        }
+        if (iteration < SPINS + YIELDS) {
+            Thread.yield();
+            return;
+        }
+        int shift = Math.min(iteration - SPINS - YIELDS, 20);
+        LockSupport.parkNanos(Math.min(1000L << shift, MAX_PARKING));
+    }
+
+}
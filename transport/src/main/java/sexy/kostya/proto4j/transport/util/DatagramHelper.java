@@ -26,6 +26,24 @@ public class DatagramHelper {
     public final static int HEADER_LENGTH = 2 + 4 + 1;
     public final static int CRC_LENGTH    = 4;
 
+    /**
+     * Receiver confirms parts of a large packet with a bitmap once that many parts are received since the last confirmation
+     */
+    public final static int PARTIAL_CONFIRMATION_INTERVAL = Proto4jProperties.getProperty("partialConfirmationInterval", 8);
+    /**
+     * 2 - offset of the first confirmed part
+     */
+    public final static int MAX_CONFIRMATION_BITMAP_SIZE  = MAX_DATAGRAM_SIZE - HEADER_LENGTH - CRC_LENGTH - 2;
+    /**
+     * Maximum amount of lost sequence numbers reported by a single negative confirmation
+     */
+    public final static int MAX_NEGATIVE_CONFIRMATIONS    = (MAX_DATAGRAM_SIZE - HEADER_LENGTH - CRC_LENGTH) / 4 + 1;
+
+    /**
+     * Maximum amount of sequence keys which the receiver tracks the newest sequenced packet of, packets of other keys are dropped
+     */
+    public final static int MAX_SEQUENCE_KEYS = Proto4jProperties.getProperty("maxSequenceKeys", 1024);
+
     public final static int MIN_SEQUENCE_NUMBER = 0;
     public final static int MAX_SEQUENCE_NUMBER = Proto4jProperties.getProperty("maxSequenceNumber", 2_000_000_000);
 
@@ -37,6 +55,19 @@ public class DatagramHelper {
         return seq == MAX_SEQUENCE_NUMBER ? MIN_SEQUENCE_NUMBER : seq + 1;
     }
 
+    public static int getPreviousSequenceNumber(int seq) {
+        return seq == MIN_SEQUENCE_NUMBER ? MAX_SEQUENCE_NUMBER : seq - 1;
+    }
+
+    /**
+     * Checks whether the first sequence number was generated after the second one taking overflow into account.
+     */
+    public static boolean isNewerSequenceNumber(int seq, int than) {
+        long range = (long) MAX_SEQUENCE_NUMBER - MIN_SEQUENCE_NUMBER + 1;
+        long diff  = ((long) seq - than + range) % range;
+        return diff != 0 && diff < range / 2;
+    }
+
     public static int crc32(byte[] array, int offset, int length) {
         CRC32 crc32 = new CRC32();
         crc32.update(array, offset, length);
@@ -44,6 +75,9 @@ public class DatagramHelper {
     }
 
     public static void log(Logger logger, ByteBuf buffer, InetSocketAddress addr) {
+        if (!logger.isTraceEnabled()) {
+            return;
+        }
         StringBuilder sb    = new StringBuilder();
         int           index = buffer.readerIndex();
         while (buffer.readableBytes() > 0) {
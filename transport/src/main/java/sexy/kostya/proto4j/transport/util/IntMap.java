@@ -0,0 +1,137 @@
+package sexy.kostya.proto4j.transport.util;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Map of primitive int keys with open addressing and linear probing: keys are neither boxed nor wrapped into entries.
+ * Null values are not allowed. Not thread-safe.
+ */
+public class IntMap<V> {
+
+    private final static int MIN_CAPACITY = 16;
+
+    private int[]    keys;
+    private Object[] values;
+    private int      size;
+
+    public IntMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expected amount of entries the map holds without resizing
+     */
+    public IntMap(int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        this.keys = new int[capacity];
+        this.values = new Object[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int index = find(key);
+        return index == -1 ? null : (V) this.values[index];
+    }
+
+    public boolean containsKey(int key) {
+        return find(key) != -1;
+    }
+
+    /**
+     * @return previous value of the key
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        Preconditions.checkNotNull(value);
+        int mask = this.keys.length - 1;
+        for (int index = hash(key) & mask; ; index = (index + 1) & mask) {
+            Object previous = this.values[index];
+            if (previous == null) {
+                this.keys[index] = key;
+                this.values[index] = value;
+                // the load factor is kept under a half, so probing sequences stay short
+                if (++this.size * 2 > this.keys.length) {
+                    resize(this.keys.length << 1);
+                }
+                return null;
+            }
+            if (this.keys[index] == key) {
+                this.values[index] = value;
+                return (V) previous;
+            }
+        }
+    }
+
+    /**
+     * @return removed value of the key
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int index = find(key);
+        if (index == -1) {
+            return null;
+        }
+        V value = (V) this.values[index];
+        this.values[index] = null;
+        this.size--;
+        // entries which probing sequences pass through the freed slot are shifted back, so that there are no tombstones
+        int mask = this.keys.length - 1;
+        for (int next = (index + 1) & mask; this.values[next] != null; next = (next + 1) & mask) {
+            int home = hash(this.keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - index) & mask)) {
+                this.keys[index] = this.keys[next];
+                this.values[index] = this.values[next];
+                this.values[next] = null;
+                index = next;
+            }
+        }
+        return value;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    private int find(int key) {
+        int mask = this.keys.length - 1;
+        for (int index = hash(key) & mask; this.values[index] != null; index = (index + 1) & mask) {
+            if (this.keys[index] == key) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private void resize(int capacity) {
+        int[]    keys   = this.keys;
+        Object[] values = this.values;
+        this.keys = new int[capacity];
+        this.values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < keys.length; ++i) {
+            if (values[i] == null) {
+                continue;
+            }
+            int index = hash(keys[i]) & mask;
+            while (this.values[index] != null) {
+                index = (index + 1) & mask;
+            }
+            this.keys[index] = keys[i];
+            this.values[index] = values[i];
+        }
+    }
+
+    private static int hash(int key) {
+        // consecutive keys are spread over the whole table
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+}
@@ -0,0 +1,126 @@
+package sexy.kostya.proto4j.transport.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed wheel of timeouts: scheduling and cancelling a timeout take constant time, while the thread of the wheel
+ * only looks at the timeouts of the bucket it passes on every tick. Timeouts fire up to a tick late.
+ */
+public class TimerWheel {
+
+    private final static int WHEEL_SIZE = 512;
+
+    private final long      tick;
+    private final Timeout[] buckets = new Timeout[WHEEL_SIZE];
+    private final long      start   = System.nanoTime();
+    private       long      ticks;
+
+    /**
+     * @param tick duration of a tick in milliseconds
+     */
+    public TimerWheel(long tick, String threadName) {
+        this.tick = TimeUnit.MILLISECONDS.toNanos(tick);
+        Thread thread = new Thread(() -> {
+            List<Timeout> expired = new ArrayList<>();
+            while (true) {
+                long elapsed = (System.nanoTime() - this.start) / this.tick;
+                synchronized (this) {
+                    while (this.ticks < elapsed) {
+                        expire(++this.ticks, expired);
+                    }
+                }
+                for (Timeout timeout : expired) {
+                    try {
+                        timeout.task.run();
+                    } catch (Throwable ignored) {
+                    }
+                }
+                expired.clear();
+                long sleep = this.start + (elapsed + 1) * this.tick - System.nanoTime();
+                if (sleep > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(sleep);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            }
+        }, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param task ran by the thread of the wheel once given time passes unless the timeout is cancelled
+     */
+    public Timeout schedule(long delay, TimeUnit unit, Runnable task) {
+        // the deadline is the first tick after the due time: ticks processed by the thread of the wheel may lag behind the clock
+        long    deadline = (System.nanoTime() - this.start + unit.toNanos(delay) + this.tick - 1) / this.tick;
+        Timeout timeout  = new Timeout(task);
+        synchronized (this) {
+            timeout.deadline = Math.max(this.ticks + 1, deadline);
+            int index = (int) (timeout.deadline & (WHEEL_SIZE - 1));
+            timeout.next = this.buckets[index];
+            if (timeout.next != null) {
+                timeout.next.previous = timeout;
+            }
+            this.buckets[index] = timeout;
+        }
+        return timeout;
+    }
+
+    private void expire(long tick, List<Timeout> expired) {
+        Timeout timeout = this.buckets[(int) (tick & (WHEEL_SIZE - 1))];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            // timeouts of the bucket which are due in later rounds stay
+            if (timeout.deadline <= tick) {
+                unlink(timeout);
+                expired.add(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            this.buckets[(int) (timeout.deadline & (WHEEL_SIZE - 1))] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.deadline = -1;
+    }
+
+    public class Timeout {
+
+        private final Runnable task;
+        private       long     deadline;
+        private       Timeout  previous;
+        private       Timeout  next;
+
+        private Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * @return whether the timeout was cancelled before it has fired
+         */
+        public boolean cancel() {
+            synchronized (TimerWheel.this) {
+                if (this.deadline == -1) {
+                    return false;
+                }
+                unlink(this);
+                return true;
+            }
+        }
+
+    }
+
+}
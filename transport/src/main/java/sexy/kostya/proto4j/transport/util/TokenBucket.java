@@ -0,0 +1,73 @@
+package sexy.kostya.proto4j.transport.util;
+
+import com.google.common.base.Preconditions;
+import sexy.kostya.proto4j.commons.Proto4jProperties;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of sent datagrams both in bytes and in datagrams per second.
+ * The same instance may be shared by several channels to limit their aggregate rate.
+ */
+public class TokenBucket {
+
+    private final static long DEFAULT_BURST = Proto4jProperties.getProperty("pacingBurst", 10L);
+
+    private final double bytesPerNanosecond;
+    private final double packetsPerNanosecond;
+    private final double bytesCapacity;
+    private final double packetsCapacity;
+
+    private double bytes;
+    private double packets;
+    private long   time;
+
+    /**
+     * @param bytesPerSecond   maximum amount of bytes sent per second, 0 for unlimited
+     * @param packetsPerSecond maximum amount of datagrams sent per second, 0 for unlimited
+     */
+    public TokenBucket(double bytesPerSecond, double packetsPerSecond) {
+        this(bytesPerSecond, packetsPerSecond, DEFAULT_BURST, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param burst amount of time worth of tokens which may be spent at once after a period of inactivity
+     */
+    public TokenBucket(double bytesPerSecond, double packetsPerSecond, long burst, TimeUnit unit) {
+        Preconditions.checkArgument(bytesPerSecond >= 0 && packetsPerSecond >= 0, "Rate can't be negative");
+        Preconditions.checkArgument(burst >= 0, "Burst can't be negative");
+        this.bytesPerNanosecond = bytesPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.packetsPerNanosecond = packetsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.bytesCapacity = Math.max(DatagramHelper.MAX_DATAGRAM_SIZE, this.bytesPerNanosecond * unit.toNanos(burst));
+        this.packetsCapacity = Math.max(1, this.packetsPerNanosecond * unit.toNanos(burst));
+        this.bytes = this.bytesCapacity;
+        this.packets = this.packetsCapacity;
+        this.time = System.nanoTime();
+    }
+
+    /**
+     * Takes tokens for a datagram of given length even if there's not enough of them at the moment.
+     *
+     * @return amount of nanoseconds the datagram must be delayed for
+     */
+    public synchronized long reserve(int length) {
+        long current = System.nanoTime();
+        long elapsed = current - this.time;
+        this.time = current;
+        long delay = 0;
+        if (this.bytesPerNanosecond > 0) {
+            this.bytes = Math.min(this.bytesCapacity, this.bytes + elapsed * this.bytesPerNanosecond) - length;
+            if (this.bytes < 0) {
+                delay = (long) Math.ceil(-this.bytes / this.bytesPerNanosecond);
+            }
+        }
+        if (this.packetsPerNanosecond > 0) {
+            this.packets = Math.min(this.packetsCapacity, this.packets + elapsed * this.packetsPerNanosecond) - 1;
+            if (this.packets < 0) {
+                delay = Math.max(delay, (long) Math.ceil(-this.packets / this.packetsPerNanosecond));
+            }
+        }
+        return delay;
+    }
+
+}
@@ -0,0 +1,44 @@
+package sexy.kostya.proto4j.transport.attribute;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Typed and string keyed attributes of a map.
+ */
+public class AttributeMapTest {
+
+    private final static AttributeKey<Integer> NUMBER = AttributeKey.valueOf("number");
+    private final static AttributeKey<String>  NAME   = AttributeKey.valueOf("name");
+
+    @Test
+    public void testTypedKeys() {
+        AttributeMap map = new AttributeMap();
+        Assert.assertFalse(map.has(NUMBER));
+        map.set(NUMBER, 1);
+        map.set(NAME, "name");
+        Assert.assertEquals(1, (int) map.get(NUMBER));
+        Assert.assertEquals("name", map.get(NAME));
+        Assert.assertSame(NUMBER, AttributeKey.valueOf("number"));
+        Assert.assertEquals(1, (int) map.remove(NUMBER));
+        Assert.assertFalse(map.has(NUMBER));
+        map.set(NAME, null);
+        Assert.assertFalse(map.has(NAME));
+    }
+
+    @Test
+    public void testStringKeys() {
+        AttributeMap map = new AttributeMap();
+        Assert.assertNull(map.get("dynamic"));
+        map.set("dynamic", 1);
+        Assert.assertTrue(map.has("dynamic"));
+        Assert.assertEquals(1, (int) map.<Integer>get("dynamic"));
+        // string keys don't share the values with the typed ones
+        map.set("number", 2);
+        Assert.assertFalse(map.has(NUMBER));
+        Assert.assertEquals(1, (int) map.<Integer>remove("dynamic"));
+        map.set("number", null);
+        Assert.assertFalse(map.has("number"));
+    }
+
+}
@@ -0,0 +1,120 @@
+package sexy.kostya.proto4j.transport.compression;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sexy.kostya.proto4j.commons.Proto4jException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Round trips of the compression algorithms and their handling of malformed data.
+ */
+public class CompressionTest {
+
+    private final static byte[] DICTIONARY = "{\"name\":\"\",\"password\":\"\",\"age\":}".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testLz4() {
+        roundTrips(new Lz4Compression());
+    }
+
+    @Test
+    public void testDeflate() {
+        roundTrips(new DeflateCompression());
+        roundTrips(new DeflateCompression(DICTIONARY));
+    }
+
+    @Test
+    public void testDictionary() {
+        byte[]             data          = "{\"name\":\"John\",\"password\":\"12345\",\"age\":20}".getBytes(StandardCharsets.UTF_8);
+        DeflateCompression plain         = new DeflateCompression();
+        DeflateCompression preset        = new DeflateCompression(DICTIONARY);
+        byte[]             compressed    = preset.compress(data, 0, data.length);
+        Assert.assertTrue(compressed.length < plain.compress(data, 0, data.length).length);
+        Assert.assertArrayEquals(data, decompress(preset, compressed, data.length));
+        Assert.assertNotEquals(plain.getFingerprint(), preset.getFingerprint());
+        Assert.assertEquals(preset.getFingerprint(), new DeflateCompression(DICTIONARY.clone()).getFingerprint());
+        malformed(plain, compressed, data.length);
+        malformed(new DeflateCompression("another".getBytes(StandardCharsets.UTF_8)), compressed, data.length);
+    }
+
+    @Test
+    public void testMalformed() {
+        Random random = new Random(17);
+        for (Compression compression : new Compression[]{new Lz4Compression(), new DeflateCompression()}) {
+            byte[] data       = text(random, 2000);
+            byte[] compressed = compression.compress(data, 0, data.length);
+            malformed(compression, compressed, data.length - 1);
+            malformed(compression, compressed, data.length + 1);
+            malformed(compression, Arrays.copyOf(compressed, compressed.length / 2), data.length);
+            malformed(compression, new byte[0], data.length);
+            for (int i = 0; i < 1000; ++i) {
+                byte[] garbage = new byte[1 + random.nextInt(64)];
+                random.nextBytes(garbage);
+                try {
+                    compression.decompress(garbage, 0, garbage.length, new byte[random.nextInt(256)]);
+                } catch (Proto4jException ignored) {
+                    // anything else must not be thrown
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDuplicateIDs() {
+        Compression lz4 = new Lz4Compression();
+        Assert.assertArrayEquals(new Compression[]{lz4}, Compression.copyOf(lz4));
+        try {
+            Compression.copyOf(lz4, new DeflateCompression(), new Lz4Compression());
+            Assert.fail();
+        } catch (IllegalArgumentException ex) {
+            Assert.assertTrue(ex.getMessage().startsWith("Duplicate compression ID"));
+        }
+    }
+
+    private static void roundTrips(Compression compression) {
+        Random random = new Random(31);
+        roundTrip(compression, new byte[0]);
+        roundTrip(compression, new byte[]{42});
+        byte[] incompressible = new byte[10_000];
+        random.nextBytes(incompressible);
+        roundTrip(compression, incompressible);
+        roundTrip(compression, new byte[10_000]);
+        roundTrip(compression, text(random, 10_000));
+        // the array is compressed starting with an offset
+        byte[] text       = text(random, 1000);
+        byte[] compressed = compression.compress(text, 100, 500);
+        Assert.assertArrayEquals(Arrays.copyOfRange(text, 100, 600), decompress(compression, compressed, 500));
+    }
+
+    private static void roundTrip(Compression compression, byte[] data) {
+        byte[] compressed = compression.compress(data, 0, data.length);
+        Assert.assertArrayEquals(data, decompress(compression, compressed, data.length));
+    }
+
+    private static byte[] decompress(Compression compression, byte[] compressed, int length) {
+        byte[] result = new byte[length];
+        compression.decompress(compressed, 0, compressed.length, result);
+        return result;
+    }
+
+    private static void malformed(Compression compression, byte[] compressed, int length) {
+        try {
+            decompress(compression, compressed, length);
+            Assert.fail();
+        } catch (Proto4jException ignored) {
+        }
+    }
+
+    private static byte[] text(Random random, int length) {
+        String[]      words   = {"proto4j", "packet", "channel", "datagram", "compression", "the", "a"};
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < length) {
+            builder.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        return builder.substring(0, length).getBytes(StandardCharsets.UTF_8);
+    }
+
+}
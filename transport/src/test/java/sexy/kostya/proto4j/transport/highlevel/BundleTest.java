@@ -0,0 +1,196 @@
+package sexy.kostya.proto4j.transport.highlevel;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sexy.kostya.proto4j.commons.Proto4jException;
+import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.compression.Compression;
+import sexy.kostya.proto4j.transport.compression.DeflateCompression;
+import sexy.kostya.proto4j.transport.datagram.DatagramTransport;
+import sexy.kostya.proto4j.transport.highlevel.packet.EnumeratedProto4jPacket;
+import sexy.kostya.proto4j.transport.highlevel.packet.PacketManager;
+import sexy.kostya.proto4j.transport.packet.PacketCodec;
+import sexy.kostya.proto4j.transport.packet.Proto4jPacket;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Packets sent together by {@link HighChannel#sendAll(java.util.Collection, int, Proto4jPacket.Priority)}.
+ */
+public class BundleTest {
+
+    private final static PacketManager MANAGER = new PacketManager();
+
+    static {
+        MANAGER.register(NumberPacket::new);
+    }
+
+    @Test
+    public void testBundle() {
+        Capture channel = new Capture();
+        channel.sendAll(Arrays.asList(
+                new NumberPacket(1, Proto4jPacket.Priority.LOW),
+                new NumberPacket(2, Proto4jPacket.Priority.HIGH),
+                new NumberPacket(3, Proto4jPacket.Priority.NORMAL)
+        ));
+        Assert.assertEquals(1, channel.sent.size());
+        Proto4jPacket bundle = channel.sent.get(0);
+        // the bundle is sent with the highest priority of its packets
+        Assert.assertEquals(Proto4jPacket.Priority.HIGH, bundle.getPriority());
+        Assert.assertEquals(Arrays.asList(1, 2, 3), read(channel, bundle.getBuffer()));
+
+        channel.sendAll(Arrays.asList(new NumberPacket(4, Proto4jPacket.Priority.HIGH), new NumberPacket(5, Proto4jPacket.Priority.HIGH)), 0, Proto4jPacket.Priority.LOW);
+        Assert.assertEquals(Proto4jPacket.Priority.LOW, channel.sent.get(1).getPriority());
+        Assert.assertEquals(Arrays.asList(4, 5), read(channel, channel.sent.get(1).getBuffer()));
+    }
+
+    @Test
+    public void testSinglePacket() {
+        Capture channel = new Capture();
+        channel.sendAll(Collections.emptyList());
+        Assert.assertTrue(channel.sent.isEmpty());
+        channel.sendAll(Collections.singletonList(new NumberPacket(7, Proto4jPacket.Priority.LOW)));
+        // a single packet is sent as is, so it may be read without a bundle as well
+        Proto4jPacket packet = channel.sent.get(0);
+        Assert.assertEquals(Proto4jPacket.Priority.LOW, packet.getPriority());
+        Assert.assertEquals(7, ((NumberPacket) channel.readPacket(MANAGER, packet.getBuffer())).value);
+    }
+
+    @Test
+    public void testCompressedBundle() {
+        Capture channel = new Capture();
+        channel.setCompressions(new Compression[]{new DeflateCompression()});
+        channel.setCompressionThreshold(0);
+        List<NumberPacket> packets = new ArrayList<>();
+        List<Integer>      values  = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            packets.add(new NumberPacket(i, Proto4jPacket.Priority.NORMAL));
+            values.add(i);
+        }
+        channel.sendAll(packets);
+        // each of the packets takes 6 bytes of the bundle uncompressed
+        Buffer buffer = channel.sent.get(0).getBuffer();
+        Assert.assertTrue(buffer.readableBytes() < packets.size() * 6);
+        Assert.assertEquals(values, read(channel, buffer));
+    }
+
+    @Test
+    public void testMalformedBundle() {
+        Capture channel = new Capture();
+        channel.sendAll(Arrays.asList(new NumberPacket(1, Proto4jPacket.Priority.NORMAL), new NumberPacket(2, Proto4jPacket.Priority.NORMAL)));
+        Buffer bundle = channel.sent.get(0).getBuffer();
+        try {
+            channel.readPacket(MANAGER, bundle);
+            Assert.fail();
+        } catch (Proto4jException ex) {
+            Assert.assertEquals("Bundled packets must be read with readPackets", ex.getMessage());
+        }
+
+        // a packet claims to be longer than the rest of the bundle
+        Buffer truncated = Buffer.newBuffer();
+        truncated.writeVarInt(HighChannel.BUNDLE_PACKET_ID);
+        truncated.writeVarInt(100);
+        truncated.writeVarInt(NumberPacket.ID);
+        truncated.writeInt(1);
+        assertMalformed(channel, truncated);
+
+        // a packet reads beyond the length it's bundled with
+        Buffer overread = Buffer.newBuffer();
+        overread.writeVarInt(HighChannel.BUNDLE_PACKET_ID);
+        overread.writeVarInt(2);
+        overread.writeVarInt(NumberPacket.ID);
+        overread.writeInt(1);
+        assertMalformed(channel, overread);
+    }
+
+    private static void assertMalformed(HighChannel channel, Buffer buffer) {
+        List<Integer> values = new ArrayList<>();
+        try {
+            channel.readPackets(MANAGER, buffer, packet -> values.add(((NumberPacket) packet).value));
+            Assert.fail();
+        } catch (Proto4jException ignored) {
+        }
+        Assert.assertTrue(values.isEmpty());
+    }
+
+    private static List<Integer> read(HighChannel channel, Buffer buffer) {
+        List<Integer> values = new ArrayList<>();
+        channel.readPackets(MANAGER, buffer, packet -> values.add(((NumberPacket) packet).value));
+        return values;
+    }
+
+    /**
+     * Channel which keeps the packets it sends.
+     */
+    private static class Capture extends HighChannel {
+
+        private final List<Proto4jPacket> sent = new ArrayList<>();
+
+        Capture() {
+            super(new CallbacksRegistry(), new PacketCodec(new DatagramTransport() {
+
+                @Override
+                public void send(byte[] array, InetSocketAddress address) {
+                }
+
+                @Override
+                public boolean isClosed() {
+                    return false;
+                }
+
+                @Override
+                public void close() {
+                }
+
+            }, InetSocketAddress.createUnresolved("remote", 0)));
+        }
+
+        @Override
+        public void send(Proto4jPacket packet) {
+            this.sent.add(packet);
+        }
+
+    }
+
+    private static class NumberPacket extends EnumeratedProto4jPacket {
+
+        private final static int ID = 1;
+
+        private int                    value;
+        private Proto4jPacket.Priority priority = Proto4jPacket.Priority.NORMAL;
+
+        NumberPacket() {
+        }
+
+        NumberPacket(int value, Proto4jPacket.Priority priority) {
+            this.value = value;
+            this.priority = priority;
+        }
+
+        @Override
+        public int getID() {
+            return ID;
+        }
+
+        @Override
+        public Proto4jPacket.Priority getPriority() {
+            return this.priority;
+        }
+
+        @Override
+        public void write(Buffer buffer) {
+            buffer.writeInt(this.value);
+        }
+
+        @Override
+        public void read(Buffer buffer) {
+            this.value = buffer.readInt();
+        }
+
+    }
+
+}
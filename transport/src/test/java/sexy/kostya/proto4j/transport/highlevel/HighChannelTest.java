@@ -0,0 +1,105 @@
+package sexy.kostya.proto4j.transport.highlevel;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sexy.kostya.proto4j.commons.Proto4jException;
+import sexy.kostya.proto4j.exception.Proto4jHandshakingException;
+import sexy.kostya.proto4j.transport.attribute.AttributeKey;
+import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.compression.Compression;
+import sexy.kostya.proto4j.transport.compression.DeflateCompression;
+import sexy.kostya.proto4j.transport.compression.Lz4Compression;
+import sexy.kostya.proto4j.transport.datagram.DatagramTransport;
+import sexy.kostya.proto4j.transport.highlevel.packet.PacketManager;
+import sexy.kostya.proto4j.transport.packet.PacketCodec;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Limits of the data received from the remote side while handshaking and decompressing.
+ */
+public class HighChannelTest {
+
+    private final static long MAGIC = 0xD3ADC0DE007L;
+
+    @Test
+    public void testDecompressedSizeCap() {
+        HighChannel channel = channel();
+        channel.setCompressions(new Compression[]{new Lz4Compression()});
+        for (int length : new int[]{HighChannel.MAX_DECOMPRESSED_SIZE + 1, Integer.MAX_VALUE, -1}) {
+            Buffer buffer = Buffer.newBuffer(32);
+            buffer.writeVarInt(HighChannel.COMPRESSED_PACKET_ID);
+            buffer.writeByte(new Lz4Compression().getID());
+            buffer.writeVarInt(length);
+            buffer.writeLong(0);
+            try {
+                channel.readPacket(new PacketManager(), buffer);
+                Assert.fail();
+            } catch (Proto4jException ex) {
+                Assert.assertTrue(ex.getMessage().startsWith("Malformed compressed packet"));
+            }
+        }
+    }
+
+    @Test
+    public void testManyOfferedCompressions() {
+        // more than 127 compressions were read as a negative amount
+        HighChannel        channel     = channel();
+        DeflateCompression compression = new DeflateCompression();
+        Buffer             buffer      = Buffer.newBuffer(16 + 1 + 200 * 5);
+        buffer.writeLong(MAGIC);
+        buffer.writeLong(System.currentTimeMillis());
+        buffer.writeByte((byte) 200);
+        for (int i = 0; i < 200; i++) {
+            buffer.writeByte((byte) i);
+            buffer.writeInt(compression.getFingerprint());
+        }
+        Handshake.processOnServerside(channel, buffer, new CompletableFuture<>(), new Compression[]{compression});
+        Assert.assertArrayEquals(new Compression[]{compression}, channel.getCompressions());
+    }
+
+    @Test(expected = Proto4jHandshakingException.class)
+    public void testMalformedOfferedCompressions() {
+        Buffer buffer = Buffer.newBuffer(32);
+        buffer.writeLong(MAGIC);
+        buffer.writeLong(System.currentTimeMillis());
+        buffer.writeByte((byte) 0xFF);
+        buffer.writeByte(new DeflateCompression().getID());
+        buffer.writeInt(new DeflateCompression().getFingerprint());
+        Handshake.processOnServerside(channel(), buffer, new CompletableFuture<>(), new Compression[]{new DeflateCompression()});
+    }
+
+    @Test(expected = Proto4jHandshakingException.class)
+    public void testMalformedAcceptedCompressions() {
+        HighChannel channel = channel();
+        channel.getAttributes().set(AttributeKey.valueOf("_hst"), 1L);
+        Buffer buffer = Buffer.newBuffer(32);
+        buffer.writeLong(MAGIC);
+        buffer.writeLong(1L);
+        buffer.writeLong(System.currentTimeMillis());
+        buffer.writeByte((byte) 0xFF);
+        buffer.writeByte(new DeflateCompression().getID());
+        Handshake.processOnClientside(channel, buffer, new CompletableFuture<>(), new Compression[]{new DeflateCompression()});
+    }
+
+    private static HighChannel channel() {
+        return new HighChannel(new CallbacksRegistry(), new PacketCodec(new DatagramTransport() {
+
+            @Override
+            public void send(byte[] array, InetSocketAddress address) {
+            }
+
+            @Override
+            public boolean isClosed() {
+                return false;
+            }
+
+            @Override
+            public void close() {
+            }
+
+        }, InetSocketAddress.createUnresolved("remote", 0)));
+    }
+
+}
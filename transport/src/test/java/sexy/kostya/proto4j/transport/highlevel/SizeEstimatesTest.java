@@ -0,0 +1,78 @@
+package sexy.kostya.proto4j.transport.highlevel;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.highlevel.packet.CallbackProto4jPacket;
+import sexy.kostya.proto4j.transport.highlevel.packet.def.Packet5StreamChunk;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sizes the buffers of the written packets are allocated with.
+ */
+public class SizeEstimatesTest {
+
+    @Test
+    public void testEstimates() {
+        SizeEstimates estimates = new SizeEstimates();
+        Assert.assertEquals(64, estimates.get(String.class));
+
+        // the estimate grows to the largest size at once
+        estimates.update(String.class, 1000);
+        Assert.assertEquals(1000, estimates.get(String.class));
+        Assert.assertEquals(64, estimates.get(Integer.class));
+
+        // and decays by an eighth of the difference otherwise, never below the sizes seen
+        estimates.update(String.class, 200);
+        Assert.assertEquals(900, estimates.get(String.class));
+        for (int i = 0; i < 100; ++i) {
+            estimates.update(String.class, 200);
+            Assert.assertTrue(estimates.get(String.class) >= 200);
+        }
+        Assert.assertTrue(estimates.get(String.class) < 210);
+        estimates.update(String.class, 5000);
+        Assert.assertEquals(5000, estimates.get(String.class));
+    }
+
+    @Test
+    public void testHeader() {
+        // the packet ID and the callback ID of any value fit into the header
+        for (int callbackID : new int[]{0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+            CallbackProto4jPacket packet = new CallbackProto4jPacket() {
+
+                @Override
+                public int getID() {
+                    return Integer.MIN_VALUE;
+                }
+
+                @Override
+                public void write(Buffer buffer) {
+                }
+
+                @Override
+                public void read(Buffer buffer) {
+                }
+
+            };
+            packet.setCallbackID(callbackID);
+            Buffer buffer = Buffer.newBuffer();
+            buffer.writeVarInt(packet.getID());
+            packet.write0(buffer);
+            Assert.assertTrue(buffer.readableBytes() <= SizeEstimates.HEADER_SIZE);
+        }
+    }
+
+    @Test
+    public void testChunk() {
+        for (int length : new int[]{0, 1, 127, 128, 16 * 1024}) {
+            Packet5StreamChunk packet = Packet5StreamChunk.data(Integer.MAX_VALUE, ByteBuffer.allocate(length));
+            Buffer             buffer = Buffer.newBuffer();
+            packet.write(buffer);
+            Assert.assertTrue(buffer.readableBytes() <= packet.estimateSize());
+            Assert.assertTrue(packet.estimateSize() - buffer.readableBytes() <= 8);
+        }
+        Assert.assertEquals(-1, Packet5StreamChunk.last(1).estimateSize());
+    }
+
+}
@@ -0,0 +1,215 @@
+package sexy.kostya.proto4j.transport.highlevel;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.datagram.DatagramTransport;
+import sexy.kostya.proto4j.transport.highlevel.packet.EnumeratedProto4jPacket;
+import sexy.kostya.proto4j.transport.highlevel.packet.def.DefaultPacketManager;
+import sexy.kostya.proto4j.transport.highlevel.packet.def.Packet4StreamOpen;
+import sexy.kostya.proto4j.transport.highlevel.packet.def.Packet5StreamChunk;
+import sexy.kostya.proto4j.transport.highlevel.packet.def.Packet6StreamAck;
+import sexy.kostya.proto4j.transport.packet.PacketCodec;
+import sexy.kostya.proto4j.transport.packet.Proto4jPacket;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * Credit flow of the streams of two channels which packets are passed to each other one by one.
+ */
+public class StreamRegistryTest {
+
+    private final static DefaultPacketManager MANAGER = new DefaultPacketManager();
+
+    @Test
+    public void testCreditFlow() throws Exception {
+        Pipe                  sender   = new Pipe();
+        Pipe                  receiver = new Pipe();
+        byte[]                data     = random(StreamRegistry.CHUNK_SIZE * StreamRegistry.WINDOW * 3 + 123);
+        ByteArrayOutputStream written  = new ByteArrayOutputStream();
+        WritableByteChannel   target   = Channels.newChannel(written);
+
+        CompletableFuture<Void> future = sender.sendStream("data", Channels.newChannel(new ByteArrayInputStream(data))).toCompletableFuture();
+        Assert.assertEquals("data", ((Packet4StreamOpen) deliver(sender, receiver, name -> target)).getName());
+        Assert.assertEquals(StreamRegistry.WINDOW, ((Packet6StreamAck) deliver(receiver, sender, null)).getCredits());
+        // the sender doesn't send more than the window until the receiver writes the chunks
+        Assert.assertEquals(StreamRegistry.WINDOW, sender.sent.size());
+        Assert.assertEquals(StreamRegistry.WINDOW, sender.chunks);
+
+        int delivered = 0;
+        while (!future.isDone()) {
+            if (!receiver.sent.isEmpty()) {
+                Packet6StreamAck ack = (Packet6StreamAck) deliver(receiver, sender, null);
+                if (!ack.isCompleted()) {
+                    Assert.assertEquals((StreamRegistry.WINDOW + 1) / 2, ack.getCredits());
+                }
+            } else {
+                Assert.assertFalse("Stream is stuck", sender.sent.isEmpty());
+                if (deliver(sender, receiver, null) instanceof Packet5StreamChunk) {
+                    delivered++;
+                }
+            }
+            Assert.assertTrue(sender.chunks - delivered <= StreamRegistry.WINDOW);
+        }
+        future.get();
+        Assert.assertEquals(data.length / StreamRegistry.CHUNK_SIZE + 1, sender.chunks);
+        Assert.assertArrayEquals(data, written.toByteArray());
+        Assert.assertFalse(target.isOpen());
+    }
+
+    @Test
+    public void testFileStream() throws Exception {
+        Pipe                  sender   = new Pipe();
+        Pipe                  receiver = new Pipe();
+        byte[]                data     = random(StreamRegistry.CHUNK_SIZE * 2 + 5);
+        ByteArrayOutputStream written  = new ByteArrayOutputStream();
+        Path                  file     = Files.createTempFile("proto4j", ".stream");
+        try {
+            Files.write(file, data);
+            FileChannel             source = FileChannel.open(file, StandardOpenOption.READ);
+            CompletableFuture<Void> future = sender.sendStream("file", source).toCompletableFuture();
+            deliver(sender, receiver, name -> Channels.newChannel(written));
+            pump(sender, receiver, future);
+            future.get();
+            Assert.assertArrayEquals(data, written.toByteArray());
+            Assert.assertFalse(source.isOpen());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testRejected() {
+        Pipe                    sender   = new Pipe();
+        Pipe                    receiver = new Pipe();
+        CompletableFuture<Void> future   = sender.sendStream("data", Channels.newChannel(new ByteArrayInputStream(random(10)))).toCompletableFuture();
+        deliver(sender, receiver, name -> null);
+        pump(sender, receiver, future);
+        assertAborted(future, "Stream is rejected");
+        Assert.assertEquals(0, sender.chunks);
+    }
+
+    @Test
+    public void testWriteFailure() {
+        Pipe                    sender   = new Pipe();
+        Pipe                    receiver = new Pipe();
+        CompletableFuture<Void> future   = sender.sendStream("data", Channels.newChannel(new ByteArrayInputStream(random(StreamRegistry.CHUNK_SIZE * 4)))).toCompletableFuture();
+        deliver(sender, receiver, name -> new WritableByteChannel() {
+
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                throw new IOException("Disk is full");
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+
+        });
+        pump(sender, receiver, future);
+        assertAborted(future, "Could not write stream: Disk is full");
+    }
+
+    private static void pump(Pipe sender, Pipe receiver, CompletableFuture<Void> future) {
+        while (!future.isDone()) {
+            if (!receiver.sent.isEmpty()) {
+                deliver(receiver, sender, null);
+            } else {
+                Assert.assertFalse("Stream is stuck", sender.sent.isEmpty());
+                deliver(sender, receiver, null);
+            }
+        }
+    }
+
+    private static EnumeratedProto4jPacket deliver(Pipe from, Pipe to, Function<String, WritableByteChannel> acceptor) {
+        EnumeratedProto4jPacket packet = from.sent.remove();
+        if (packet instanceof Packet4StreamOpen) {
+            to.getStreams().handle((Packet4StreamOpen) packet, acceptor);
+        } else if (packet instanceof Packet5StreamChunk) {
+            to.getStreams().handle((Packet5StreamChunk) packet);
+        } else {
+            to.getStreams().handle((Packet6StreamAck) packet);
+        }
+        return packet;
+    }
+
+    private static void assertAborted(CompletableFuture<Void> future, String error) {
+        try {
+            future.get();
+            Assert.fail();
+        } catch (ExecutionException ex) {
+            Assert.assertEquals("Stream is aborted by the receiver: " + error, ex.getCause().getMessage());
+        } catch (InterruptedException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    private static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Channel which keeps the packets it sends, each of them written and read back.
+     */
+    private static class Pipe extends HighChannel {
+
+        private final Queue<EnumeratedProto4jPacket> sent = new ArrayDeque<>();
+        private       int                            chunks;
+
+        Pipe() {
+            super(new CallbacksRegistry(), new PacketCodec(new DatagramTransport() {
+
+                @Override
+                public void send(byte[] array, InetSocketAddress address) {
+                }
+
+                @Override
+                public boolean isClosed() {
+                    return false;
+                }
+
+                @Override
+                public void close() {
+                }
+
+            }, InetSocketAddress.createUnresolved("remote", 0)));
+        }
+
+        @Override
+        public void send(Object key, EnumeratedProto4jPacket packet, int flags, Proto4jPacket.Priority priority) {
+            Buffer buffer = Buffer.newBuffer();
+            buffer.writeVarInt(packet.getID());
+            packet.write(buffer);
+            EnumeratedProto4jPacket read = MANAGER.readPacket(buffer);
+            if (read instanceof Packet5StreamChunk && ((Packet5StreamChunk) read).getData() != null) {
+                this.chunks++;
+            }
+            this.sent.add(read);
+        }
+
+    }
+
+}
@@ -0,0 +1,189 @@
+package sexy.kostya.proto4j.transport.highlevel.packet;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.highlevel.HighChannel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lookups of the packets by their identifiers and reuse of the pooled ones.
+ */
+public class PacketManagerTest {
+
+    @Test
+    public void testRecycle() {
+        PacketManager manager = new PacketManager();
+        manager.registerPooled(2, ListPacket::new);
+
+        ListPacket first = manager.readPacket(buffer(ListPacket.ID, 1, 2, 3));
+        Assert.assertEquals(list(1, 2, 3), first.values);
+        manager.recycle(first);
+        Assert.assertEquals(1, first.resets);
+        Assert.assertTrue(first.values.isEmpty());
+
+        // the recycled packet is read again without the values of its previous use
+        ListPacket second = manager.readPacket(buffer(ListPacket.ID, 4));
+        Assert.assertSame(first, second);
+        Assert.assertEquals(list(4), second.values);
+    }
+
+    @Test
+    public void testCapacity() {
+        PacketManager manager = new PacketManager();
+        manager.registerPooled(2, ListPacket::new);
+        ListPacket[] packets = new ListPacket[3];
+        for (int i = 0; i < packets.length; ++i) {
+            packets[i] = manager.readPacket(buffer(ListPacket.ID, i));
+        }
+        for (ListPacket packet : packets) {
+            manager.recycle(packet);
+        }
+        // the pool keeps two idle packets at most, the last recycled one is reused first
+        Assert.assertSame(packets[1], manager.readPacket(buffer(ListPacket.ID)));
+        Assert.assertSame(packets[0], manager.readPacket(buffer(ListPacket.ID)));
+        ListPacket created = manager.readPacket(buffer(ListPacket.ID));
+        for (ListPacket packet : packets) {
+            Assert.assertNotSame(packet, created);
+        }
+    }
+
+    @Test
+    public void testNotPooled() {
+        PacketManager manager = new PacketManager();
+        manager.register(ListPacket::new);
+        ListPacket packet = manager.readPacket(buffer(ListPacket.ID, 1));
+        manager.recycle(packet);
+        Assert.assertEquals(0, packet.resets);
+        Assert.assertNotSame(packet, manager.readPacket(buffer(ListPacket.ID, 1)));
+
+        // registering the packet once more drops its pool
+        manager.registerPooled(4, ListPacket::new);
+        manager.register(ListPacket::new);
+        packet = manager.readPacket(buffer(ListPacket.ID, 1));
+        manager.recycle(packet);
+        Assert.assertEquals(0, packet.resets);
+    }
+
+    @Test
+    public void testRecycleOtherClass() {
+        PacketManager manager = new PacketManager();
+        manager.registerPooled(2, ListPacket::new);
+        // the packet of another class with the same identifier is neither reset nor pooled
+        ListPacket other = new ListPacket() {
+        };
+        manager.recycle(other);
+        Assert.assertEquals(0, other.resets);
+        Assert.assertNotSame(other, manager.readPacket(buffer(ListPacket.ID)));
+    }
+
+    @Test
+    public void testHandler() {
+        PacketHandler<HighChannel> handler = new PacketHandler<>();
+        List<ListPacket>           handled = new ArrayList<>();
+        handler.register(ListPacket.class, (channel, packet) -> handled.add(packet));
+        handler.register(ListPacket.class, (channel, packet) -> handled.add(packet));
+        try {
+            handler.register(ClashingPacket.class, (channel, packet) -> {
+            });
+            Assert.fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+        ListPacket packet = new ListPacket();
+        handler.handle(null, packet);
+        Assert.assertEquals(2, handled.size());
+        // handlers are looked up by the identifier, but the class must match as well
+        handler.handle(null, new ClashingPacket());
+        Assert.assertEquals(2, handled.size());
+        handler.unregisterAll(ListPacket.class);
+        handler.handle(null, packet);
+        Assert.assertEquals(2, handled.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @SuppressWarnings("unchecked")
+    public void testIdentifierRange() {
+        new PacketManager().register(ListPacket::new, () -> new ClashingPacket(-70_000));
+    }
+
+    private static Buffer buffer(int id, int... values) {
+        Buffer buffer = Buffer.newBuffer();
+        buffer.writeVarInt(id);
+        buffer.writeVarInt(values.length);
+        for (int value : values) {
+            buffer.writeVarInt(value);
+        }
+        return buffer;
+    }
+
+    private static List<Integer> list(Integer... values) {
+        List<Integer> list = new ArrayList<>();
+        for (Integer value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static class ListPacket extends EnumeratedProto4jPacket {
+
+        private final static int ID = 100;
+
+        private final List<Integer> values = new ArrayList<>();
+        private       int           resets;
+
+        @Override
+        public int getID() {
+            return ID;
+        }
+
+        @Override
+        public void write(Buffer buffer) {
+            buffer.writeVarInt(this.values.size());
+            this.values.forEach(buffer::writeVarInt);
+        }
+
+        @Override
+        public void read(Buffer buffer) {
+            for (int i = buffer.readVarInt(); i > 0; --i) {
+                this.values.add(buffer.readVarInt());
+            }
+        }
+
+        @Override
+        public void reset() {
+            this.values.clear();
+            this.resets++;
+        }
+
+    }
+
+    private static class ClashingPacket extends EnumeratedProto4jPacket {
+
+        private final int id;
+
+        ClashingPacket() {
+            this(ListPacket.ID);
+        }
+
+        ClashingPacket(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int getID() {
+            return this.id;
+        }
+
+        @Override
+        public void write(Buffer buffer) {
+        }
+
+        @Override
+        public void read(Buffer buffer) {
+        }
+
+    }
+
+}
@@ -0,0 +1,351 @@
+package sexy.kostya.proto4j.transport.packet;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.util.TokenBucket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Delivery guarantees of packets sent between two channels over an in-memory link.
+ */
+public class DeliveryTest {
+
+    private final static byte SEQUENCED = Proto4jPacket.Flag.SEQUENCED | Proto4jPacket.Flag.UNRELIABLE;
+
+    @Test
+    public void testSequencedKeys() throws InterruptedException {
+        Link[] links = Link.pair();
+        links[0].getChannel().send(sequenced(5, 1L, 1));
+        Assert.assertArrayEquals(new byte[]{1}, links[1].poll());
+        // older than the newest packet of its key
+        links[0].getChannel().send(sequenced(3, 1L, 2));
+        // older too, but of another key
+        links[0].getChannel().send(sequenced(4, 2L, 3));
+        Assert.assertArrayEquals(new byte[]{3}, links[1].poll());
+        links[0].getChannel().send(sequenced(6, 1L, 4));
+        Assert.assertArrayEquals(new byte[]{4}, links[1].poll());
+        Assert.assertNull(links[1].poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testSequencedFlags() {
+        // unordered sequenced flags mark a keyed packet instead, which must be reliable
+        Assert.assertThrows(IllegalStateException.class, () -> Proto4jPacket.Flag.validate((byte) (SEQUENCED | Proto4jPacket.Flag.UNORDERED)));
+    }
+
+    @Test
+    public void testSupersede() throws InterruptedException {
+        Link[] links = Link.pair();
+        // the first packet is lost until it's cancelled
+        links[0].setLoss(datagram -> Link.getSequenceNumber(datagram) == 0 && (Link.getFlags(datagram) & Proto4jPacket.Flag.CANCELLED) == 0);
+        links[0].getChannel().send("key", (byte) 0, body(1));
+        links[0].getChannel().send("key", (byte) 0, body(2));
+        links[0].getChannel().send(body(3));
+        Assert.assertArrayEquals(new byte[]{2}, links[1].poll());
+        Assert.assertArrayEquals(new byte[]{3}, links[1].poll());
+        Assert.assertNull(links[1].poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testTimeToLive() throws InterruptedException, ExecutionException, TimeoutException {
+        Link[] links = Link.pair();
+        links[0].setLoss(datagram -> Link.getSequenceNumber(datagram) == 0 && (Link.getFlags(datagram) & Proto4jPacket.Flag.CANCELLED) == 0);
+        CompletableFuture<Void> expired   = links[0].getChannel().send((byte) 0, body(1), 100, TimeUnit.MILLISECONDS).toCompletableFuture();
+        CompletableFuture<Void> delivered = links[0].getChannel().send((byte) 0, body(2), 5, TimeUnit.SECONDS).toCompletableFuture();
+        // the second packet waits for the first one to expire
+        Assert.assertArrayEquals(new byte[]{2}, links[1].poll());
+        delivered.get(5, TimeUnit.SECONDS);
+        try {
+            expired.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+        Assert.assertNull(links[1].poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testParityRecovery() throws InterruptedException {
+        Link[] links = Link.pair();
+        // the part is lost along with all its retransmissions, so it can only be restored from the parity
+        links[0].setLoss(datagram -> !Link.isConfirmation(datagram) && (Link.getFlags(datagram) & Proto4jPacket.Flag.PARTIAL) != 0 && Link.getPartIndex(datagram) == 3);
+        byte[] body = random(3000);
+        Proto4jPacket packet = new Proto4jPacket((byte) 0, Buffer.wrap(body.clone()));
+        packet.setRedundancy(0.5F);
+        links[0].getChannel().send(packet);
+        Assert.assertArrayEquals(body, links[1].poll());
+    }
+
+    @Test
+    public void testMalformedParity() {
+        Link[] links = Link.pair();
+        byte   flags = Proto4jPacket.Flag.PARTIAL;
+        // parity part of the group size 0, then a data part which would be located by it
+        Assert.assertFalse(links[1].getChannel().recv(Buffer.wrap(Link.encode(0, flags, new byte[]{0, 4, 0, 4, 0, 0, 0, 1, 7}))));
+        Assert.assertFalse(links[1].getChannel().recv(Buffer.wrap(Link.encode(0, flags, new byte[]{0, 4, 0, 4, (byte) 0xFF, (byte) 0xFF, 0, 1, 7}))));
+        Assert.assertFalse(links[1].getChannel().recv(Buffer.wrap(Link.encode(0, flags, new byte[]{0, 4, 0, 4, 0, 5, 0, 1, 7}))));
+        // parity of the group 1 while there's a single group of 4 parts
+        Assert.assertFalse(links[1].getChannel().recv(Buffer.wrap(Link.encode(0, flags, new byte[]{0, 5, 0, 4, 0, 4, 0, 1, 7}))));
+        Assert.assertTrue(links[1].getChannel().recv(Buffer.wrap(Link.encode(0, flags, new byte[]{0, 1, 0, 4, 7}))));
+    }
+
+    @Test
+    public void testPartialConfirmation() {
+        Link[] links = Link.pair();
+        ReliabilityChecker.ConfirmationAwaitingPartialPacket packet = links[0].getChannel().getCodec().getReliabilityChecker().new ConfirmationAwaitingPartialPacket(0, null, Proto4jPacket.Priority.NORMAL, (short) 20);
+        for (short i = 0; i < 20; ++i) {
+            Assert.assertTrue(packet.set(i, body(i)));
+        }
+        BitSet confirmed = new BitSet();
+        confirmed.set(0);
+        confirmed.set(2);
+        confirmed.set(14);
+        // parts below the offset and the ones set in the bitmap starting with the offset
+        Assert.assertFalse(packet.confirm(5, confirmed));
+        List<byte[]> unconfirmed = packet.getUnconfirmed(System.currentTimeMillis());
+        Assert.assertEquals(12, unconfirmed.size());
+        Assert.assertArrayEquals(new byte[]{6}, unconfirmed.get(0));
+        Assert.assertArrayEquals(new byte[]{8}, unconfirmed.get(1));
+        Assert.assertArrayEquals(new byte[]{18}, unconfirmed.get(11));
+        Assert.assertFalse(packet.set((short) 5, body(5)));
+
+        confirmed.clear();
+        confirmed.set(0, 14);
+        Assert.assertTrue(packet.confirm(6, confirmed));
+        Assert.assertTrue(packet.getUnconfirmed(System.currentTimeMillis()).isEmpty());
+    }
+
+    @Test
+    public void testLostPart() throws InterruptedException {
+        Link[]        links = Link.pair();
+        AtomicBoolean lost  = new AtomicBoolean();
+        links[0].setLoss(datagram -> !Link.isConfirmation(datagram) && (Link.getFlags(datagram) & Proto4jPacket.Flag.PARTIAL) != 0 && Link.getPartIndex(datagram) == 3 && lost.compareAndSet(false, true));
+        byte[] body = random(3000);
+        links[0].getChannel().send(Buffer.wrap(body.clone()));
+        Assert.assertArrayEquals(body, links[1].poll());
+        Assert.assertTrue(lost.get());
+    }
+
+    @Test
+    public void testLossyLink() throws InterruptedException {
+        Link[] links  = Link.pair();
+        Random random = new Random(31);
+        // confirmations, negative ones and cancellations are lost as well
+        links[0].setLoss(datagram -> random.nextInt(5) == 0);
+        links[1].setLoss(datagram -> random.nextInt(5) == 0);
+        byte[][] bodies = new byte[100][];
+        for (int i = 0; i < bodies.length; ++i) {
+            bodies[i] = random(i % 10 == 0 ? 2000 : 1 + i);
+            links[0].getChannel().send(Buffer.wrap(bodies[i].clone()));
+        }
+        for (byte[] body : bodies) {
+            Assert.assertArrayEquals(body, links[1].poll());
+        }
+        Assert.assertTrue(links[0].getEncoder().getRetransmittedDatagrams() > 0);
+    }
+
+    @Test
+    public void testKeyedLanes() throws InterruptedException {
+        Link[]                 links   = Link.pair();
+        CountDownLatch         blocked = new CountDownLatch(1);
+        BlockingQueue<Integer> handled = new LinkedBlockingQueue<>();
+        links[1].getChannel().setHandler(Executors.newCachedThreadPool(), packet -> {
+            int body = packet.getBuffer().readByte();
+            if (body == 1) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            handled.add(body);
+        });
+        // keys 1 and 2 are hashed to different lanes
+        links[0].getChannel().send(keyed(1, body(1)));
+        links[0].getChannel().send(keyed(1, body(2)));
+        links[0].getChannel().send(keyed(2, body(3)));
+        links[0].getChannel().send(keyed(2, body(4)));
+        // the lane of the other key isn't held up by the blocked packet
+        Assert.assertEquals(3, (int) handled.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals(4, (int) handled.poll(5, TimeUnit.SECONDS));
+        // while the next packet of the same key waits for it
+        Assert.assertNull(handled.poll(100, TimeUnit.MILLISECONDS));
+        blocked.countDown();
+        Assert.assertEquals(1, (int) handled.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, (int) handled.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testKeyedBeforeOrdered() throws InterruptedException {
+        Link[]                 links   = Link.pair();
+        CountDownLatch         blocked = new CountDownLatch(1);
+        BlockingQueue<Integer> handled = new LinkedBlockingQueue<>();
+        links[1].getChannel().setHandler(Executors.newCachedThreadPool(), packet -> {
+            int body = packet.getBuffer().readByte();
+            if (body == 1) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            handled.add(body);
+        });
+        links[0].getChannel().send(keyed(1, body(1)));
+        links[0].getChannel().send(body(2));
+        links[0].getChannel().send(keyed(2, body(3)));
+        // the packet which isn't keyed waits for the keyed ones sent before it
+        Assert.assertNull(handled.poll(100, TimeUnit.MILLISECONDS));
+        blocked.countDown();
+        Assert.assertEquals(1, (int) handled.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, (int) handled.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, (int) handled.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testKeyedOrder() throws InterruptedException {
+        Link[] links  = Link.pair();
+        Random random = new Random(37);
+        links[0].setLoss(datagram -> random.nextInt(5) == 0);
+        links[1].setLoss(datagram -> random.nextInt(5) == 0);
+        for (int i = 0; i < 100; ++i) {
+            links[0].getChannel().send(keyed(i % 4, body(i % 4, i)));
+        }
+        int[] last = {-1, -1, -1, -1};
+        for (int i = 0; i < 100; ++i) {
+            byte[] body = links[1].poll();
+            Assert.assertNotNull(body);
+            Assert.assertTrue(body[1] > last[body[0]]);
+            last[body[0]] = body[1];
+        }
+        Assert.assertArrayEquals(new int[]{96, 97, 98, 99}, last);
+    }
+
+    @Test
+    public void testKeyedFlags() {
+        Link[] links = Link.pair();
+        // the ordering key can only be given by setOrderingKey
+        Assert.assertThrows(IllegalArgumentException.class, () -> links[0].getChannel().send(Proto4jPacket.Flag.KEYED, body(1)));
+        Proto4jPacket packet = new Proto4jPacket(Proto4jPacket.Flag.UNRELIABLE, body(1));
+        Assert.assertThrows(IllegalStateException.class, () -> packet.setOrderingKey(1));
+    }
+
+    @Test
+    public void testPacing() throws InterruptedException {
+        Link[] links = Link.pair();
+        // a single datagram worth of burst, then one per 20 ms
+        links[0].getEncoder().setRateLimits(new TokenBucket(0, 50, 0, TimeUnit.MILLISECONDS));
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; ++i) {
+            links[0].getChannel().send(body(i));
+        }
+        Assert.assertEquals(9, links[0].getEncoder().getQueueDepth());
+        for (int i = 0; i < 10; ++i) {
+            Assert.assertArrayEquals(new byte[]{(byte) i}, links[1].poll());
+        }
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(9 * 20 - 5));
+        Assert.assertEquals(0, links[0].getEncoder().getQueueDepth());
+    }
+
+    @Test
+    public void testTokenBucket() {
+        TokenBucket bucket = new TokenBucket(1000, 0, 0, TimeUnit.MILLISECONDS);
+        // capacity is never less than a single datagram
+        Assert.assertEquals(0, bucket.reserve(500));
+        long delay = bucket.reserve(500);
+        Assert.assertTrue(delay > TimeUnit.MILLISECONDS.toNanos(400) && delay <= TimeUnit.MILLISECONDS.toNanos(500));
+        delay = bucket.reserve(100);
+        Assert.assertTrue(delay > TimeUnit.MILLISECONDS.toNanos(500) && delay <= TimeUnit.MILLISECONDS.toNanos(600));
+    }
+
+    @Test
+    public void testPriorities() throws InterruptedException {
+        Link[]         links = Link.pair();
+        Queue<Integer> sent  = new ConcurrentLinkedQueue<>();
+        links[0].setLoss(datagram -> {
+            if (!Link.isConfirmation(datagram)) {
+                sent.add(Link.getSequenceNumber(datagram));
+            }
+            return false;
+        });
+        links[0].getEncoder().setRateLimits(new TokenBucket(0, 100));
+        Proto4jPacket.Priority[] priorities = {
+                Proto4jPacket.Priority.LOW, Proto4jPacket.Priority.LOW, Proto4jPacket.Priority.LOW,
+                Proto4jPacket.Priority.NORMAL, Proto4jPacket.Priority.NORMAL, Proto4jPacket.Priority.NORMAL,
+                Proto4jPacket.Priority.HIGH
+        };
+        for (int i = 0; i < priorities.length; ++i) {
+            Proto4jPacket packet = new Proto4jPacket((byte) 0, body(i));
+            packet.setPriority(priorities[i]);
+            links[0].getChannel().send(packet);
+        }
+        // the handling order is still the sending one
+        for (int i = 0; i < priorities.length; ++i) {
+            Assert.assertArrayEquals(new byte[]{(byte) i}, links[1].poll());
+        }
+        // the first one is sent at once, while the rest are delayed by pacing and sent by their priority
+        Assert.assertEquals(Arrays.asList(0, 6, 3, 4, 5, 1, 2), new ArrayList<>(sent).subList(0, priorities.length));
+    }
+
+    @Test
+    public void testOvertakenByPriority() throws InterruptedException {
+        Link[] links = Link.pair();
+        links[0].getEncoder().setRateLimits(new TokenBucket(0, 100));
+        for (int i = 0; i < 10; ++i) {
+            links[0].getChannel().send(body(i));
+        }
+        Proto4jPacket urgent = new Proto4jPacket((byte) 0, body(10));
+        urgent.setPriority(Proto4jPacket.Priority.HIGH);
+        links[0].getChannel().send(urgent);
+        for (int i = 0; i <= 10; ++i) {
+            Assert.assertArrayEquals(new byte[]{(byte) i}, links[1].poll());
+        }
+        // the receiver reports the delayed packets lost once the urgent one overtakes them, but they're not sent twice
+        Assert.assertEquals(0, links[0].getEncoder().getRetransmittedDatagrams());
+    }
+
+    private static byte[] random(int length) {
+        byte[] array = new byte[length];
+        ThreadLocalRandom.current().nextBytes(array);
+        return array;
+    }
+
+    private static Buffer body(int... body) {
+        byte[] array = new byte[body.length];
+        for (int i = 0; i < body.length; ++i) {
+            array[i] = (byte) body[i];
+        }
+        return Buffer.wrap(array);
+    }
+
+    private static Proto4jPacket keyed(Object orderingKey, Buffer body) {
+        Proto4jPacket packet = new Proto4jPacket((byte) 0, body);
+        packet.setOrderingKey(orderingKey);
+        return packet;
+    }
+
+    private static Proto4jPacket sequenced(int sequenceNumber, long sequenceKey, int body) {
+        Proto4jPacket packet = new Proto4jPacket(sequenceNumber, SEQUENCED, body(body));
+        packet.setSequenceKey(sequenceKey);
+        return packet;
+    }
+
+}
@@ -0,0 +1,134 @@
+package sexy.kostya.proto4j.transport.packet;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import sexy.kostya.proto4j.transport.Channel;
+import sexy.kostya.proto4j.transport.buffer.Buffer;
+import sexy.kostya.proto4j.transport.datagram.DatagramTransport;
+import sexy.kostya.proto4j.transport.util.DatagramHelper;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * In-memory datagram transport of one of two connected channels, which loses the datagrams matching the given predicate.
+ */
+class Link implements DatagramTransport {
+
+    private final static InetSocketAddress ADDRESS  = InetSocketAddress.createUnresolved("link", 0);
+    private final static ExecutorService   HANDLERS = Executors.newCachedThreadPool();
+
+    private final ExecutorService       delivery = Executors.newSingleThreadExecutor();
+    private final BlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+    private final Channel               channel;
+
+    private volatile Link              peer;
+    private volatile Predicate<byte[]> loss = datagram -> false;
+    private volatile boolean           closed;
+
+    private Link() {
+        this.channel = new Channel(new PacketCodec(this, ADDRESS));
+        this.channel.setHandler(HANDLERS, packet -> {
+            byte[] body = new byte[packet.getBuffer().readableBytes()];
+            packet.getBuffer().readBytes(body);
+            this.received.add(body);
+        });
+    }
+
+    /**
+     * @return two links which channels are connected to each other
+     */
+    static Link[] pair() {
+        Link first  = new Link();
+        Link second = new Link();
+        first.peer = second;
+        second.peer = first;
+        return new Link[]{first, second};
+    }
+
+    Channel getChannel() {
+        return this.channel;
+    }
+
+    PacketEncoder getEncoder() {
+        return this.channel.getCodec().getEncoder();
+    }
+
+    /**
+     * @param loss predicate of the datagrams sent by this link which are lost
+     */
+    void setLoss(Predicate<byte[]> loss) {
+        this.loss = loss;
+    }
+
+    /**
+     * @return body of the next packet handled by the channel of this link or null if there's none for a while
+     */
+    byte[] poll() throws InterruptedException {
+        return poll(5, TimeUnit.SECONDS);
+    }
+
+    byte[] poll(long time, TimeUnit unit) throws InterruptedException {
+        return this.received.poll(time, unit);
+    }
+
+    @Override
+    public void send(byte[] array, InetSocketAddress address) {
+        if (this.closed || this.loss.test(array)) {
+            return;
+        }
+        byte[]  copy = array.clone();
+        Channel peer = this.peer.channel;
+        this.delivery.execute(() -> peer.recv(Buffer.wrap(copy)));
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        this.delivery.shutdown();
+    }
+
+    /**
+     * Encodes the datagram just like {@link PacketEncoder} does, the body of a part starts with its index and the total amount of parts.
+     */
+    static byte[] encode(int sequenceNumber, byte flags, byte[] body) {
+        int     length   = DatagramHelper.HEADER_LENGTH + body.length + DatagramHelper.CRC_LENGTH;
+        ByteBuf datagram = Unpooled.buffer(length, length);
+        datagram.writeShort(length);
+        datagram.writeInt(sequenceNumber);
+        datagram.writeByte(flags);
+        datagram.writeBytes(body);
+        datagram.writeInt(DatagramHelper.crc32(datagram.array(), 0, datagram.writerIndex()));
+        return datagram.array();
+    }
+
+    static int getSequenceNumber(byte[] datagram) {
+        return (datagram[2] & 0xFF) << 24 | (datagram[3] & 0xFF) << 16 | (datagram[4] & 0xFF) << 8 | datagram[5] & 0xFF;
+    }
+
+    static byte getFlags(byte[] datagram) {
+        return datagram[6];
+    }
+
+    static boolean isConfirmation(byte[] datagram) {
+        return (getFlags(datagram) & Proto4jPacket.Flag.CONFIRMATION) != 0;
+    }
+
+    /**
+     * @return index of the part of a large packet, parity parts are indexed after the data ones
+     */
+    static int getPartIndex(byte[] datagram) {
+        return (datagram[7] & 0xFF) << 8 | datagram[8] & 0xFF;
+    }
+
+}
@@ -0,0 +1,63 @@
+package sexy.kostya.proto4j.transport.packet;
+
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Records of the shared memory ring, which is backed by a direct buffer instead of a mapped file.
+ */
+public class SharedMemoryRingTest {
+
+    private final static int CAPACITY = 256;
+
+    @Test
+    public void testWrapAround() {
+        ByteBuffer       memory = ByteBuffer.allocateDirect(SharedMemoryRing.CONTROL_SIZE + CAPACITY);
+        SharedMemoryRing writer = new SharedMemoryRing(memory, 0, SharedMemoryRing.CONTROL_SIZE, CAPACITY);
+        SharedMemoryRing reader = new SharedMemoryRing(memory, 0, SharedMemoryRing.CONTROL_SIZE, CAPACITY);
+        Assert.assertNull(reader.poll());
+        for (int i = 0; i < 100; i++) {
+            byte[] body = new byte[i % 50];
+            for (int j = 0; j < body.length; j++) {
+                body[j] = (byte) (i + j);
+            }
+            Assert.assertTrue(writer.offer((byte) i, Unpooled.wrappedBuffer(body)));
+            Proto4jPacket packet = reader.poll();
+            Assert.assertEquals((byte) i, packet.getFlags());
+            byte[] read = new byte[packet.getBuffer().readableBytes()];
+            packet.getBuffer().readBytes(read);
+            Assert.assertArrayEquals(body, read);
+            Assert.assertNull(reader.poll());
+        }
+        Assert.assertFalse(reader.isClosed());
+    }
+
+    @Test
+    public void testMalformedLength() {
+        for (int length : new int[]{0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, CAPACITY + 1, 12}) {
+            ByteBuffer       memory = ByteBuffer.allocateDirect(SharedMemoryRing.CONTROL_SIZE + CAPACITY);
+            SharedMemoryRing writer = new SharedMemoryRing(memory, 0, SharedMemoryRing.CONTROL_SIZE, CAPACITY);
+            SharedMemoryRing reader = new SharedMemoryRing(memory, 0, SharedMemoryRing.CONTROL_SIZE, CAPACITY);
+            Assert.assertTrue(writer.offer((byte) 0, Unpooled.wrappedBuffer(new byte[4])));
+            // the record of 12 bytes is longer than the one of 8 bytes written
+            memory.putInt(SharedMemoryRing.CONTROL_SIZE, length);
+            Assert.assertNull(reader.poll());
+            Assert.assertTrue(reader.isClosed());
+            Assert.assertFalse(writer.offer((byte) 0, Unpooled.wrappedBuffer(new byte[CAPACITY - 8])));
+        }
+    }
+
+    @Test
+    public void testMalformedPosition() {
+        ByteBuffer       memory = ByteBuffer.allocateDirect(SharedMemoryRing.CONTROL_SIZE + CAPACITY).order(ByteOrder.nativeOrder());
+        SharedMemoryRing reader = new SharedMemoryRing(memory, 0, SharedMemoryRing.CONTROL_SIZE, CAPACITY);
+        memory.putLong(0, CAPACITY * 2);
+        Assert.assertNull(reader.poll());
+        Assert.assertTrue(reader.isClosed());
+    }
+
+}
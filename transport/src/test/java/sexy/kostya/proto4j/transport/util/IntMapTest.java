@@ -0,0 +1,102 @@
+package sexy.kostya.proto4j.transport.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Lookups of the entries of {@link IntMap} which probing sequences are shifted back on removal and rebuilt on resize.
+ */
+public class IntMapTest {
+
+    @Test
+    public void testWrapAround() {
+        // slots of the keys are 15, 0, 1, 2 and 3 as the sequences of the last slot wrap around the table of 16
+        List<Integer> last  = keysOfSlot(15, 3);
+        List<Integer> first = keysOfSlot(0, 2);
+        List<Integer> keys  = new ArrayList<>(last);
+        keys.addAll(first);
+        for (int removed = 0; removed < keys.size(); ++removed) {
+            IntMap<Integer> map = new IntMap<>(8);
+            for (int key : keys) {
+                map.put(key, key);
+            }
+            Assert.assertEquals(keys.get(removed), map.remove(keys.get(removed)));
+            Assert.assertNull(map.remove(keys.get(removed)));
+            Assert.assertEquals(keys.size() - 1, map.size());
+            for (int key : keys) {
+                Assert.assertEquals(key == keys.get(removed) ? null : key, map.get(key));
+            }
+            // the slot freed by the shift is reused
+            Assert.assertNull(map.put(keys.get(removed), -1));
+            for (int key : keys) {
+                Assert.assertEquals(key == keys.get(removed) ? -1 : key, (int) map.get(key));
+            }
+        }
+    }
+
+    @Test
+    public void testResize() {
+        IntMap<Integer> map  = new IntMap<>();
+        int[]           keys = {0, -1, 1, Integer.MIN_VALUE, Integer.MAX_VALUE};
+        for (int key : keys) {
+            map.put(key, key);
+        }
+        for (int i = 2; i < 10_000; ++i) {
+            Assert.assertNull(map.put(i, i));
+        }
+        Assert.assertEquals(10_000 - 2 + keys.length, map.size());
+        for (int i = 2; i < 10_000; i += 2) {
+            Assert.assertEquals(i, (int) map.remove(i));
+        }
+        for (int i = 2; i < 10_000; ++i) {
+            Assert.assertEquals(i % 2 == 0 ? null : i, map.get(i));
+        }
+        for (int key : keys) {
+            Assert.assertEquals(key, (int) map.get(key));
+        }
+        Assert.assertEquals(5_000 - 1 + keys.length, map.size());
+    }
+
+    @Test
+    public void testRandomOperations() {
+        Random                random   = new Random(41);
+        IntMap<Integer>       map      = new IntMap<>();
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 200_000; ++i) {
+            // the amount of entries goes up and down, so that the map is resized while entries are removed
+            int key   = random.nextInt(i % 20_000 < 10_000 ? 4096 : 256);
+            int value = random.nextInt();
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                Assert.assertEquals(expected.put(key, value), map.put(key, value));
+            }
+            Assert.assertEquals(expected.size(), map.size());
+        }
+        for (int key = 0; key < 4096; ++key) {
+            Assert.assertEquals(expected.get(key), map.get(key));
+            Assert.assertEquals(expected.containsKey(key), map.containsKey(key));
+        }
+    }
+
+    /**
+     * @return keys which probing sequences start at the given slot of the table of 16
+     */
+    private static List<Integer> keysOfSlot(int slot, int amount) {
+        List<Integer> keys = new ArrayList<>();
+        for (int key = 0; keys.size() < amount; ++key) {
+            int hash = key * 0x9E3779B9;
+            if (((hash ^ (hash >>> 16)) & 15) == slot) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+}
@@ -0,0 +1,80 @@
+package sexy.kostya.proto4j.transport.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Firing and cancellation of the timeouts of {@link TimerWheel}.
+ */
+public class TimerWheelTest {
+
+    @Test
+    public void testMultipleRounds() throws InterruptedException {
+        // a round of the wheel takes 512 ticks, so the long timeout shares the bucket of the short one for two rounds
+        TimerWheel     wheel  = new TimerWheel(1, "Timer Wheel Test");
+        CountDownLatch fired  = new CountDownLatch(2);
+        AtomicLong     first  = new AtomicLong();
+        AtomicLong     second = new AtomicLong();
+        long           start  = System.nanoTime();
+        wheel.schedule(20, TimeUnit.MILLISECONDS, () -> {
+            first.set(System.nanoTime() - start);
+            fired.countDown();
+        });
+        wheel.schedule(20 + 2 * 512, TimeUnit.MILLISECONDS, () -> {
+            second.set(System.nanoTime() - start);
+            fired.countDown();
+        });
+        Assert.assertTrue(fired.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(first.get() >= TimeUnit.MILLISECONDS.toNanos(20));
+        Assert.assertTrue(second.get() >= TimeUnit.MILLISECONDS.toNanos(20 + 2 * 512));
+    }
+
+    @Test
+    public void testCancelBeforeFire() throws InterruptedException {
+        TimerWheel         wheel   = new TimerWheel(1, "Timer Wheel Test");
+        AtomicInteger      counter = new AtomicInteger();
+        CountDownLatch     fired   = new CountDownLatch(1);
+        TimerWheel.Timeout timeout = wheel.schedule(50, TimeUnit.MILLISECONDS, counter::incrementAndGet);
+        // a timeout of the same bucket, which stays linked once its neighbour is cancelled
+        wheel.schedule(50, TimeUnit.MILLISECONDS, fired::countDown);
+        Assert.assertTrue(timeout.cancel());
+        Assert.assertFalse(timeout.cancel());
+        Assert.assertTrue(fired.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        Assert.assertEquals(0, counter.get());
+    }
+
+    @Test
+    public void testCancelAfterFire() throws InterruptedException {
+        TimerWheel         wheel   = new TimerWheel(1, "Timer Wheel Test");
+        CountDownLatch     fired   = new CountDownLatch(1);
+        TimerWheel.Timeout timeout = wheel.schedule(10, TimeUnit.MILLISECONDS, fired::countDown);
+        Assert.assertTrue(fired.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse(timeout.cancel());
+    }
+
+    @Test
+    public void testManyTimeouts() throws InterruptedException {
+        TimerWheel     wheel   = new TimerWheel(1, "Timer Wheel Test");
+        AtomicInteger  counter = new AtomicInteger();
+        CountDownLatch fired   = new CountDownLatch(5000);
+        for (int i = 0; i < 10_000; ++i) {
+            TimerWheel.Timeout timeout = wheel.schedule(100 + i % 600, TimeUnit.MILLISECONDS, () -> {
+                counter.incrementAndGet();
+                fired.countDown();
+            });
+            if (i % 2 == 1) {
+                Assert.assertTrue(timeout.cancel());
+            }
+        }
+        Assert.assertTrue(fired.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        Assert.assertEquals(5000, counter.get());
+    }
+
+}